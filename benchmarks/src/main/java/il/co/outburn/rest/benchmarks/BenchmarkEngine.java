@@ -0,0 +1,48 @@
+package il.co.outburn.rest.benchmarks;
+
+import il.co.outburn.rest.FhirValidationEngineCache;
+import il.co.outburn.rest.FhirValidatorApplication;
+import il.co.outburn.rest.FhirValidatorConfiguration;
+import org.hl7.fhir.validation.ValidationEngine;
+
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * Builds the default ValidationEngine once per benchmark JVM, the same way the application does at startup.
+ * <p>
+ * The package set is fixed so results are comparable between runs: the FHIR core package of the configured
+ * version plus the packages listed in yafva.bench.ig, no terminology server, and network access prohibited by
+ * the FHIR settings file. The packages must already be in the local package cache (~/.fhir/packages).
+ */
+public class BenchmarkEngine {
+    public static final String SV = System.getProperty("yafva.bench.sv", "4.0.1");
+
+    private static FhirValidatorConfiguration configuration;
+
+    public static synchronized FhirValidatorConfiguration initialize() throws Throwable {
+        if (configuration != null) return configuration;
+
+        var config = new FhirValidatorConfiguration();
+        config.setSv(SV);
+        var igs = System.getProperty("yafva.bench.ig", "");
+        config.setIg(igs.isBlank() ? new ArrayList<>() : new ArrayList<>(Arrays.asList(igs.split(","))));
+        config.setTxServer(null);
+        config.setRemoveText(true);
+        config.setLevel("warnings");
+        var settings = System.getProperty("yafva.bench.settings", "fhir-settings.json");
+        if (!settings.isBlank() && Files.exists(Paths.get(settings))) {
+            config.setSettingsFilePath(settings);
+        }
+
+        new FhirValidatorApplication(config);
+        configuration = config;
+        return configuration;
+    }
+
+    public static ValidationEngine getDefaultEngine() {
+        return FhirValidationEngineCache.getDefaultValidationEngine();
+    }
+}
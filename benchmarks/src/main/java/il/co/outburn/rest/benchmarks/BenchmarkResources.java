@@ -0,0 +1,111 @@
+package il.co.outburn.rest.benchmarks;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Deterministic test data. Resources are generated rather than read from files so the benchmark jar is self-contained.
+ */
+public class BenchmarkResources {
+    public static final String BODY_WEIGHT_PROFILE = "http://hl7.org/fhir/StructureDefinition/bodyweight";
+
+    private static final Gson GSON = new Gson();
+
+    /**
+     * A body weight Observation. Size adds components and notes: small ~1 KB, medium ~20 KB, large ~500 KB.
+     */
+    public static JsonObject observation(String size, int index) {
+        int repeats = switch (size) {
+            case "small" -> 0;
+            case "medium" -> 40;
+            case "large" -> 1000;
+            default -> throw new IllegalArgumentException("Unknown size: " + size);
+        };
+
+        var observation = new JsonObject();
+        observation.addProperty("resourceType", "Observation");
+        observation.addProperty("id", "bench-" + index);
+        observation.add("meta", new JsonObject());
+        observation.addProperty("status", "final");
+
+        var category = new JsonObject();
+        category.add("coding", codings("http://terminology.hl7.org/CodeSystem/observation-category", "vital-signs", "Vital Signs"));
+        var categories = new JsonArray();
+        categories.add(category);
+        observation.add("category", categories);
+
+        var code = new JsonObject();
+        code.add("coding", codings("http://loinc.org", "29463-7", "Body weight"));
+        observation.add("code", code);
+
+        var subject = new JsonObject();
+        subject.addProperty("reference", "Patient/example");
+        observation.add("subject", subject);
+        observation.addProperty("effectiveDateTime", "2024-01-01T10:00:00Z");
+        observation.add("valueQuantity", quantity(70 + index % 30));
+
+        var notes = new JsonArray();
+        var components = new JsonArray();
+        for (int i = 0; i < repeats; i++) {
+            var note = new JsonObject();
+            note.addProperty("text", "Measurement note " + i + " recorded during a routine visit with calibrated scales.");
+            notes.add(note);
+
+            var component = new JsonObject();
+            var componentCode = new JsonObject();
+            componentCode.add("coding", codings("http://loinc.org", "8302-2", "Body height"));
+            component.add("code", componentCode);
+            component.add("valueQuantity", quantity(150 + i % 50));
+            components.add(component);
+        }
+        if (repeats > 0) {
+            observation.add("note", notes);
+            observation.add("component", components);
+        }
+        return observation;
+    }
+
+    public static byte[] observationBytes(String size) {
+        return GSON.toJson(observation(size, 0)).getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * A batch Bundle of small Observations, in the shape /validateBundle expects.
+     */
+    public static byte[] batchBundleBytes(int entryCount) {
+        var bundle = new JsonObject();
+        bundle.addProperty("resourceType", "Bundle");
+        bundle.addProperty("type", "batch");
+        var entries = new JsonArray();
+        for (int i = 0; i < entryCount; i++) {
+            var entry = new JsonObject();
+            entry.addProperty("fullUrl", "urn:uuid:00000000-0000-0000-0000-" + String.format("%012d", i));
+            entry.add("resource", observation("small", i));
+            entries.add(entry);
+        }
+        bundle.add("entry", entries);
+        return GSON.toJson(bundle).getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static JsonArray codings(String system, String code, String display) {
+        var coding = new JsonObject();
+        coding.addProperty("system", system);
+        coding.addProperty("code", code);
+        coding.addProperty("display", display);
+        var codings = new JsonArray();
+        codings.add(coding);
+        return codings;
+    }
+
+    private static JsonObject quantity(double value) {
+        var quantity = new JsonObject();
+        quantity.addProperty("value", value);
+        quantity.addProperty("unit", "kg");
+        quantity.addProperty("system", "http://unitsofmeasure.org");
+        quantity.addProperty("code", "kg");
+        return quantity;
+    }
+}
@@ -0,0 +1,37 @@
+package il.co.outburn.rest.benchmarks;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Entry point of benchmarks.jar. Accepts the usual JMH command line and always adds the GC profiler,
+ * so every result reports the allocation rate (gc.alloc.rate.norm is bytes allocated per operation).
+ * Results are also written to jmh-result.json for comparison between runs.
+ */
+public class BenchmarkRunner {
+    public static void main(String[] args) throws Exception {
+        var commandLine = new CommandLineOptions(args);
+        if (commandLine.shouldHelp()) {
+            commandLine.showHelp();
+            return;
+        }
+        if (commandLine.shouldList()) {
+            new Runner(commandLine).list();
+            return;
+        }
+
+        var options = new OptionsBuilder()
+                .parent(commandLine)
+                .addProfiler(GCProfiler.class)
+                .resultFormat(commandLine.getResultFormat().orElse(ResultFormatType.JSON))
+                .result(commandLine.getResult().orElse("jmh-result.json"))
+                .jvmArgsAppend("-Dyafva.bench.sv=" + BenchmarkEngine.SV,
+                        "-Dyafva.bench.ig=" + System.getProperty("yafva.bench.ig", ""),
+                        "-Dyafva.bench.settings=" + System.getProperty("yafva.bench.settings", "fhir-settings.json"))
+                .build();
+        new Runner(options).run();
+    }
+}
@@ -0,0 +1,41 @@
+package il.co.outburn.rest.benchmarks;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonObject;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The Gson path of FhirValidator.validateBundle: parse the request bundle, then serialize every entry
+ * back to bytes for the engine. Does not need a validation engine.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class BundleParsingBenchmark {
+    @Param({"10", "100", "1000"})
+    public int entries;
+
+    private byte[] bundle;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        bundle = BenchmarkResources.batchBundleBytes(entries);
+    }
+
+    @Benchmark
+    public void parseBundle(Blackhole blackhole) {
+        var gson = new Gson();
+        var json = gson.fromJson(new String(bundle, StandardCharsets.UTF_8), JsonObject.class);
+        for (var entryElement : json.getAsJsonArray("entry")) {
+            var resource = entryElement.getAsJsonObject().get("resource");
+            blackhole.consume(gson.toJson(resource).getBytes());
+        }
+    }
+}
@@ -0,0 +1,30 @@
+package il.co.outburn.rest.benchmarks;
+
+import org.hl7.fhir.validation.ValidationEngine;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of cloning the default engine, which is paid whenever the pool grows.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 10)
+@Fork(1)
+public class EngineCloneBenchmark {
+    private ValidationEngine defaultEngine;
+
+    @Setup(Level.Trial)
+    public void setup() throws Throwable {
+        BenchmarkEngine.initialize();
+        defaultEngine = BenchmarkEngine.getDefaultEngine();
+    }
+
+    @Benchmark
+    public ValidationEngine cloneEngine() throws Exception {
+        return new ValidationEngine(defaultEngine);
+    }
+}
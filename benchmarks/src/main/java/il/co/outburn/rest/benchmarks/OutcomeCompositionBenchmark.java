@@ -0,0 +1,46 @@
+package il.co.outburn.rest.benchmarks;
+
+import org.hl7.fhir.r5.elementmodel.Manager;
+import org.hl7.fhir.r5.formats.IParser;
+import org.hl7.fhir.r5.formats.JsonParser;
+import org.hl7.fhir.r5.model.OperationOutcome;
+import org.hl7.fhir.utilities.validation.ValidationMessage;
+import org.hl7.fhir.validation.ValidationEngine;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Serialization of a validation result to JSON, the last step of every request.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class OutcomeCompositionBenchmark {
+    @Param({"small", "large"})
+    public String size;
+
+    private OperationOutcome outcome;
+
+    @Setup(Level.Trial)
+    public void setup() throws Throwable {
+        BenchmarkEngine.initialize();
+        var engine = new ValidationEngine(BenchmarkEngine.getDefaultEngine());
+        var messages = new ArrayList<ValidationMessage>();
+        outcome = engine.validate(BenchmarkResources.observationBytes(size), Manager.FhirFormat.JSON,
+                List.of(BenchmarkResources.BODY_WEIGHT_PROFILE), messages);
+        outcome.setText(null);
+    }
+
+    @Benchmark
+    public byte[] composeOutcome() throws Exception {
+        var parser = new JsonParser();
+        parser.setOutputStyle(IParser.OutputStyle.NORMAL);
+        return parser.composeBytes(outcome);
+    }
+}
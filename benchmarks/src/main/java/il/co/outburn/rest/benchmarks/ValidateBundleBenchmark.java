@@ -0,0 +1,36 @@
+package il.co.outburn.rest.benchmarks;
+
+import il.co.outburn.rest.FhirValidationResult;
+import il.co.outburn.rest.FhirValidator;
+import il.co.outburn.rest.FhirValidatorConfiguration;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Batch bundle validation through FhirValidator.validateBundle, as called by /validateBundle.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 10)
+@Measurement(iterations = 5, time = 10)
+@Fork(1)
+public class ValidateBundleBenchmark {
+    @Param({"1", "10", "100"})
+    public int entries;
+
+    private FhirValidatorConfiguration configuration;
+    private byte[] bundle;
+
+    @Setup(Level.Trial)
+    public void setup() throws Throwable {
+        configuration = BenchmarkEngine.initialize();
+        bundle = BenchmarkResources.batchBundleBytes(entries);
+    }
+
+    @Benchmark
+    public FhirValidationResult validateBundle() throws Throwable {
+        return FhirValidator.validateBundle(bundle, configuration);
+    }
+}
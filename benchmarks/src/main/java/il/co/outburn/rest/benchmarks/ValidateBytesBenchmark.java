@@ -0,0 +1,42 @@
+package il.co.outburn.rest.benchmarks;
+
+import il.co.outburn.rest.FhirValidationResult;
+import il.co.outburn.rest.FhirValidator;
+import il.co.outburn.rest.FhirValidatorConfiguration;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Single resource validation through FhirValidator.validateBytes, as called by /validate.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 10)
+@Measurement(iterations = 5, time = 10)
+@Fork(1)
+public class ValidateBytesBenchmark {
+    @Param({"small", "medium", "large"})
+    public String size;
+
+    @Param({"none", "bodyweight"})
+    public String profile;
+
+    private FhirValidatorConfiguration configuration;
+    private byte[] resource;
+    private List<String> profiles;
+
+    @Setup(Level.Trial)
+    public void setup() throws Throwable {
+        configuration = BenchmarkEngine.initialize();
+        resource = BenchmarkResources.observationBytes(size);
+        profiles = "none".equals(profile) ? List.of() : List.of(BenchmarkResources.BODY_WEIGHT_PROFILE);
+    }
+
+    @Benchmark
+    public FhirValidationResult validateBytes() throws Throwable {
+        return FhirValidator.validateBytes(resource, profiles, configuration);
+    }
+}
@@ -0,0 +1,80 @@
+package il.co.outburn.rest.loadtest;
+
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.Stream;
+
+/**
+ * The FHIR resources replayed by the load test, read once into memory. Batch bundles are sent to /validateBundle,
+ * all other resources (including bundles of other types) to /validate.
+ */
+public class Corpus {
+    public static final String VALIDATE = "validate";
+    public static final String VALIDATE_BUNDLE = "validateBundle";
+
+    public record Item(String name, String endpoint, byte[] body) {
+    }
+
+    private final List<Item> resources = new ArrayList<>();
+    private final List<Item> bundles = new ArrayList<>();
+
+    public static Corpus load(Path directory) throws IOException {
+        var corpus = new Corpus();
+        List<Path> files;
+        try (Stream<Path> stream = Files.walk(directory)) {
+            files = stream.filter(Files::isRegularFile)
+                    .filter(p -> p.getFileName().toString().endsWith(".json"))
+                    .sorted()
+                    .toList();
+        }
+        for (var file : files) {
+            var body = Files.readAllBytes(file);
+            var name = directory.relativize(file).toString();
+            JsonObject json;
+            try {
+                json = JsonParser.parseString(new String(body)).getAsJsonObject();
+            } catch (RuntimeException e) {
+                throw new IOException("Not a JSON object: " + file, e);
+            }
+            corpus.add(name, json, body);
+        }
+        if (corpus.resources.isEmpty() && corpus.bundles.isEmpty()) {
+            throw new IOException("No *.json files found in " + directory);
+        }
+        return corpus;
+    }
+
+    void add(String name, JsonObject json, byte[] body) {
+        boolean batch = json.has("resourceType") && "Bundle".equals(json.get("resourceType").getAsString())
+                && json.has("type") && "batch".equals(json.get("type").getAsString());
+        if (batch) {
+            bundles.add(new Item(name, VALIDATE_BUNDLE, body));
+        } else {
+            resources.add(new Item(name, VALIDATE, body));
+        }
+    }
+
+    public int getResourceCount() {
+        return resources.size();
+    }
+
+    public int getBundleCount() {
+        return bundles.size();
+    }
+
+    /**
+     * Picks the next request according to the bundle ratio. Falls back to whichever kind the corpus has.
+     */
+    public Item next(Random random, double bundleRatio) {
+        boolean bundle = bundles.isEmpty() ? false : (resources.isEmpty() || random.nextDouble() < bundleRatio);
+        var items = bundle ? bundles : resources;
+        return items.get(random.nextInt(items.size()));
+    }
+}
@@ -0,0 +1,143 @@
+package il.co.outburn.rest.loadtest;
+
+import org.HdrHistogram.Recorder;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Sends requests and records latencies.
+ * <p>
+ * Open loop (rate > 0): requests are scheduled at fixed intervals regardless of how fast the server answers,
+ * and latency is measured from the scheduled start. A request that had to wait for a free slot because the server
+ * fell behind is charged for the wait, which avoids coordinated omission. Closed loop (rate = 0): a fixed number
+ * of workers send requests back to back; this measures maximum throughput but hides queueing delay.
+ */
+public class LoadGenerator {
+    private static final long MAX_LATENCY_NANOS = TimeUnit.MINUTES.toNanos(10);
+
+    private final LoadTestOptions options;
+    private final Corpus corpus;
+    private final HttpClient client;
+
+    private final Map<String, Recorder> recorders = new ConcurrentHashMap<>();
+    private final Map<String, LongAdder> outcomes = new ConcurrentHashMap<>();
+    private volatile boolean measuring = false;
+
+    public LoadGenerator(LoadTestOptions options, Corpus corpus) {
+        this.options = options;
+        this.corpus = corpus;
+        this.client = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_1_1)
+                .executor(Executors.newVirtualThreadPerTaskExecutor())
+                .connectTimeout(options.timeout)
+                .build();
+    }
+
+    /**
+     * Runs warmup and measurement and returns the report of the measured part.
+     */
+    public LoadTestReport run() throws InterruptedException {
+        long warmupNanos = options.warmup.toNanos();
+        long durationNanos = options.duration.toNanos();
+        long start = System.nanoTime();
+        long measureStart = start + warmupNanos;
+        long end = measureStart + durationNanos;
+
+        var slots = new Semaphore(options.concurrency);
+        var random = new Random(options.seed);
+        try (var executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            if (options.rate > 0) {
+                long intervalNanos = (long) (TimeUnit.SECONDS.toNanos(1) / options.rate);
+                long intended = start;
+                while (intended < end) {
+                    sleepUntil(intended);
+                    updateMeasuring(intended, measureStart);
+                    var item = corpus.next(random, options.bundleRatio);
+                    long scheduled = intended;
+                    slots.acquire();
+                    executor.submit(() -> {
+                        try {
+                            send(item, scheduled);
+                        } finally {
+                            slots.release();
+                        }
+                    });
+                    intended += intervalNanos;
+                }
+            } else {
+                for (int i = 0; i < options.concurrency; i++) {
+                    var workerRandom = new Random(options.seed + i);
+                    executor.submit(() -> {
+                        long now;
+                        while ((now = System.nanoTime()) < end) {
+                            updateMeasuring(now, measureStart);
+                            send(corpus.next(workerRandom, options.bundleRatio), now);
+                        }
+                    });
+                }
+            }
+        }
+        long measuredNanos = Math.min(System.nanoTime(), end) - measureStart;
+        return LoadTestReport.from(options, corpus, recorders, outcomes, measuredNanos);
+    }
+
+    private void updateMeasuring(long now, long measureStart) {
+        if (measuring || now < measureStart) return;
+        synchronized (this) {
+            if (measuring) return;
+            measuring = true;
+            // Drop what was recorded during warmup
+            recorders.values().forEach(Recorder::reset);
+            outcomes.clear();
+        }
+    }
+
+    private void send(Corpus.Item item, long scheduledNanos) {
+        var request = HttpRequest.newBuilder(URI.create(options.url + "/" + item.endpoint()))
+                .timeout(options.timeout)
+                .header("Content-Type", "application/fhir+json")
+                .header("Accept", "application/fhir+json")
+                .POST(HttpRequest.BodyPublishers.ofByteArray(item.body()))
+                .build();
+        String outcome;
+        try {
+            var response = client.send(request, HttpResponse.BodyHandlers.discarding());
+            outcome = outcomeOf(response.statusCode());
+        } catch (java.net.http.HttpTimeoutException e) {
+            outcome = "timeout";
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return;
+        } catch (Exception e) {
+            outcome = "io_error";
+        }
+        long latency = Math.min(System.nanoTime() - scheduledNanos, MAX_LATENCY_NANOS);
+        recorders.computeIfAbsent(item.endpoint(), k -> new Recorder(MAX_LATENCY_NANOS, 3)).recordValue(latency);
+        outcomes.computeIfAbsent(item.endpoint() + ":" + outcome, k -> new LongAdder()).increment();
+    }
+
+    static String outcomeOf(int status) {
+        if (status >= 200 && status < 300) return "ok";
+        if (status == 503) return "rejected";
+        if (status == 504) return "deadline";
+        if (status >= 400 && status < 500) return "client_error";
+        return "server_error";
+    }
+
+    private static void sleepUntil(long nanoTime) throws InterruptedException {
+        long remaining;
+        while ((remaining = nanoTime - System.nanoTime()) > 0) {
+            TimeUnit.NANOSECONDS.sleep(remaining);
+        }
+    }
+}
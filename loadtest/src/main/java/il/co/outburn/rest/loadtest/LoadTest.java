@@ -0,0 +1,43 @@
+package il.co.outburn.rest.loadtest;
+
+/**
+ * Replays a corpus of FHIR resources against a running yafva instance and reports latency, throughput and errors.
+ * See loadtest/README.md.
+ */
+public class LoadTest {
+    public static void main(String[] args) throws Exception {
+        LoadTestOptions options;
+        try {
+            options = LoadTestOptions.parse(args);
+        } catch (IllegalArgumentException e) {
+            if (!e.getMessage().isEmpty()) {
+                System.err.println(e.getMessage());
+            }
+            System.err.println(LoadTestOptions.USAGE);
+            System.exit(2);
+            return;
+        }
+
+        var corpus = Corpus.load(options.corpus);
+        System.out.printf("Loaded %d resources and %d batch bundles from %s%n",
+                corpus.getResourceCount(), corpus.getBundleCount(), options.corpus);
+        System.out.printf("Target %s, %s, concurrency %d, %d s warmup, %d s measured%n",
+                options.url,
+                options.rate > 0 ? "open loop at " + options.rate + " req/s" : "closed loop",
+                options.concurrency, options.warmup.toSeconds(), options.duration.toSeconds());
+
+        var report = new LoadGenerator(options, corpus).run();
+        report.print(System.out);
+        report.write(options.report);
+        System.out.println("Report written to " + options.report);
+
+        if (options.baseline != null) {
+            var comparison = ReportComparison.compare(LoadTestReport.read(options.baseline), report, options.threshold);
+            comparison.print(System.out);
+            if (comparison.hasRegression()) {
+                System.out.printf("Regression above %.1f%% threshold%n", options.threshold);
+                System.exit(1);
+            }
+        }
+    }
+}
@@ -0,0 +1,85 @@
+package il.co.outburn.rest.loadtest;
+
+import java.nio.file.Path;
+import java.time.Duration;
+
+/**
+ * Command line options of the load test.
+ */
+public class LoadTestOptions {
+    String url = "http://localhost:8080";
+    Path corpus;
+    int concurrency = 16;
+    // Requests per second; 0 runs closed loop with 'concurrency' workers sending back to back
+    double rate = 0;
+    // Fraction of requests sent to /validateBundle when the corpus has bundles
+    double bundleRatio = 0.1;
+    Duration duration = Duration.ofSeconds(60);
+    Duration warmup = Duration.ofSeconds(10);
+    Duration timeout = Duration.ofSeconds(60);
+    Path report = Path.of("loadtest-report.json");
+    Path baseline;
+    // Allowed regression in percent before the run is reported as failed
+    double threshold = 10;
+    long seed = 42;
+
+    static final String USAGE = """
+            Usage: java -jar yafva-loadtest.jar --corpus <dir> [options]
+
+              --url <url>             Base URL of the yafva instance (default http://localhost:8080)
+              --corpus <dir>          Directory with FHIR resources (*.json). Batch bundles go to /validateBundle,
+                                      everything else to /validate
+              --concurrency <n>       Maximum requests in flight (default 16)
+              --rate <n>              Open loop: requests per second, independent of response times.
+                                      0 runs closed loop with <concurrency> workers (default 0)
+              --bundle-ratio <0..1>   Share of requests sent to /validateBundle (default 0.1)
+              --duration <seconds>    Measured duration (default 60)
+              --warmup <seconds>      Unmeasured warmup before the measured duration (default 10)
+              --timeout <seconds>     Request timeout (default 60)
+              --report <file>         JSON report to write (default loadtest-report.json)
+              --baseline <file>       Previous report to compare with
+              --threshold <percent>   Allowed regression of throughput and latency percentiles (default 10)
+              --seed <n>              Seed for the request mix (default 42)
+
+            Exit code: 0 on success, 1 when the comparison with the baseline shows a regression, 2 on usage errors.
+            """;
+
+    static LoadTestOptions parse(String[] args) {
+        var options = new LoadTestOptions();
+        for (int i = 0; i < args.length; i++) {
+            var name = args[i];
+            if (name.equals("-h") || name.equals("--help")) {
+                throw new IllegalArgumentException("");
+            }
+            if (i + 1 >= args.length) {
+                throw new IllegalArgumentException("Missing value for " + name);
+            }
+            var value = args[++i];
+            switch (name) {
+                case "--url" -> options.url = value.endsWith("/") ? value.substring(0, value.length() - 1) : value;
+                case "--corpus" -> options.corpus = Path.of(value);
+                case "--concurrency" -> options.concurrency = Integer.parseInt(value);
+                case "--rate" -> options.rate = Double.parseDouble(value);
+                case "--bundle-ratio" -> options.bundleRatio = Double.parseDouble(value);
+                case "--duration" -> options.duration = Duration.ofSeconds(Long.parseLong(value));
+                case "--warmup" -> options.warmup = Duration.ofSeconds(Long.parseLong(value));
+                case "--timeout" -> options.timeout = Duration.ofSeconds(Long.parseLong(value));
+                case "--report" -> options.report = Path.of(value);
+                case "--baseline" -> options.baseline = Path.of(value);
+                case "--threshold" -> options.threshold = Double.parseDouble(value);
+                case "--seed" -> options.seed = Long.parseLong(value);
+                default -> throw new IllegalArgumentException("Unknown option: " + name);
+            }
+        }
+        if (options.corpus == null) {
+            throw new IllegalArgumentException("--corpus is required");
+        }
+        if (options.concurrency < 1) {
+            throw new IllegalArgumentException("--concurrency must be at least 1");
+        }
+        if (options.bundleRatio < 0 || options.bundleRatio > 1) {
+            throw new IllegalArgumentException("--bundle-ratio must be between 0 and 1");
+        }
+        return options;
+    }
+}
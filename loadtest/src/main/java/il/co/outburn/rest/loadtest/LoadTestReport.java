@@ -0,0 +1,143 @@
+package il.co.outburn.rest.loadtest;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.Base64;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.zip.Deflater;
+
+/**
+ * Machine readable result of a load test run. Serialized as JSON so it can be archived and used as the baseline
+ * of the next run. The full HDR histograms are included (compressed, base64) for tools that want more percentiles.
+ */
+public class LoadTestReport {
+    private static final Gson GSON = new GsonBuilder().setPrettyPrinting().create();
+
+    public static class Latency {
+        public double p50;
+        public double p90;
+        public double p99;
+        public double p999;
+        public double max;
+        public double mean;
+    }
+
+    public static class EndpointResult {
+        public long requests;
+        public double throughput;
+        public double errorRate;
+        public Map<String, Long> outcomes = new TreeMap<>();
+        // Milliseconds
+        public Latency latency = new Latency();
+        public String histogram;
+    }
+
+    public String timestamp;
+    public String url;
+    public String mode;
+    public double rate;
+    public int concurrency;
+    public double bundleRatio;
+    public double durationSeconds;
+    public int corpusResources;
+    public int corpusBundles;
+
+    public EndpointResult total;
+    public Map<String, EndpointResult> endpoints = new LinkedHashMap<>();
+
+    static LoadTestReport from(LoadTestOptions options, Corpus corpus, Map<String, Recorder> recorders,
+                               Map<String, LongAdder> outcomes, long measuredNanos) {
+        var report = new LoadTestReport();
+        report.timestamp = Instant.now().toString();
+        report.url = options.url;
+        report.mode = options.rate > 0 ? "open" : "closed";
+        report.rate = options.rate;
+        report.concurrency = options.concurrency;
+        report.bundleRatio = options.bundleRatio;
+        report.durationSeconds = measuredNanos / 1e9;
+        report.corpusResources = corpus.getResourceCount();
+        report.corpusBundles = corpus.getBundleCount();
+
+        var totalHistogram = new Histogram(3);
+        var totalOutcomes = new TreeMap<String, Long>();
+        for (var entry : new TreeMap<>(recorders).entrySet()) {
+            var histogram = entry.getValue().getIntervalHistogram();
+            totalHistogram.add(histogram);
+            var endpointOutcomes = new TreeMap<String, Long>();
+            outcomes.forEach((key, count) -> {
+                var parts = key.split(":", 2);
+                if (parts[0].equals(entry.getKey())) {
+                    endpointOutcomes.put(parts[1], count.sum());
+                    totalOutcomes.merge(parts[1], count.sum(), Long::sum);
+                }
+            });
+            report.endpoints.put(entry.getKey(), result(histogram, endpointOutcomes, report.durationSeconds));
+        }
+        report.total = result(totalHistogram, totalOutcomes, report.durationSeconds);
+        return report;
+    }
+
+    private static EndpointResult result(Histogram histogram, Map<String, Long> outcomes, double seconds) {
+        var result = new EndpointResult();
+        result.outcomes.putAll(outcomes);
+        result.requests = outcomes.values().stream().mapToLong(Long::longValue).sum();
+        result.throughput = seconds > 0 ? result.requests / seconds : 0;
+        long ok = outcomes.getOrDefault("ok", 0L);
+        result.errorRate = result.requests > 0 ? (double) (result.requests - ok) / result.requests : 0;
+        result.latency.p50 = millis(histogram.getValueAtPercentile(50));
+        result.latency.p90 = millis(histogram.getValueAtPercentile(90));
+        result.latency.p99 = millis(histogram.getValueAtPercentile(99));
+        result.latency.p999 = millis(histogram.getValueAtPercentile(99.9));
+        result.latency.max = millis(histogram.getMaxValue());
+        result.latency.mean = histogram.getTotalCount() > 0 ? histogram.getMean() / TimeUnit.MILLISECONDS.toNanos(1) : 0;
+        result.histogram = encode(histogram);
+        return result;
+    }
+
+    private static double millis(long nanos) {
+        return nanos / (double) TimeUnit.MILLISECONDS.toNanos(1);
+    }
+
+    private static String encode(Histogram histogram) {
+        var buffer = ByteBuffer.allocate(histogram.getNeededByteBufferCapacity());
+        int length = histogram.encodeIntoCompressedByteBuffer(buffer, Deflater.BEST_COMPRESSION);
+        return Base64.getEncoder().encodeToString(java.util.Arrays.copyOf(buffer.array(), length));
+    }
+
+    public void write(Path path) throws IOException {
+        Files.writeString(path, GSON.toJson(this));
+    }
+
+    public static LoadTestReport read(Path path) throws IOException {
+        return GSON.fromJson(Files.readString(path), LoadTestReport.class);
+    }
+
+    public void print(PrintStream out) {
+        out.printf("%n%s loop, %.1f s measured, %d resources / %d bundles in corpus%n",
+                mode, durationSeconds, corpusResources, corpusBundles);
+        out.printf("%-16s %10s %10s %8s %10s %10s %10s %10s %10s%n",
+                "endpoint", "requests", "req/s", "errors", "p50 ms", "p90 ms", "p99 ms", "p99.9 ms", "max ms");
+        endpoints.forEach((name, result) -> printRow(out, name, result));
+        printRow(out, "total", total);
+        out.println("outcomes: " + total.outcomes);
+    }
+
+    private static void printRow(PrintStream out, String name, EndpointResult result) {
+        out.printf("%-16s %10d %10.1f %7.2f%% %10.1f %10.1f %10.1f %10.1f %10.1f%n",
+                name, result.requests, result.throughput, result.errorRate * 100,
+                result.latency.p50, result.latency.p90, result.latency.p99, result.latency.p999, result.latency.max);
+    }
+}
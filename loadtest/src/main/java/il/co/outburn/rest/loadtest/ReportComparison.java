@@ -0,0 +1,62 @@
+package il.co.outburn.rest.loadtest;
+
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Compares a run with a baseline run. A regression is a drop in throughput, a rise in the p50/p99 latency of
+ * more than the threshold (in percent), or an error rate more than threshold percentage points higher.
+ */
+public class ReportComparison {
+    public record Check(String metric, double baseline, double current, double changePercent, boolean regression) {
+    }
+
+    private final List<Check> checks = new ArrayList<>();
+
+    public static ReportComparison compare(LoadTestReport baseline, LoadTestReport current, double thresholdPercent) {
+        var comparison = new ReportComparison();
+        comparison.higherIsBetter("throughput (req/s)", baseline.total.throughput, current.total.throughput, thresholdPercent);
+        comparison.lowerIsBetter("p50 latency (ms)", baseline.total.latency.p50, current.total.latency.p50, thresholdPercent);
+        comparison.lowerIsBetter("p99 latency (ms)", baseline.total.latency.p99, current.total.latency.p99, thresholdPercent);
+
+        double baselineErrors = baseline.total.errorRate * 100;
+        double currentErrors = current.total.errorRate * 100;
+        comparison.checks.add(new Check("error rate (%)", baselineErrors, currentErrors, currentErrors - baselineErrors,
+                currentErrors - baselineErrors > thresholdPercent));
+        return comparison;
+    }
+
+    private void higherIsBetter(String metric, double baseline, double current, double threshold) {
+        double change = percentChange(baseline, current);
+        checks.add(new Check(metric, baseline, current, change, change < -threshold));
+    }
+
+    private void lowerIsBetter(String metric, double baseline, double current, double threshold) {
+        double change = percentChange(baseline, current);
+        checks.add(new Check(metric, baseline, current, change, change > threshold));
+    }
+
+    private static double percentChange(double baseline, double current) {
+        if (baseline == 0) return current == 0 ? 0 : 100;
+        return (current - baseline) / baseline * 100;
+    }
+
+    public List<Check> getChecks() {
+        return checks;
+    }
+
+    public boolean hasRegression() {
+        return checks.stream().anyMatch(Check::regression);
+    }
+
+    public void print(PrintStream out) {
+        out.printf("%nComparison with baseline:%n");
+        out.printf("%-20s %12s %12s %10s%n", "metric", "baseline", "current", "change");
+        for (var check : checks) {
+            out.printf("%-20s %12.2f %12.2f %+9.1f%s%s%n", check.metric(), check.baseline(), check.current(),
+                    check.changePercent(), check.metric().startsWith("error") ? "pp" : "% ",
+                    check.regression() ? "  REGRESSION" : "");
+        }
+    }
+}
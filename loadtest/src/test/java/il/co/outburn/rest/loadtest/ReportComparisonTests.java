@@ -0,0 +1,45 @@
+package il.co.outburn.rest.loadtest;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ReportComparisonTests {
+
+    private static LoadTestReport report(double throughput, double p50, double p99, double errorRate) {
+        var report = new LoadTestReport();
+        report.total = new LoadTestReport.EndpointResult();
+        report.total.throughput = throughput;
+        report.total.latency.p50 = p50;
+        report.total.latency.p99 = p99;
+        report.total.errorRate = errorRate;
+        return report;
+    }
+
+    @Test
+    void compare_withinThreshold_shouldPass() {
+        var comparison = ReportComparison.compare(report(100, 10, 50, 0), report(95, 10.5, 54, 0.01), 10);
+        assertFalse(comparison.hasRegression());
+    }
+
+    @Test
+    void compare_throughputDrop_shouldFail() {
+        var comparison = ReportComparison.compare(report(100, 10, 50, 0), report(80, 10, 50, 0), 10);
+        assertTrue(comparison.hasRegression());
+    }
+
+    @Test
+    void compare_p99Rise_shouldFail() {
+        var comparison = ReportComparison.compare(report(100, 10, 50, 0), report(100, 10, 70, 0), 10);
+        assertTrue(comparison.hasRegression());
+    }
+
+    @Test
+    void outcomeOf_shouldClassifyStatusCodes() {
+        assertEquals("ok", LoadGenerator.outcomeOf(200));
+        assertEquals("rejected", LoadGenerator.outcomeOf(503));
+        assertEquals("deadline", LoadGenerator.outcomeOf(504));
+        assertEquals("client_error", LoadGenerator.outcomeOf(400));
+        assertEquals("server_error", LoadGenerator.outcomeOf(500));
+    }
+}
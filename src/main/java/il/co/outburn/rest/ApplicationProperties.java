@@ -16,6 +16,26 @@ public class ApplicationProperties {
         return org.hl7.fhir.utilities.VersionUtil.getVersion();
     }
 
+    /**
+     * Everything on the server that can change a validation outcome: application and validator versions, FHIR
+     * version, IGs, loaded packages, tx-server and validation settings. Two servers with the same fingerprint
+     * give the same outcome for the same request.
+     */
+    public static String getServerFingerprint(FhirValidatorConfiguration configuration) {
+        var engine = FhirValidationEngineCache.getDefaultValidationEngine();
+        return String.join("\n",
+                getAppVersion(),
+                getHapiValidatorVersion(),
+                configuration.getSv(),
+                String.valueOf(configuration.getIg()),
+                engine == null ? "" : String.valueOf(engine.getContext().getLoadedPackages()),
+                String.valueOf(configuration.getTxServer()),
+                configuration.level + "|" + configuration.bestPracticeLevel + "|" + configuration.anyExtensionsAllowed
+                        + "|" + configuration.extensionDomains + "|" + configuration.unknownCodeSystemsCauseErrors
+                        + "|" + configuration.allowExampleUrls + "|" + configuration.displayWarnings
+                        + "|" + configuration.wantInvariantInMessage + "|" + configuration.removeText);
+    }
+
     public static class ApplicationInfo {
         public String appVersion;
         public String hapiValidatorVersion;
@@ -24,9 +44,12 @@ public class ApplicationProperties {
         public List<String> loadedPackages;
         public String terminologyServer;
         public List<String> packageServers;
+        public int maxEngines;
+        public long cacheBudgetBytes;
+        public FhirAutoSizing.Result autoSizing;
 
         public ApplicationInfo(FhirValidatorConfiguration configuration) throws IOException {
-            var validationEngine = FhirValidationEngineCache.getValidationEngine();
+            var validationEngine = FhirValidationEngineCache.getDefaultValidationEngine();
 
             appVersion = getAppVersion();
             hapiValidatorVersion = getHapiValidatorVersion();
@@ -43,6 +66,9 @@ public class ApplicationProperties {
                     .stream()
                     .map(PackageServer::getUrl)
                     .toList();
+            maxEngines = FhirValidationEngineCache.getMaxEngines();
+            cacheBudgetBytes = configuration.getCacheBudgetBytes();
+            autoSizing = FhirAutoSizing.getCurrent();
         }
     }
 }
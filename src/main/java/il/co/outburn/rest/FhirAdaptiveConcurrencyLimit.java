@@ -0,0 +1,109 @@
+package il.co.outburn.rest;
+
+import lombok.Getter;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Gradient based concurrency limit. Compares the recent validation latency with the long term baseline:
+ * while they match the limit grows, and when latency rises (for example because the tx-server slows down
+ * or the CPUs are saturated) the limit shrinks proportionally to the gradient.
+ * <p>
+ * Samples are aggregated into windows; the limit only changes at the end of a window. Not thread safe on its own,
+ * callers must synchronize.
+ */
+public class FhirAdaptiveConcurrencyLimit {
+    // Latency may rise this much above the baseline before the limit starts to shrink
+    private static final double TOLERANCE = 1.5;
+    // Weight of a new limit value against the previous one
+    private static final double SMOOTHING = 0.2;
+    // Number of windows the long term baseline averages over
+    private static final int LONG_WINDOW = 100;
+    private static final int MIN_WINDOW_SAMPLES = 10;
+    private static final long WINDOW_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+    @Getter
+    private final int minLimit;
+
+    @Getter
+    private final int maxLimit;
+
+    private double estimatedLimit;
+
+    private double longRttNanos = 0;
+
+    private long windowStartNanos;
+    private long windowSumNanos = 0;
+    private int windowSamples = 0;
+    private int windowMaxInFlight = 0;
+
+    public FhirAdaptiveConcurrencyLimit(int initialLimit, int minLimit, int maxLimit) {
+        this.minLimit = Math.max(1, minLimit);
+        this.maxLimit = Math.max(this.minLimit, maxLimit);
+        this.estimatedLimit = clamp(initialLimit);
+    }
+
+    public int getLimit() {
+        return (int) estimatedLimit;
+    }
+
+    /**
+     * Records one completed validation.
+     *
+     * @param rttNanos service time of the validation
+     * @param inFlight number of validations that were running when it completed, including itself
+     * @return true if the limit changed
+     */
+    public boolean onSample(long rttNanos, int inFlight) {
+        return onSample(rttNanos, inFlight, System.nanoTime());
+    }
+
+    boolean onSample(long rttNanos, int inFlight, long nowNanos) {
+        if (windowSamples == 0) {
+            windowStartNanos = nowNanos;
+        }
+        windowSumNanos += rttNanos;
+        windowSamples++;
+        windowMaxInFlight = Math.max(windowMaxInFlight, inFlight);
+        if (windowSamples < MIN_WINDOW_SAMPLES || nowNanos - windowStartNanos < WINDOW_NANOS) {
+            return false;
+        }
+
+        double shortRtt = (double) windowSumNanos / windowSamples;
+        int maxInFlight = windowMaxInFlight;
+        windowSumNanos = 0;
+        windowSamples = 0;
+        windowMaxInFlight = 0;
+        return update(shortRtt, maxInFlight);
+    }
+
+    private boolean update(double shortRtt, int maxInFlight) {
+        if (longRttNanos == 0) {
+            longRttNanos = shortRtt;
+        } else {
+            longRttNanos += (shortRtt - longRttNanos) / LONG_WINDOW;
+            // Recover quickly after a long period of high latency, otherwise the baseline keeps the limit low
+            if (longRttNanos / shortRtt > 2) {
+                longRttNanos *= 0.95;
+            }
+        }
+
+        // Too little traffic to say anything about the limit
+        if (maxInFlight < estimatedLimit / 2) {
+            return false;
+        }
+
+        double gradient = Math.max(0.5, Math.min(1.0, TOLERANCE * longRttNanos / shortRtt));
+        double queueAllowance = Math.sqrt(estimatedLimit);
+        double newLimit = estimatedLimit * gradient + queueAllowance;
+        newLimit = estimatedLimit * (1 - SMOOTHING) + newLimit * SMOOTHING;
+
+        int previous = getLimit();
+        estimatedLimit = clamp(newLimit);
+        return getLimit() != previous;
+    }
+
+    private double clamp(double value) {
+        return Math.max(minLimit, Math.min(maxLimit, value));
+    }
+}
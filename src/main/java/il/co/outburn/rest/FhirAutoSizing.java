@@ -0,0 +1,107 @@
+package il.co.outburn.rest;
+
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.web.context.WebServerInitializedEvent;
+import org.springframework.boot.web.embedded.tomcat.TomcatWebServer;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+
+/**
+ * Derives the engine count, the number of Tomcat worker threads and the cache budget from the container limits
+ * and the measured size of the default engine and of one clone (validator.auto-sizing).
+ * <p>
+ * The engine count and the cache budget are applied right after the first clone, while the application bean is
+ * created; admission control depends on that bean, so it starts with the derived engine count. The worker threads
+ * are applied to Tomcat once the web server has started.
+ */
+@Slf4j
+@Component
+public class FhirAutoSizing {
+    // Share of the heap reserved for application caches in auto mode
+    static final double CACHE_SHARE = 0.10;
+    // Extra worker threads for actuator probes and requests that are rejected right away
+    static final int SPARE_WORKER_THREADS = 4;
+    static final long MIN_CACHE_BUDGET_BYTES = 32L * 1024 * 1024;
+
+    public record Result(Double cpuLimit, int availableProcessors, Long containerMemoryLimitBytes, long maxHeapBytes,
+                         Long defaultEngineBytes, Long cloneBytes, int maxEngines, int workerThreads,
+                         long cacheBudgetBytes) {
+    }
+
+    @Getter
+    static Result current;
+
+    /**
+     * Computes the sizing and applies the engine count and cache budget to the configuration and the engine pool.
+     */
+    public static Result apply(FhirValidatorConfiguration configuration, FhirStartupProfiler profiler) {
+        Long engineBytes = null;
+        Long cloneBytes = null;
+        if (profiler != null) {
+            var report = profiler.getReport();
+            engineBytes = report.defaultEngineBytes();
+            cloneBytes = report.cloneBytes();
+        }
+
+        var result = compute(FhirContainerLimits.getCpuLimit(), Runtime.getRuntime().availableProcessors(),
+                FhirContainerLimits.getMemoryLimitBytes(), Runtime.getRuntime().maxMemory(),
+                engineBytes, cloneBytes, configuration.getTxServer() != null,
+                Math.max(0, configuration.getQueueSizePerEngine()));
+
+        configuration.setMaxEngines(result.maxEngines());
+        configuration.setCacheBudgetMb(result.cacheBudgetBytes() / (1024 * 1024));
+        FhirCacheBudget.setMaxBytes(result.cacheBudgetBytes());
+        FhirValidationEngineCache.setMaxEngines(result.maxEngines());
+        current = result;
+        log.info("FhirAutoSizing - cpu limit {}, {} processors, memory limit {}, max heap {} MB, engine {} MB, clone {} MB"
+                        + " => max engines {}, worker threads {}, cache budget {} MB",
+                result.cpuLimit(), result.availableProcessors(), result.containerMemoryLimitBytes(),
+                result.maxHeapBytes() / (1024 * 1024),
+                result.defaultEngineBytes() == null ? "?" : result.defaultEngineBytes() / (1024 * 1024),
+                result.cloneBytes() == null ? "?" : result.cloneBytes() / (1024 * 1024),
+                result.maxEngines(), result.workerThreads(), result.cacheBudgetBytes() / (1024 * 1024));
+        return result;
+    }
+
+    /**
+     * Validation is CPU bound, so one engine per core; with a terminology server part of each validation is spent
+     * waiting, so two per core. Never more than fit into the heap next to the default engine and the cache budget.
+     */
+    static Result compute(Double cpuLimit, int availableProcessors, Long memoryLimitBytes, long maxHeapBytes,
+                          Long engineBytes, Long cloneBytes, boolean txServer, int queueSizePerEngine) {
+        int cores = cpuLimit == null ? availableProcessors : Math.max(1, (int) Math.ceil(cpuLimit));
+        int cpuEngines = txServer ? 2 * cores : cores;
+
+        long cacheBudget = Math.max(MIN_CACHE_BUDGET_BYTES, (long) (maxHeapBytes * CACHE_SHARE));
+        int maxEngines = cpuEngines;
+        if (engineBytes != null && cloneBytes != null && cloneBytes > 0) {
+            long usable = (long) (maxHeapBytes * (1 - FhirMemoryEndpoint.HEAP_HEADROOM)) - engineBytes - cacheBudget;
+            int memoryEngines = (int) Math.max(1, usable / cloneBytes);
+            maxEngines = Math.min(cpuEngines, memoryEngines);
+        }
+        int workerThreads = maxEngines * (1 + queueSizePerEngine) + SPARE_WORKER_THREADS;
+
+        return new Result(cpuLimit, availableProcessors, memoryLimitBytes, maxHeapBytes, engineBytes, cloneBytes,
+                maxEngines, workerThreads, cacheBudget);
+    }
+
+    @EventListener
+    public void onWebServerInitialized(WebServerInitializedEvent event) {
+        var result = current;
+        if (result == null) return;
+        if (!(event.getWebServer() instanceof TomcatWebServer tomcat)) return;
+
+        var executor = tomcat.getTomcat().getConnector().getProtocolHandler().getExecutor();
+        if (executor instanceof org.apache.tomcat.util.threads.ThreadPoolExecutor pool) {
+            int threads = result.workerThreads();
+            if (threads < pool.getCorePoolSize()) {
+                pool.setCorePoolSize(threads);
+            }
+            pool.setMaximumPoolSize(threads);
+            log.info("FhirAutoSizing - Tomcat worker threads set to {}", threads);
+        } else {
+            log.info("FhirAutoSizing - Tomcat does not use a thread pool (virtual threads?), worker threads left unchanged");
+        }
+    }
+}
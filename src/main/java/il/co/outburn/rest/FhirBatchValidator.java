@@ -0,0 +1,317 @@
+package il.co.outburn.rest;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.Banner;
+import org.springframework.boot.WebApplicationType;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+/**
+ * Offline batch validation: {@code java -jar yafva.jar validate --input <dir|file> --out <results.ndjson> [--threads N]}.
+ * <p>
+ * Starts the application without the web server, so the default engine is initialized from the same configuration
+ * (any {@code --validator.*} argument is passed on), and validates every resource of the input on N engines in
+ * parallel. Input files are memory-mapped: a .json file is one resource, every line of a .ndjson file is one resource,
+ * and a directory is walked for both. One NDJSON line is written per resource as soon as its validation is done,
+ * so the output is not in input order. A summary with throughput and error counts is printed at the end.
+ * <p>
+ * Exit code: 0 when all resources are valid, 1 when some have errors, 2 on bad arguments.
+ */
+@Slf4j
+public class FhirBatchValidator {
+    public static final String COMMAND = "validate";
+
+    // Size of the region of an NDJSON file mapped at a time; a single line may not be longer
+    static final long MAP_WINDOW = 256L * 1024 * 1024;
+
+    private static final String USAGE = "Usage: java -jar yafva.jar validate --input <dir|file.json|file.ndjson> --out <results.ndjson>"
+            + " [--threads N] [--profile URL]... [--mode structure|profiles|full] [--validator.<property>=<value>]...";
+
+    @FunctionalInterface
+    interface ResourceConsumer {
+        void accept(String source, byte[] resource) throws IOException;
+    }
+
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    record Result(String source, boolean valid, boolean truncated, List<FhirCompactResponse.Issue> issues, String error) {
+    }
+
+    static class Arguments {
+        @Getter
+        Path input;
+        @Getter
+        Path out;
+        @Getter
+        int threads = 0;
+        @Getter
+        String mode;
+        @Getter
+        List<String> profiles = new ArrayList<>();
+        // Passed on to Spring, e.g. --validator.ig[0]=...
+        @Getter
+        List<String> applicationArgs = new ArrayList<>();
+
+        static Arguments parse(String[] args) {
+            var result = new Arguments();
+            for (int i = 0; i < args.length; i++) {
+                var arg = args[i];
+                switch (arg) {
+                    case "--input" -> result.input = Path.of(value(args, ++i, arg));
+                    case "--out" -> result.out = Path.of(value(args, ++i, arg));
+                    case "--mode" -> result.mode = value(args, ++i, arg);
+                    case "--profile" -> result.profiles.add(value(args, ++i, arg));
+                    case "--threads" -> {
+                        try {
+                            result.threads = Integer.parseInt(value(args, ++i, arg));
+                        } catch (NumberFormatException e) {
+                            throw new IllegalArgumentException("--threads must be a number");
+                        }
+                        if (result.threads < 1) throw new IllegalArgumentException("--threads must be greater than 0");
+                    }
+                    default -> {
+                        // The batch sets the engine count itself, so it is not auto-sized, and never serves gRPC
+                        if (arg.startsWith("--validator.max-engines=") || arg.startsWith("--validator.auto-sizing=")
+                                || arg.startsWith("--validator.grpc-port=")) continue;
+                        if (!arg.startsWith("--") || !arg.contains("=")) throw new IllegalArgumentException("Unknown argument: " + arg);
+                        result.applicationArgs.add(arg);
+                    }
+                }
+            }
+            if (result.input == null) throw new IllegalArgumentException("--input is required");
+            if (result.out == null) throw new IllegalArgumentException("--out is required");
+            if (result.threads == 0) result.threads = Runtime.getRuntime().availableProcessors();
+            return result;
+        }
+
+        private static String value(String[] args, int index, String name) {
+            if (index >= args.length) throw new IllegalArgumentException(name + " requires a value");
+            return args[index];
+        }
+    }
+
+    private final FhirValidatorConfiguration configuration;
+    private final Arguments arguments;
+    private final FhirValidationOptions options;
+    private final ObjectMapper mapper = new ObjectMapper();
+
+    private final AtomicLong files = new AtomicLong();
+    private final AtomicLong resources = new AtomicLong();
+    private final AtomicLong bytes = new AtomicLong();
+    private final AtomicLong valid = new AtomicLong();
+    private final AtomicLong invalid = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+
+    FhirBatchValidator(FhirValidatorConfiguration configuration, Arguments arguments, FhirValidationOptions options) {
+        this.configuration = configuration;
+        this.arguments = arguments;
+        this.options = options;
+    }
+
+    static FhirValidationOptions createOptions(Arguments arguments) {
+        var options = FhirValidationController.createOptions(arguments.getMode(), null, null, null, null, null, null);
+        options.setCompact(true);
+        options.setComposeOutcome(false);
+        return options;
+    }
+
+    /**
+     * Entry point of the validate command. Returns the process exit code.
+     */
+    public static int run(String[] args) {
+        var console = System.out;
+        var errorConsole = System.err;
+        Arguments arguments;
+        FhirValidationOptions options;
+        try {
+            arguments = Arguments.parse(args);
+            options = createOptions(arguments);
+            if (!Files.exists(arguments.getInput())) throw new IllegalArgumentException("Input does not exist: " + arguments.getInput());
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            System.err.println(USAGE);
+            return 2;
+        }
+
+        FhirValidatorApplication.redirectStdStreamsToLog(true);
+        var applicationArgs = new ArrayList<>(arguments.getApplicationArgs());
+        applicationArgs.add("--validator.max-engines=" + arguments.getThreads());
+        applicationArgs.add("--validator.auto-sizing=false");
+        applicationArgs.add("--validator.grpc-port=0");
+        try (var context = new SpringApplicationBuilder(FhirValidatorApplication.class)
+                .web(WebApplicationType.NONE)
+                .bannerMode(Banner.Mode.OFF)
+                .run(applicationArgs.toArray(String[]::new))) {
+            var batch = new FhirBatchValidator(context.getBean(FhirValidatorConfiguration.class), arguments, options);
+            return batch.execute(console);
+        } catch (Exception e) {
+            log.error("FhirBatchValidator::run - batch validation failed: ", e);
+            errorConsole.println("Batch validation failed: " + e.getMessage());
+            return 2;
+        }
+    }
+
+    int execute(PrintStream console) throws IOException, InterruptedException {
+        int threads = arguments.getThreads();
+        ExecutorService workers = Executors.newFixedThreadPool(threads);
+        // Bounds the resources read ahead of the engines
+        var readAhead = new Semaphore(threads * 4);
+        long start = System.nanoTime();
+
+        try (var out = new BufferedOutputStream(Files.newOutputStream(arguments.getOut()), 1024 * 1024)) {
+            try {
+                forEachResource(arguments.getInput(), (source, resource) -> {
+                    readAhead.acquireUninterruptibly();
+                    workers.execute(() -> {
+                        try {
+                            write(out, validate(source, resource));
+                        } finally {
+                            readAhead.release();
+                        }
+                    });
+                });
+            } finally {
+                // Also when reading fails partway, so the results already being validated are written before out is closed
+                workers.shutdown();
+                workers.awaitTermination(Long.MAX_VALUE, TimeUnit.DAYS);
+            }
+        }
+
+        double seconds = Math.max(1e-9, (System.nanoTime() - start) / 1e9);
+        console.printf(Locale.ROOT, "Validated %d resources from %d files in %.1f s (%.1f resources/s, %.1f MB/s) on %d threads%n",
+                resources.get(), files.get(), seconds, resources.get() / seconds, bytes.get() / seconds / (1024 * 1024), threads);
+        console.printf(Locale.ROOT, "Valid: %d, with errors: %d, failed: %d. Results: %s%n",
+                valid.get(), invalid.get(), failed.get(), arguments.getOut());
+        return (invalid.get() == 0 && failed.get() == 0) ? 0 : 1;
+    }
+
+    private Result validate(String source, byte[] resource) {
+        resources.incrementAndGet();
+        bytes.addAndGet(resource.length);
+        try {
+            var result = FhirValidator.validateBytes(resource, arguments.getProfiles(), configuration, options, FhirValidationDeadline.none());
+            (result.isHasErrors() ? invalid : valid).incrementAndGet();
+            return new Result(source, !result.isHasErrors(), result.isTruncated(),
+                    FhirCompactResponse.toIssues(result.getMessages(), null), null);
+        } catch (Throwable e) {
+            failed.incrementAndGet();
+            log.error("FhirBatchValidator::validate - {} failed: ", source, e);
+            return new Result(source, false, false, null, String.valueOf(e.getMessage()));
+        }
+    }
+
+    private void write(OutputStream out, Result result) {
+        try {
+            var line = mapper.writeValueAsBytes(result);
+            synchronized (out) {
+                out.write(line);
+                out.write('\n');
+            }
+        } catch (IOException e) {
+            log.error("FhirBatchValidator::write - could not write the result of {}: ", result.source(), e);
+        }
+    }
+
+    private void forEachResource(Path input, ResourceConsumer consumer) throws IOException {
+        if (!Files.isDirectory(input)) {
+            forEachResourceInFile(input, consumer);
+            return;
+        }
+        List<Path> inputFiles;
+        try (Stream<Path> walk = Files.walk(input)) {
+            inputFiles = walk.filter(Files::isRegularFile).filter(FhirBatchValidator::isInputFile).sorted().toList();
+        }
+        for (var file : inputFiles) {
+            forEachResourceInFile(file, consumer);
+        }
+    }
+
+    private void forEachResourceInFile(Path file, ResourceConsumer consumer) throws IOException {
+        files.incrementAndGet();
+        if (isNdjson(file)) {
+            forEachLine(file, MAP_WINDOW, consumer);
+            return;
+        }
+        try (var channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            var mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            var resource = new byte[mapped.remaining()];
+            mapped.get(resource);
+            consumer.accept(file.toString(), resource);
+        }
+    }
+
+    /**
+     * Maps the file window by window and passes every non-blank line, without its line break, with its
+     * source "file:line".
+     */
+    static void forEachLine(Path file, long window, ResourceConsumer consumer) throws IOException {
+        try (var channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            long position = 0;
+            long lineNumber = 0;
+            while (position < size) {
+                int length = (int) Math.min(window, size - position);
+                var mapped = channel.map(FileChannel.MapMode.READ_ONLY, position, length);
+                boolean last = position + length == size;
+                int lineStart = 0;
+                for (int i = 0; i <= length; i++) {
+                    boolean end = (i == length);
+                    if (end && !last) break;
+                    if (!end && mapped.get(i) != '\n') continue;
+
+                    lineNumber++;
+                    int lineEnd = i;
+                    if (lineEnd > lineStart && mapped.get(lineEnd - 1) == '\r') lineEnd--;
+                    if (!isBlank(mapped, lineStart, lineEnd)) {
+                        var line = new byte[lineEnd - lineStart];
+                        mapped.get(lineStart, line);
+                        consumer.accept(file + ":" + lineNumber, line);
+                    }
+                    lineStart = i + 1;
+                }
+                if (!last && lineStart == 0) {
+                    throw new IOException(file + ": line " + (lineNumber + 1) + " is longer than " + window + " bytes");
+                }
+                position = last ? size : position + lineStart;
+            }
+        }
+    }
+
+    private static boolean isBlank(ByteBuffer buffer, int from, int to) {
+        for (int i = from; i < to; i++) {
+            var b = buffer.get(i);
+            if (b != ' ' && b != '\t') return false;
+        }
+        return true;
+    }
+
+    private static boolean isInputFile(Path file) {
+        var name = file.getFileName().toString().toLowerCase();
+        return name.endsWith(".json") || isNdjson(file);
+    }
+
+    private static boolean isNdjson(Path file) {
+        var name = file.getFileName().toString().toLowerCase();
+        return name.endsWith(".ndjson") || name.endsWith(".jsonl");
+    }
+}
@@ -0,0 +1,45 @@
+package il.co.outburn.rest;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Heap shared by the application caches (validator.cache-budget-mb). A cache reserves the estimated size of an
+ * entry before adding it and releases it once the entry is dropped. When the budget is used up, the cache drops
+ * some of its own entries, as it does when it reaches its entry limit, and leaves the new entry out if that did
+ * not free enough.
+ * <p>
+ * Lowering the budget does not drop anything; the caches shrink as they add entries.
+ */
+public class FhirCacheBudget {
+    private static volatile long maxBytes = (long) (Runtime.getRuntime().maxMemory() * 0.10);
+    private static final AtomicLong usedBytes = new AtomicLong();
+
+    public static void setMaxBytes(long value) {
+        maxBytes = Math.max(0, value);
+    }
+
+    public static long getMaxBytes() {
+        return maxBytes;
+    }
+
+    public static long getUsedBytes() {
+        return usedBytes.get();
+    }
+
+    /**
+     * Reserves the bytes if they fit into the budget.
+     *
+     * @return false if the budget does not have room for them
+     */
+    public static boolean tryReserve(long bytes) {
+        while (true) {
+            long used = usedBytes.get();
+            if (used + bytes > maxBytes) return false;
+            if (usedBytes.compareAndSet(used, used + bytes)) return true;
+        }
+    }
+
+    public static void release(long bytes) {
+        usedBytes.addAndGet(-bytes);
+    }
+}
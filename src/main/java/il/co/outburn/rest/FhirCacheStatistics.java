@@ -0,0 +1,31 @@
+package il.co.outburn.rest;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.LongSupplier;
+
+/**
+ * Registry of the caches kept by the application, so their sizes can be reported in one place.
+ * Caches register a supplier of their current entry count under a unique name.
+ */
+public class FhirCacheStatistics {
+    private static final Map<String, LongSupplier> caches = new ConcurrentHashMap<>();
+
+    public static void register(String name, LongSupplier size) {
+        caches.put(name, size);
+    }
+
+    public static void unregister(String name) {
+        caches.remove(name);
+    }
+
+    /**
+     * Current number of entries per cache, sorted by name.
+     */
+    public static Map<String, Long> getSizes() {
+        var result = new TreeMap<String, Long>();
+        caches.forEach((name, size) -> result.put(name, size.getAsLong()));
+        return result;
+    }
+}
@@ -0,0 +1,109 @@
+package il.co.outburn.rest;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import lombok.Getter;
+import lombok.Setter;
+import org.hl7.fhir.r5.model.OperationOutcome;
+import org.hl7.fhir.utilities.validation.ValidationMessage;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Compact response for machine clients, returned instead of the OperationOutcome or message list when the
+ * request accepts application/cbor. It is built straight from the validator's messages, without composing
+ * R5 model objects, and has a small fixed schema:
+ * <pre>
+ * { schema, valid, truncated, issues: [ { severity, code, expression, text, line, col, messageId } ],
+ *   entries: [ { fullUrl, valid, truncated, issues } ] }
+ * </pre>
+ * issues is set for /validate and entries for /validateBundle. valid means no error or fatal issue was found.
+ * truncated replaces the 'incomplete' issue of the OperationOutcome; a bundle entry that was not validated
+ * because of maxFailedEntries has truncated set and no issues. Absent values and fields left out by the fields
+ * parameter are not written. The schema number changes only on incompatible changes.
+ */
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class FhirCompactResponse {
+    public static final int SCHEMA = 1;
+
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    public record Issue(String severity, String code, String expression, String text,
+                        Integer line, Integer col, String messageId) {
+
+        public static Issue of(ValidationMessage message, Set<String> fields) {
+            return new Issue(
+                    message.getLevel() == null ? null : message.getLevel().toCode(),
+                    message.getType() == null ? null : message.getType().toCode(),
+                    include(fields, "expression") ? message.getLocation() : null,
+                    include(fields, "text") ? message.getMessage() : null,
+                    include(fields, "position") && message.getLine() > 0 ? message.getLine() : null,
+                    include(fields, "position") && message.getCol() > 0 ? message.getCol() : null,
+                    include(fields, "messageId") ? message.getMessageId() : null);
+        }
+
+        /**
+         * For outcomes that don't come with messages: exceptions thrown as an OperationOutcome.
+         */
+        public static Issue of(OperationOutcome.OperationOutcomeIssueComponent issue, Set<String> fields) {
+            return new Issue(
+                    issue.hasSeverity() ? issue.getSeverity().toCode() : null,
+                    issue.hasCode() ? issue.getCode().toCode() : null,
+                    include(fields, "expression") && issue.hasExpression() ? issue.getExpression().get(0).getValue() : null,
+                    include(fields, "text") && issue.hasDetails() ? issue.getDetails().getText() : null,
+                    null, null, null);
+        }
+
+        // Severity and code are always written, like in an OperationOutcome
+        private static boolean include(Set<String> fields, String field) {
+            return fields == null || fields.contains(field);
+        }
+    }
+
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    public record Entry(String fullUrl, boolean valid, boolean truncated, List<Issue> issues) {
+    }
+
+    @Getter
+    int schema = SCHEMA;
+
+    @Getter
+    @Setter
+    boolean valid;
+
+    @Getter
+    @Setter
+    boolean truncated;
+
+    @Getter
+    @Setter
+    List<Issue> issues;
+
+    @Getter
+    @Setter
+    List<Entry> entries;
+
+    public static List<Issue> toIssues(List<ValidationMessage> messages, Set<String> fields) {
+        var issues = new ArrayList<Issue>(messages.size());
+        for (var message : messages) {
+            issues.add(Issue.of(message, fields));
+        }
+        return issues;
+    }
+
+    public static FhirCompactResponse forResource(FhirValidationResult result, Set<String> fields) {
+        var response = new FhirCompactResponse();
+        response.valid = !result.isHasErrors();
+        response.truncated = result.isTruncated();
+        response.issues = toIssues(result.getMessages(), fields);
+        return response;
+    }
+
+    public static FhirCompactResponse forBundle(FhirValidationResult result) {
+        var response = new FhirCompactResponse();
+        response.valid = !result.isHasErrors();
+        response.truncated = result.isTruncated();
+        response.entries = result.getEntries();
+        return response;
+    }
+}
@@ -0,0 +1,79 @@
+package il.co.outburn.rest;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Reads the resource limits of the container the JVM runs in from the Linux cgroup file system
+ * (v2 first, then v1). Every method returns null when there is no limit or it cannot be read,
+ * for example outside a container or on Windows.
+ */
+@Slf4j
+public class FhirContainerLimits {
+    // cgroup v1 reports "no limit" as a huge number close to Long.MAX_VALUE
+    private static final long UNLIMITED_THRESHOLD = 1L << 60;
+
+    static Path cgroupRoot = Path.of("/sys/fs/cgroup");
+
+    /**
+     * The container memory limit in bytes.
+     */
+    public static Long getMemoryLimitBytes() {
+        var v2 = readFirstLine(cgroupRoot.resolve("memory.max"));
+        if (v2 != null) {
+            return parseLimit(v2);
+        }
+        var v1 = readFirstLine(cgroupRoot.resolve("memory/memory.limit_in_bytes"));
+        return v1 == null ? null : parseLimit(v1);
+    }
+
+    /**
+     * The container CPU limit in cores (quota / period), for example 2.0 for "cpu: 2000m".
+     */
+    public static Double getCpuLimit() {
+        var v2 = readFirstLine(cgroupRoot.resolve("cpu.max"));
+        if (v2 != null) {
+            var parts = v2.split("\\s+");
+            if (parts.length != 2 || parts[0].equals("max")) return null;
+            return parseCpu(parts[0], parts[1]);
+        }
+        var quota = readFirstLine(cgroupRoot.resolve("cpu/cpu.cfs_quota_us"));
+        var period = readFirstLine(cgroupRoot.resolve("cpu/cpu.cfs_period_us"));
+        if (quota == null || period == null) return null;
+        return parseCpu(quota, period);
+    }
+
+    private static Double parseCpu(String quota, String period) {
+        try {
+            double q = Double.parseDouble(quota);
+            double p = Double.parseDouble(period);
+            return (q <= 0 || p <= 0) ? null : q / p;
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    private static Long parseLimit(String value) {
+        if (value.equals("max")) return null;
+        try {
+            long limit = Long.parseLong(value);
+            return (limit <= 0 || limit >= UNLIMITED_THRESHOLD) ? null : limit;
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    static String readFirstLine(Path path) {
+        if (!Files.isReadable(path)) return null;
+        try {
+            var lines = Files.readAllLines(path);
+            return lines.isEmpty() ? null : lines.get(0).trim();
+        } catch (IOException e) {
+            log.debug("FhirContainerLimits::readFirstLine - cannot read {}: {}", path, e.getMessage());
+            return null;
+        }
+    }
+}
@@ -0,0 +1,95 @@
+package il.co.outburn.rest;
+
+import lombok.Getter;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Decides when an engine clone is retired. Clones keep caching expansions, snapshots and terminology results
+ * for as long as they live, so long-running pods slowly grow; retiring a clone after a number of validations,
+ * an age or an estimated size bounds that growth.
+ * <p>
+ * The retained size of a single clone cannot be measured cheaply. It is estimated as the size of a fresh clone
+ * plus the resources the clone's context has cached since, at the average size of a resource in the default engine.
+ */
+public class FhirEngineRecyclingPolicy {
+    /**
+     * Per clone bookkeeping. Only accessed under the engine cache lock.
+     */
+    static class EngineInfo {
+        final long createdNanos;
+        final int baselineResources;
+        long validations = 0;
+        boolean retiring = false;
+
+        EngineInfo(long createdNanos, int baselineResources) {
+            this.createdNanos = createdNanos;
+            this.baselineResources = baselineResources;
+        }
+    }
+
+    @Getter
+    private final long maxValidations;
+
+    @Getter
+    private final long maxAgeNanos;
+
+    @Getter
+    private final long maxRetainedBytes;
+
+    private final long cloneBytes;
+    private final double bytesPerResource;
+
+    public FhirEngineRecyclingPolicy(long maxValidations, long maxAgeNanos, long maxRetainedBytes,
+                                     long cloneBytes, double bytesPerResource) {
+        this.maxValidations = Math.max(0, maxValidations);
+        this.maxAgeNanos = Math.max(0, maxAgeNanos);
+        this.maxRetainedBytes = Math.max(0, maxRetainedBytes);
+        this.cloneBytes = cloneBytes;
+        this.bytesPerResource = bytesPerResource;
+    }
+
+    public static FhirEngineRecyclingPolicy disabled() {
+        return new FhirEngineRecyclingPolicy(0, 0, 0, 0, 0);
+    }
+
+    /**
+     * Builds the policy from the configuration and the engine sizes measured at startup.
+     */
+    public static FhirEngineRecyclingPolicy fromConfiguration(FhirValidatorConfiguration configuration,
+                                                              Long defaultEngineBytes, Long cloneBytes,
+                                                              int defaultEngineResources) {
+        long maxRetained = configuration.getEngineMaxRetainedMb() * 1024 * 1024;
+        double perResource = defaultEngineBytes == null || defaultEngineResources <= 0
+                ? 0 : (double) defaultEngineBytes / defaultEngineResources;
+        return new FhirEngineRecyclingPolicy(configuration.getEngineMaxValidations(),
+                TimeUnit.MINUTES.toNanos(configuration.getEngineMaxAgeMinutes()), maxRetained,
+                cloneBytes == null ? 0 : cloneBytes, perResource);
+    }
+
+    public boolean isEnabled() {
+        return maxValidations > 0 || maxAgeNanos > 0 || maxRetainedBytes > 0;
+    }
+
+    /**
+     * Whether size based recycling is active and therefore needs the context resource count on every return.
+     */
+    public boolean tracksSize() {
+        return maxRetainedBytes > 0 && bytesPerResource > 0;
+    }
+
+    public long estimateRetainedBytes(EngineInfo info, int contextResources) {
+        return cloneBytes + (long) (Math.max(0, contextResources - info.baselineResources) * bytesPerResource);
+    }
+
+    /**
+     * @param contextResources current resource count of the clone's context, only read when tracksSize()
+     * @return the reason the clone is due for retirement, or null if it can stay in rotation
+     */
+    public String retireReason(EngineInfo info, long nowNanos, int contextResources) {
+        if (maxValidations > 0 && info.validations >= maxValidations) return "validations";
+        if (maxAgeNanos > 0 && nowNanos - info.createdNanos >= maxAgeNanos) return "age";
+        if (tracksSize() && estimateRetainedBytes(info, contextResources) >= maxRetainedBytes) return "size";
+        return null;
+    }
+}
@@ -0,0 +1,249 @@
+package il.co.outburn.rest;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Result store in one append-only file on a volume shared by the replicas (validator.result-cache-store: file).
+ * <p>
+ * The file starts with a generation number, and each record is the key and value lengths, the key and the value.
+ * A writer appends under an exclusive file lock and indexes its own record; a reader indexes only the records
+ * appended since its last look, under a shared lock, when it misses. A hit reads the record with positional reads
+ * and takes no lock, so lookups don't wait for each other or for writers. A miss does not wait for another thread
+ * that is already indexing; it stays a miss. The first value of a key wins. The volume must support file locks.
+ * <p>
+ * Once the file reaches its maximum size, the writer that finds it full starts it over with the next generation,
+ * so results of old packages or versions don't fill it for good. The other replicas notice the new generation and
+ * drop their index; a value read while the file was started over is discarded.
+ */
+@Slf4j
+public class FhirFileResultStore implements FhirResultStore {
+    private static final byte[] MAGIC = "yafva-results-2\n".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] OLD_MAGIC = "yafva-results-1\n".getBytes(StandardCharsets.US_ASCII);
+    // Magic and generation
+    static final int HEADER = MAGIC.length + 8;
+    private static final int RECORD_HEADER = 8;
+    private static final int MAX_KEY_BYTES = 1024;
+    private static final int INDEX_WINDOW = 1024 * 1024;
+
+    private record Location(long position, int keyLength, int valueLength) {
+    }
+
+    private final Path path;
+    private final long maxBytes;
+    private final FileChannel channel;
+    private final Map<String, Location> index = new ConcurrentHashMap<>();
+    // File locks of one JVM must not overlap, so this guards them and the indexing
+    private final ReentrantLock lock = new ReentrantLock();
+    private volatile long generation;
+    // End of the last indexed record
+    private volatile long indexed;
+
+    /**
+     * Opens the store, creating the file if needed, and indexes the records in it.
+     *
+     * @param maxBytes maximum file size, at most 2 GB
+     */
+    public FhirFileResultStore(Path path, long maxBytes) throws IOException {
+        this.path = path;
+        this.maxBytes = Math.min(maxBytes, Integer.MAX_VALUE);
+        Files.createDirectories(path.toAbsolutePath().getParent());
+        channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        lock.lock();
+        try (var fileLock = channel.lock()) {
+            if (channel.size() == 0 || startsWith(OLD_MAGIC)) {
+                restart(System.currentTimeMillis());
+            } else if (!startsWith(MAGIC)) {
+                channel.close();
+                throw new IOException(path + " is not a result store");
+            }
+            indexTail();
+        } finally {
+            lock.unlock();
+        }
+        log.info("FhirFileResultStore - {} results in {}", index.size(), path);
+    }
+
+    @Override
+    public byte[] get(String key) {
+        try {
+            var location = index.get(key);
+            if (location == null) {
+                // Another replica may have added it since
+                if (channel.size() == indexed) return null;
+                refresh();
+                location = index.get(key);
+                if (location == null) return null;
+            }
+            long expectedGeneration = generation;
+            var keyBytes = key.getBytes(StandardCharsets.UTF_8);
+            var header = ByteBuffer.allocate(RECORD_HEADER + location.keyLength());
+            readFully(header, location.position());
+            var value = new byte[location.valueLength()];
+            readFully(ByteBuffer.wrap(value), location.position() + header.capacity());
+            // The file may have been started over since it was indexed
+            if (readGeneration() != expectedGeneration || header.getInt(0) != keyBytes.length
+                    || header.getInt(4) != value.length
+                    || !Arrays.equals(header.array(), RECORD_HEADER, header.capacity(), keyBytes, 0, keyBytes.length)) {
+                index.remove(key, location);
+                return null;
+            }
+            return value;
+        } catch (Exception e) {
+            log.warn("FhirFileResultStore::get - could not read {}: {}", path, e.getMessage());
+            return null;
+        }
+    }
+
+    @Override
+    public void put(String key, byte[] value) {
+        if (index.containsKey(key)) return;
+        var keyBytes = key.getBytes(StandardCharsets.UTF_8);
+        var record = ByteBuffer.allocate(RECORD_HEADER + keyBytes.length + value.length)
+                .putInt(keyBytes.length)
+                .putInt(value.length)
+                .put(keyBytes)
+                .put(value)
+                .flip();
+        if (keyBytes.length > MAX_KEY_BYTES || HEADER + record.remaining() > maxBytes) return;
+        lock.lock();
+        try (var fileLock = channel.lock()) {
+            // Catches up with the other replicas, so the new record is appended right after the indexed ones
+            indexTail();
+            if (index.containsKey(key)) return;
+            long end = channel.size();
+            if (end + record.remaining() > maxBytes) {
+                restart(generation + 1);
+                log.info("FhirFileResultStore::put - {} reached {} MB, started over", path, maxBytes / (1024 * 1024));
+                end = HEADER;
+            }
+            writeFully(record, end);
+            index.putIfAbsent(key, new Location(end, keyBytes.length, value.length));
+            indexed = end + record.capacity();
+        } catch (Exception e) {
+            log.warn("FhirFileResultStore::put - could not write {}: {}", path, e.getMessage());
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public long size() {
+        return index.size();
+    }
+
+    @Override
+    public void close() {
+        try {
+            channel.close();
+        } catch (IOException e) {
+            log.warn("FhirFileResultStore::close - {}", e.getMessage());
+        }
+    }
+
+    // Indexes the records appended since the last call, unless another thread is already at it
+    private void refresh() throws IOException {
+        if (!lock.tryLock()) return;
+        // Shared, so no writer is half way through a record
+        try (var fileLock = channel.lock(0, Long.MAX_VALUE, true)) {
+            indexTail();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Called with the lock and a file lock held
+    private void indexTail() throws IOException {
+        long fileGeneration = readGeneration();
+        if (fileGeneration != generation) {
+            index.clear();
+            generation = fileGeneration;
+            indexed = HEADER;
+        }
+        long size = channel.size();
+        long position = indexed;
+        var window = ByteBuffer.allocate((int) Math.min(INDEX_WINDOW, Math.max(RECORD_HEADER, size - position)));
+        long windowStart = position;
+        window.limit(0);
+        while (position + RECORD_HEADER <= size) {
+            if (position + RECORD_HEADER > windowStart + window.limit()) {
+                windowStart = fill(window, position, size);
+            }
+            int offset = (int) (position - windowStart);
+            int keyLength = window.getInt(offset);
+            int valueLength = window.getInt(offset + 4);
+            long end = position + RECORD_HEADER + keyLength + (long) valueLength;
+            if (keyLength <= 0 || keyLength > MAX_KEY_BYTES || valueLength < 0 || end > size) {
+                log.warn("FhirFileResultStore::indexTail - {} has a broken record at {}, the rest is ignored", path, position);
+                position = size;
+                break;
+            }
+            if (position + RECORD_HEADER + keyLength > windowStart + window.limit()) {
+                windowStart = fill(window, position, size);
+                offset = 0;
+            }
+            var key = new String(window.array(), offset + RECORD_HEADER, keyLength, StandardCharsets.UTF_8);
+            index.putIfAbsent(key, new Location(position, keyLength, valueLength));
+            position = end;
+        }
+        indexed = position;
+    }
+
+    // Reads the file from the position into the window, returns the position
+    private long fill(ByteBuffer window, long position, long size) throws IOException {
+        window.clear();
+        window.limit((int) Math.min(window.capacity(), size - position));
+        readFully(window, position);
+        window.flip();
+        return position;
+    }
+
+    // Called with the lock and an exclusive file lock held; the generation is written before the records go
+    private void restart(long newGeneration) throws IOException {
+        writeFully(ByteBuffer.allocate(HEADER).put(MAGIC).putLong(newGeneration).flip(), 0);
+        channel.truncate(HEADER);
+        index.clear();
+        generation = newGeneration;
+        indexed = HEADER;
+    }
+
+    private boolean startsWith(byte[] magic) throws IOException {
+        if (channel.size() < magic.length) return false;
+        var buffer = ByteBuffer.allocate(magic.length);
+        readFully(buffer, 0);
+        return Arrays.equals(buffer.array(), magic);
+    }
+
+    private long readGeneration() throws IOException {
+        var buffer = ByteBuffer.allocate(8);
+        readFully(buffer, MAGIC.length);
+        return buffer.getLong(0);
+    }
+
+    private void readFully(ByteBuffer buffer, long position) throws IOException {
+        long start = position - buffer.position();
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, start + buffer.position()) < 0) {
+                throw new EOFException(path + " ended at " + (start + buffer.position()));
+            }
+        }
+    }
+
+    private void writeFully(ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer, position + buffer.position());
+        }
+    }
+}
@@ -0,0 +1,64 @@
+package il.co.outburn.rest;
+
+import io.grpc.Grpc;
+import io.grpc.InsecureServerCredentials;
+import io.grpc.Server;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs the gRPC front end next to the HTTP endpoints when validator.grpc-port is set.
+ */
+@Slf4j
+@Component
+public class FhirGrpcServer {
+    private final FhirValidatorConfiguration configuration;
+    private final FhirValidationAdmission admission;
+    private final FhirValidationExecutor executor;
+
+    private Server server;
+    private ExecutorService streamWorkers;
+
+    public FhirGrpcServer(FhirValidatorConfiguration configuration, FhirValidationAdmission admission, FhirValidationExecutor executor) {
+        this.configuration = configuration;
+        this.admission = admission;
+        this.executor = executor;
+    }
+
+    @PostConstruct
+    public void start() throws IOException {
+        var port = configuration.getGrpcPort();
+        if (port == null || port <= 0) {
+            return;
+        }
+
+        // Stream items mostly wait for admission and results, the validation itself runs on the engines
+        streamWorkers = Executors.newVirtualThreadPerTaskExecutor();
+        long maxMessageBytes = configuration.getMaxRequestBodyBytes();
+        server = Grpc.newServerBuilderForPort(port, InsecureServerCredentials.create())
+                .addService(new FhirGrpcValidationService(configuration, admission, executor, streamWorkers))
+                .maxInboundMessageSize((maxMessageBytes > 0 && maxMessageBytes < Integer.MAX_VALUE) ? (int) maxMessageBytes : Integer.MAX_VALUE)
+                .build()
+                .start();
+        log.info("FhirGrpcServer - listening on port {}", port);
+    }
+
+    @PreDestroy
+    public void stop() throws InterruptedException {
+        if (server == null) {
+            return;
+        }
+        server.shutdown();
+        if (!server.awaitTermination(30, TimeUnit.SECONDS)) {
+            server.shutdownNow();
+        }
+        streamWorkers.shutdown();
+    }
+}
@@ -0,0 +1,232 @@
+package il.co.outburn.rest;
+
+import il.co.outburn.rest.grpc.FhirValidationGrpc;
+import il.co.outburn.rest.grpc.Issue;
+import il.co.outburn.rest.grpc.ValidateRequest;
+import il.co.outburn.rest.grpc.ValidateResponse;
+import il.co.outburn.rest.grpc.ValidationError;
+import io.grpc.Context;
+import io.grpc.Status;
+import io.grpc.stub.ServerCallStreamObserver;
+import io.grpc.stub.StreamObserver;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * gRPC implementation of the validation service (src/main/proto/fhir_validation.proto). Validations go through
+ * the same admission control, engines and options as the HTTP endpoints.
+ * <p>
+ * ValidateStream uses manual flow control: the server requests at most grpc-stream-window messages ahead and
+ * asks for the next one only after a result was sent and the client is ready to read it.
+ */
+@Slf4j
+public class FhirGrpcValidationService extends FhirValidationGrpc.FhirValidationImplBase {
+    private final FhirValidatorConfiguration configuration;
+    private final FhirValidationAdmission admission;
+    private final FhirValidationExecutor executor;
+    private final ExecutorService streamWorkers;
+
+    /**
+     * @param streamWorkers runs the stream items; each blocks while waiting for admission and for its result
+     */
+    public FhirGrpcValidationService(FhirValidatorConfiguration configuration, FhirValidationAdmission admission,
+                                     FhirValidationExecutor executor, ExecutorService streamWorkers) {
+        this.configuration = configuration;
+        this.admission = admission;
+        this.executor = executor;
+        this.streamWorkers = streamWorkers;
+    }
+
+    @Override
+    public void validate(ValidateRequest request, StreamObserver<ValidateResponse> responseObserver) {
+        var deadline = createDeadline();
+        if (responseObserver instanceof ServerCallStreamObserver<ValidateResponse> call) {
+            call.setOnCancelHandler(() -> deadline.cancel(FhirValidationDeadline.Reason.CLIENT_DISCONNECTED));
+        }
+        try {
+            var lane = admission.laneForResource(request.getResource().size());
+            responseObserver.onNext(validate(request, lane, deadline));
+            responseObserver.onCompleted();
+        } catch (Throwable e) {
+            var error = toError(e);
+            responseObserver.onError(Status.fromCode(Status.Code.valueOf(error.getStatus()))
+                    .withDescription(error.getMessage())
+                    .asRuntimeException());
+        }
+    }
+
+    @Override
+    public StreamObserver<ValidateRequest> validateStream(StreamObserver<ValidateResponse> responseObserver) {
+        return new ValidationStream((ServerCallStreamObserver<ValidateResponse>) responseObserver);
+    }
+
+    private ValidateResponse validate(ValidateRequest request, FhirValidationLane lane, FhirValidationDeadline deadline) throws Throwable {
+        var options = FhirValidationController.createOptions(request.getMode(),
+                request.getStopOnFirstError(),
+                request.getMaxIssues() == 0 ? null : request.getMaxIssues(),
+                null,
+                request.getMinSeverity(),
+                false,
+                request.getFieldsList());
+        options.setCompact(true);
+        options.setComposeOutcome(false);
+        var bytes = request.getResource().toByteArray();
+        var profiles = request.getProfilesList();
+
+        FhirValidationResult result;
+        try (var permit = admission.acquire(lane)) {
+            deadline.checkpoint();
+            result = executor.execute(() -> FhirValidator.validateBytes(bytes, profiles, configuration, options, deadline));
+        }
+
+        var response = ValidateResponse.newBuilder()
+                .setCorrelationId(request.getCorrelationId())
+                .setValid(!result.isHasErrors())
+                .setTruncated(result.isTruncated());
+        for (var issue : FhirCompactResponse.toIssues(result.getMessages(), options.getFields())) {
+            response.addIssues(toIssue(issue));
+        }
+        return response.build();
+    }
+
+    private static Issue toIssue(FhirCompactResponse.Issue issue) {
+        var builder = Issue.newBuilder();
+        if (issue.severity() != null) builder.setSeverity(issue.severity());
+        if (issue.code() != null) builder.setCode(issue.code());
+        if (issue.expression() != null) builder.setExpression(issue.expression());
+        if (issue.text() != null) builder.setText(issue.text());
+        if (issue.line() != null) builder.setLine(issue.line());
+        if (issue.col() != null) builder.setCol(issue.col());
+        if (issue.messageId() != null) builder.setMessageId(issue.messageId());
+        return builder.build();
+    }
+
+    private ValidationError toError(Throwable e) {
+        var error = ValidationError.newBuilder().setMessage(String.valueOf(e.getMessage()));
+        if (e instanceof IllegalArgumentException) {
+            error.setStatus(Status.Code.INVALID_ARGUMENT.name());
+        } else if (e instanceof FhirValidationRejectedException rejected) {
+            error.setStatus(Status.Code.RESOURCE_EXHAUSTED.name());
+            error.setRetryAfterSeconds(rejected.getRetryAfterSeconds());
+        } else if (e instanceof FhirValidationCancelledException cancelled) {
+            admission.recordCancelled(cancelled.getReason());
+            error.setStatus(cancelled.getReason() == FhirValidationDeadline.Reason.DEADLINE_EXCEEDED
+                    ? Status.Code.DEADLINE_EXCEEDED.name()
+                    : Status.Code.CANCELLED.name());
+        } else {
+            log.error("FhirGrpcValidationService::validate - internal error: ", e);
+            error.setStatus(Status.Code.INTERNAL.name());
+        }
+        return error.build();
+    }
+
+    // The configured request-timeout, or the gRPC deadline of the call if it is shorter
+    private FhirValidationDeadline createDeadline() {
+        long timeout = configuration.getRequestTimeout() == null ? 0 : configuration.getRequestTimeout();
+        var callDeadline = Context.current().getDeadline();
+        if (callDeadline != null) {
+            long requested = Math.max(1, callDeadline.timeRemaining(TimeUnit.MILLISECONDS));
+            timeout = (timeout > 0) ? Math.min(timeout, requested) : requested;
+        }
+        return FhirValidationDeadline.afterMillis(timeout);
+    }
+
+    /**
+     * One ValidateStream call. Requests are validated concurrently, up to the stream window, and each result is
+     * sent as soon as it is ready. The response stream is completed once the client half-closed and all results
+     * were sent.
+     */
+    private class ValidationStream implements StreamObserver<ValidateRequest> {
+        private final ServerCallStreamObserver<ValidateResponse> responses;
+        private final Set<FhirValidationDeadline> running = Collections.newSetFromMap(new IdentityHashMap<>());
+        private final int window = configuration.getGrpcStreamWindow();
+
+        // Guarded by this
+        private boolean started = false;
+        private boolean halfClosed = false;
+        private boolean cancelled = false;
+        private int inFlight = 0;
+        // Messages the server may request once the client reads again
+        private int owed = 0;
+
+        ValidationStream(ServerCallStreamObserver<ValidateResponse> responses) {
+            this.responses = responses;
+            responses.disableAutoRequest();
+            responses.setOnReadyHandler(this::onReady);
+            responses.setOnCancelHandler(this::onCancel);
+        }
+
+        private synchronized void onReady() {
+            if (!started) {
+                started = true;
+                responses.request(window);
+            } else if (owed > 0 && responses.isReady()) {
+                responses.request(owed);
+                owed = 0;
+            }
+        }
+
+        private synchronized void onCancel() {
+            cancelled = true;
+            running.forEach(deadline -> deadline.cancel(FhirValidationDeadline.Reason.CLIENT_DISCONNECTED));
+        }
+
+        @Override
+        public void onNext(ValidateRequest request) {
+            var deadline = createDeadline();
+            synchronized (this) {
+                inFlight++;
+                running.add(deadline);
+            }
+            streamWorkers.execute(() -> {
+                ValidateResponse response;
+                try {
+                    response = validate(request, FhirValidationLane.BULK, deadline);
+                } catch (Throwable e) {
+                    response = ValidateResponse.newBuilder()
+                            .setCorrelationId(request.getCorrelationId())
+                            .setError(toError(e))
+                            .build();
+                }
+                onResult(deadline, response);
+            });
+        }
+
+        private synchronized void onResult(FhirValidationDeadline deadline, ValidateResponse response) {
+            running.remove(deadline);
+            inFlight--;
+            if (cancelled) {
+                return;
+            }
+            responses.onNext(response);
+            if (halfClosed) {
+                if (inFlight == 0) {
+                    responses.onCompleted();
+                }
+            } else if (responses.isReady()) {
+                responses.request(1);
+            } else {
+                owed++;
+            }
+        }
+
+        @Override
+        public void onError(Throwable t) {
+            log.debug("FhirGrpcValidationService::validateStream - stream failed: {}", t.getMessage());
+            onCancel();
+        }
+
+        @Override
+        public synchronized void onCompleted() {
+            halfClosed = true;
+            if (inFlight == 0 && !cancelled) {
+                responses.onCompleted();
+            }
+        }
+    }
+}
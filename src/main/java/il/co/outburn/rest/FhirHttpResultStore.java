@@ -0,0 +1,95 @@
+package il.co.outburn.rest;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+
+/**
+ * Result store on another yafva instance that serves its result cache at /cache (validator.result-cache-store:
+ * http). One instance with validator.result-cache-serve set acts as a small network cache for the others, without
+ * an external cache service.
+ * <p>
+ * Lookups run while the validation holds its engine, once per resource and once per uncached code, so they wait
+ * at most 250 ms, and after a failure the store is skipped for 30 seconds (a simple circuit breaker). Until then
+ * every lookup is a miss without a request, and results are not sent. Results are sent without waiting for the
+ * answer.
+ */
+@Slf4j
+public class FhirHttpResultStore implements FhirResultStore {
+    private static final Duration TIMEOUT = Duration.ofMillis(250);
+    static final long OPEN_NANOS = Duration.ofSeconds(30).toNanos();
+
+    private final String baseUrl;
+    private final String authorization;
+    private final HttpClient client;
+    // System.nanoTime() until which the store is skipped, 0 while it answers
+    private volatile long openUntil = 0;
+
+    /**
+     * @param secret the validator.result-cache-secret of the serving instance, or null
+     */
+    public FhirHttpResultStore(String baseUrl, String secret) {
+        this.baseUrl = baseUrl.endsWith("/") ? baseUrl.substring(0, baseUrl.length() - 1) : baseUrl;
+        this.authorization = secret == null ? null : "Bearer " + secret;
+        this.client = HttpClient.newBuilder().connectTimeout(TIMEOUT).build();
+    }
+
+    @Override
+    public byte[] get(String key) {
+        if (isOpen()) return null;
+        try {
+            var request = newRequest(key).GET().build();
+            var response = client.send(request, HttpResponse.BodyHandlers.ofByteArray());
+            if (response.statusCode() >= 500) open("HTTP " + response.statusCode());
+            return response.statusCode() == 200 ? response.body() : null;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        } catch (Exception e) {
+            open(String.valueOf(e));
+            return null;
+        }
+    }
+
+    @Override
+    public void put(String key, byte[] value) {
+        if (authorization == null || isOpen()) return; // the serving instance only accepts writes with its secret
+        var request = newRequest(key)
+                .header("Content-Type", "application/octet-stream")
+                .PUT(HttpRequest.BodyPublishers.ofByteArray(value))
+                .build();
+        client.sendAsync(request, HttpResponse.BodyHandlers.discarding())
+                .exceptionally(e -> {
+                    open(String.valueOf(e));
+                    return null;
+                });
+    }
+
+    boolean isOpen() {
+        long until = openUntil;
+        return until != 0 && System.nanoTime() - until < 0;
+    }
+
+    private void open(String reason) {
+        boolean wasOpen = isOpen();
+        openUntil = System.nanoTime() + OPEN_NANOS;
+        if (!wasOpen) {
+            log.warn("FhirHttpResultStore - {} failed ({}), skipping it for {} s", baseUrl, reason, OPEN_NANOS / 1_000_000_000);
+        }
+    }
+
+    @Override
+    public long size() {
+        return -1;
+    }
+
+    private HttpRequest.Builder newRequest(String key) {
+        var builder = HttpRequest.newBuilder(URI.create(baseUrl + "/cache/" + key)).timeout(TIMEOUT);
+        if (authorization != null) builder.header("Authorization", authorization);
+        return builder;
+    }
+}
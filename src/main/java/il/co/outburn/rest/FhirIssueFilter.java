@@ -0,0 +1,158 @@
+package il.co.outburn.rest;
+
+import org.hl7.fhir.r5.model.OperationOutcome;
+import org.hl7.fhir.utilities.validation.ValidationMessage;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Server-side filtering and projection of validation issues, applied before the response is composed.
+ * <p>
+ * Projection keeps only the requested fields of each issue. In an OperationOutcome, severity and code are
+ * required by FHIR and are always kept.
+ */
+public class FhirIssueFilter {
+    public static final Set<String> FIELDS = Set.of("severity", "code", "expression", "text", "position", "messageId");
+
+    private static final String EXT_ISSUE_LINE = "http://hl7.org/fhir/StructureDefinition/operationoutcome-issue-line";
+    private static final String EXT_ISSUE_COL = "http://hl7.org/fhir/StructureDefinition/operationoutcome-issue-col";
+    private static final String EXT_MESSAGE_ID = "http://hl7.org/fhir/StructureDefinition/operationoutcome-message-id";
+
+    /**
+     * Parses the minSeverity request parameter. A missing value means all severities.
+     */
+    public static ValidationMessage.IssueSeverity parseSeverity(String value) {
+        if (value == null || value.isBlank()) return null;
+        return switch (value.trim().toLowerCase()) {
+            case "fatal" -> ValidationMessage.IssueSeverity.FATAL;
+            case "error" -> ValidationMessage.IssueSeverity.ERROR;
+            case "warning" -> ValidationMessage.IssueSeverity.WARNING;
+            case "information" -> ValidationMessage.IssueSeverity.INFORMATION;
+            default -> throw new IllegalArgumentException("minSeverity must be one of 'fatal', 'error', 'warning' or 'information'");
+        };
+    }
+
+    /**
+     * Parses the fields request parameter, given as repeated or comma separated values. A missing value means all fields.
+     */
+    public static Set<String> parseFields(List<String> values) {
+        if (values == null || values.isEmpty()) return null;
+        var result = new LinkedHashSet<String>();
+        for (var value : values) {
+            for (var field : FhirUtil.split(value)) {
+                var match = FIELDS.stream().filter(f -> f.equalsIgnoreCase(field)).findFirst()
+                        .orElseThrow(() -> new IllegalArgumentException("Unknown field '" + field + "', fields must be some of " + FIELDS));
+                result.add(match);
+            }
+        }
+        return result.isEmpty() ? null : result;
+    }
+
+    public static boolean hasFilter(FhirValidationOptions options) {
+        return options.getMinSeverity() != null || options.isDropAllOk() || options.getFields() != null;
+    }
+
+    /**
+     * Removes issues below the minimum severity and projects the remaining issues. Issues that mark the outcome as
+     * incomplete and the validator's "All OK" issue are always kept, as an OperationOutcome needs at least one
+     * issue; dropAllOk only applies to compact and list output. An outcome whose issues were all below the minimum
+     * severity gets a single informational issue that says so.
+     */
+    public static void filterOutcome(OperationOutcome outcome, FhirValidationOptions options) {
+        if (!hasFilter(options)) return;
+        var minSeverity = options.getMinSeverity();
+        outcome.getIssue().removeIf(issue -> !isAllOk(issue) && isBelow(issue, minSeverity));
+        if (!outcome.hasIssue() && minSeverity != null) {
+            outcome.addIssue().setSeverity(OperationOutcome.IssueSeverity.INFORMATION)
+                    .setCode(OperationOutcome.IssueType.INFORMATIONAL)
+                    .getDetails().setText("No issues at or above severity '" + minSeverity.toCode() + "'");
+        }
+
+        var fields = options.getFields();
+        if (fields == null) return;
+        for (var issue : outcome.getIssue()) {
+            if (!fields.contains("expression")) {
+                issue.getExpression().clear();
+                issue.getLocation().clear();
+            }
+            if (!fields.contains("text")) {
+                issue.setDetails(null);
+            }
+            issue.setDiagnostics(null);
+            issue.getExtension().removeIf(extension -> switch (extension.getUrl()) {
+                case EXT_ISSUE_LINE, EXT_ISSUE_COL -> !fields.contains("position");
+                case EXT_MESSAGE_ID -> !fields.contains("messageId");
+                default -> true;
+            });
+        }
+    }
+
+    /**
+     * Removes issues below the minimum severity and the "all OK" issue, without projecting the remaining issues.
+     */
+    public static void filterIssues(List<OperationOutcome.OperationOutcomeIssueComponent> issues, FhirValidationOptions options) {
+        var minSeverity = options.getMinSeverity();
+        issues.removeIf(issue -> (options.isDropAllOk() && isAllOk(issue)) || isBelow(issue, minSeverity));
+    }
+
+    /**
+     * Removes messages below the minimum severity. The validator's messages never hold the "All OK" issue, which is
+     * only added when the OperationOutcome is composed, so dropAllOk has nothing to remove here.
+     */
+    public static List<ValidationMessage> filterMessages(List<ValidationMessage> messages, FhirValidationOptions options) {
+        var minSeverity = options.getMinSeverity();
+        if (minSeverity == null) return messages;
+        return messages.stream()
+                .filter(message -> message.getLevel() == null || message.getLevel().ordinal() <= minSeverity.ordinal())
+                .toList();
+    }
+
+    /**
+     * Messages reduced to the requested fields, for format=list.
+     */
+    public static List<Map<String, Object>> projectMessages(List<ValidationMessage> messages, Set<String> fields) {
+        var result = new ArrayList<Map<String, Object>>(messages.size());
+        for (var message : messages) {
+            var projected = new LinkedHashMap<String, Object>();
+            if (fields.contains("severity") && message.getLevel() != null) projected.put("severity", message.getLevel().toCode());
+            if (fields.contains("code") && message.getType() != null) projected.put("code", message.getType().toCode());
+            if (fields.contains("expression")) projected.put("expression", message.getLocation());
+            if (fields.contains("text")) projected.put("text", message.getMessage());
+            if (fields.contains("position")) {
+                projected.put("line", message.getLine());
+                projected.put("col", message.getCol());
+            }
+            if (fields.contains("messageId")) projected.put("messageId", message.getMessageId());
+            result.add(projected);
+        }
+        return result;
+    }
+
+    // The issue the validator adds when there is nothing else to report
+    private static boolean isAllOk(OperationOutcome.OperationOutcomeIssueComponent issue) {
+        return issue.getSeverity() == OperationOutcome.IssueSeverity.INFORMATION
+                && issue.getCode() == OperationOutcome.IssueType.INFORMATIONAL
+                && !issue.hasExpression() && !issue.hasLocation();
+    }
+
+    private static boolean isBelow(OperationOutcome.OperationOutcomeIssueComponent issue, ValidationMessage.IssueSeverity minSeverity) {
+        if (issue.getCode() == OperationOutcome.IssueType.INCOMPLETE) return false;
+        return minSeverity != null && rank(issue) > minSeverity.ordinal();
+    }
+
+    // Same order as ValidationMessage.IssueSeverity: fatal, error, warning, information
+    private static int rank(OperationOutcome.OperationOutcomeIssueComponent issue) {
+        if (issue.getSeverity() == null) return ValidationMessage.IssueSeverity.INFORMATION.ordinal();
+        return switch (issue.getSeverity()) {
+            case FATAL -> ValidationMessage.IssueSeverity.FATAL.ordinal();
+            case ERROR -> ValidationMessage.IssueSeverity.ERROR.ordinal();
+            case WARNING -> ValidationMessage.IssueSeverity.WARNING.ordinal();
+            default -> ValidationMessage.IssueSeverity.INFORMATION.ordinal();
+        };
+    }
+}
@@ -0,0 +1,105 @@
+package il.co.outburn.rest;
+
+import lombok.Getter;
+import org.hl7.fhir.utilities.validation.ValidationMessage;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Message list handed to the validator for one resource. It counts issues as the validator adds them; once
+ * stopOnFirstError or maxIssues is reached, the next safe point stops the validation of that resource
+ * with FhirIssueLimitReachedException.
+ * <p>
+ * The validator may add a few more messages between reaching the limit and the next safe point;
+ * getLimitedMessages() trims them.
+ */
+public class FhirIssueLimit extends ArrayList<ValidationMessage> {
+    /**
+     * Thrown at a safe point once the issue limit is reached. Never leaves FhirValidator.
+     */
+    static class FhirIssueLimitReachedException extends RuntimeException {
+        FhirIssueLimitReachedException() {
+            super("Issue limit reached", null, false, false);
+        }
+    }
+
+    private final boolean stopOnFirstError;
+
+    private final int maxIssues;
+
+    @Getter
+    private int errors = 0;
+
+    public FhirIssueLimit(boolean stopOnFirstError, int maxIssues) {
+        this.stopOnFirstError = stopOnFirstError;
+        this.maxIssues = Math.max(0, maxIssues);
+    }
+
+    public static FhirIssueLimit of(FhirValidationOptions options) {
+        return new FhirIssueLimit(options.isStopOnFirstError(), options.getMaxIssues());
+    }
+
+    public boolean hasLimit() {
+        return stopOnFirstError || maxIssues > 0;
+    }
+
+    public boolean isLimitReached() {
+        return (stopOnFirstError && errors > 0) || (maxIssues > 0 && size() >= maxIssues);
+    }
+
+    /**
+     * Safe point: throws if the validation of this resource should stop.
+     */
+    public void checkpoint() {
+        if (isLimitReached()) {
+            throw new FhirIssueLimitReachedException();
+        }
+    }
+
+    /**
+     * The messages collected so far, cut to maxIssues and, with stopOnFirstError, to the first error.
+     */
+    public List<ValidationMessage> getLimitedMessages() {
+        var result = new ArrayList<ValidationMessage>();
+        for (var message : this) {
+            if (maxIssues > 0 && result.size() >= maxIssues) break;
+            result.add(message);
+            if (stopOnFirstError && isError(message)) break;
+        }
+        return result;
+    }
+
+    @Override
+    public boolean add(ValidationMessage message) {
+        count(message);
+        return super.add(message);
+    }
+
+    @Override
+    public void add(int index, ValidationMessage message) {
+        count(message);
+        super.add(index, message);
+    }
+
+    @Override
+    public boolean addAll(Collection<? extends ValidationMessage> messages) {
+        messages.forEach(this::count);
+        return super.addAll(messages);
+    }
+
+    @Override
+    public boolean addAll(int index, Collection<? extends ValidationMessage> messages) {
+        messages.forEach(this::count);
+        return super.addAll(index, messages);
+    }
+
+    private void count(ValidationMessage message) {
+        if (isError(message)) errors++;
+    }
+
+    static boolean isError(ValidationMessage message) {
+        return message != null && message.getLevel() != null && message.getLevel().isError();
+    }
+}
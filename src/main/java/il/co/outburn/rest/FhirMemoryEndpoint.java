@@ -0,0 +1,96 @@
+package il.co.outburn.rest;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.actuate.endpoint.annotation.Endpoint;
+import org.springframework.boot.actuate.endpoint.annotation.ReadOperation;
+import org.springframework.stereotype.Component;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Actuator endpoint (/actuator/validatormemory) with the approximate heap held by the default engine,
+ * each engine clone and the caches, and the largest number of clones that fits into the heap.
+ * <p>
+ * Engine sizes come from the startup profile: with startup memory accounting they are the heap retained
+ * after a full GC, otherwise the bytes allocated while building them, which overestimates the retained size.
+ */
+@Slf4j
+@Component
+@Endpoint(id = "validatormemory")
+public class FhirMemoryEndpoint {
+    // Share of the heap kept free for request processing (parsing, outcomes, buffers) and GC headroom
+    static final double HEAP_HEADROOM = 0.25;
+
+    public record MemoryReport(long maxHeapBytes, long usedHeapBytes, Long containerMemoryLimitBytes,
+                               Long defaultEngineBytes, Long cloneBytes, String measurement,
+                               int liveClones, int idleClones, long recycledClones, int maxEngines, Integer recommendedMaxEngines,
+                               int contextResources, Map<String, Integer> packageResources, Map<String, Long> caches) {
+    }
+
+    private volatile Map<String, Integer> packageResources;
+
+    @ReadOperation
+    public MemoryReport memory() {
+        var runtime = Runtime.getRuntime();
+        long maxHeap = runtime.maxMemory();
+        long usedHeap = runtime.totalMemory() - runtime.freeMemory();
+
+        Long defaultEngineBytes = null;
+        Long cloneBytes = null;
+        String measurement = "unknown";
+        var profiler = FhirStartupProfiler.getCurrent();
+        if (profiler != null) {
+            var report = profiler.getReport();
+            measurement = report.memoryAccounting() ? "retained" : "allocated";
+            defaultEngineBytes = report.defaultEngineBytes();
+            cloneBytes = report.cloneBytes();
+        }
+        if (cloneBytes == null && FhirValidationEngineCache.getLastCloneAllocatedBytes() > 0) {
+            cloneBytes = FhirValidationEngineCache.getLastCloneAllocatedBytes();
+        }
+
+        var engine = FhirValidationEngineCache.getDefaultValidationEngine();
+        int contextResources = engine == null ? 0 : engine.getContext().countAllCaches();
+
+        return new MemoryReport(maxHeap, usedHeap, FhirContainerLimits.getMemoryLimitBytes(),
+                defaultEngineBytes, cloneBytes, measurement,
+                FhirValidationEngineCache.getCreatedEngines(), FhirValidationEngineCache.getIdleEngines(),
+                FhirValidationEngineCache.getRecycledEngines(),
+                FhirValidationEngineCache.getMaxEngines(),
+                recommendMaxEngines(maxHeap, defaultEngineBytes, cloneBytes),
+                contextResources, getPackageResources(), FhirCacheStatistics.getSizes());
+    }
+
+    /**
+     * Number of clones that fit next to the default engine while leaving HEAP_HEADROOM of the heap free.
+     * The maximum heap already reflects -Xmx or -XX:MaxRAMPercentage applied to the container limit.
+     */
+    static Integer recommendMaxEngines(long maxHeap, Long defaultEngineBytes, Long cloneBytes) {
+        if (defaultEngineBytes == null || cloneBytes == null || cloneBytes <= 0) return null;
+        long usable = (long) (maxHeap * (1 - HEAP_HEADROOM)) - defaultEngineBytes;
+        return (int) Math.max(1, usable / cloneBytes);
+    }
+
+    // Resource files per loaded package, read once from the package cache
+    private Map<String, Integer> getPackageResources() {
+        if (packageResources != null) return packageResources;
+        var engine = FhirValidationEngineCache.getDefaultValidationEngine();
+        if (engine == null) return Map.of();
+
+        var result = new LinkedHashMap<String, Integer>();
+        var context = engine.getContext();
+        for (var loadedPackage : context.getLoadedPackages()) {
+            var parts = loadedPackage.split("#", 2);
+            try {
+                var npm = context.packageManager().loadPackageFromCacheOnly(parts[0], parts.length > 1 ? parts[1] : null);
+                result.put(loadedPackage, npm == null ? null : npm.list("package").size());
+            } catch (Exception e) {
+                log.warn("FhirMemoryEndpoint::getPackageResources - cannot read package {}: {}", loadedPackage, e.getMessage());
+                result.put(loadedPackage, null);
+            }
+        }
+        packageResources = result;
+        return result;
+    }
+}
@@ -0,0 +1,160 @@
+package il.co.outburn.rest;
+
+import lombok.extern.slf4j.Slf4j;
+import org.hl7.fhir.utilities.validation.ValidationMessage;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * Binary form of the validator messages of one resource, as kept in the result cache. Every field of
+ * ValidationMessage is written, so a cached message is reported exactly like the original one.
+ */
+@Slf4j
+public class FhirMessageCodec {
+    private static final int FORMAT_VERSION = 1;
+    // Three enums, line and column, twelve string lengths, the rule date, the flags and the slice info marker
+    private static final int MIN_MESSAGE_BYTES = 3 * 2 + 2 * 4 + 12 * 4 + 8 + 1 + 1;
+
+    private static final int FLAG_SLICING_HINT = 1;
+    private static final int FLAG_SIGNPOST = 2;
+    private static final int FLAG_CRITICAL_SIGNPOST = 4;
+    private static final int FLAG_MATCHED = 8;
+    private static final int FLAG_IGNORABLE_ERROR = 16;
+
+    public static byte[] encode(List<ValidationMessage> messages) {
+        try {
+            var bytes = new ByteArrayOutputStream();
+            var out = new DataOutputStream(bytes);
+            out.writeByte(FORMAT_VERSION);
+            writeMessages(out, messages);
+            out.flush();
+            return bytes.toByteArray();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Decodes the messages, or returns null when the bytes were written in another format or are corrupt, so the
+     * entry is treated as a miss.
+     */
+    public static List<ValidationMessage> decode(byte[] value) {
+        try {
+            var in = new DataInputStream(new ByteArrayInputStream(value));
+            if (in.readByte() != FORMAT_VERSION) return null;
+            return readMessages(in);
+        } catch (IOException | RuntimeException e) {
+            log.warn("FhirMessageCodec::decode - {}", e.toString());
+            return null;
+        }
+    }
+
+    private static void writeMessages(DataOutputStream out, List<ValidationMessage> messages) throws IOException {
+        out.writeInt(messages.size());
+        for (var message : messages) {
+            writeEnum(out, message.getSource());
+            writeEnum(out, message.getType());
+            writeEnum(out, message.getLevel());
+            out.writeInt(message.getLine());
+            out.writeInt(message.getCol());
+            writeNullable(out, message.getLocation());
+            writeNullable(out, message.getMessage());
+            writeNullable(out, message.getMessageId());
+            writeNullable(out, message.getServer());
+            writeNullable(out, message.getHtml());
+            writeNullable(out, message.getLocationLink());
+            writeNullable(out, message.getTxLink());
+            writeNullable(out, message.sliceHtml);
+            writeNullable(out, message.getInvId());
+            writeNullable(out, message.getComment());
+            writeNullable(out, message.getValidationContext());
+            writeNullable(out, message.getDiagnostics());
+            out.writeLong(message.getRuleDate() == null ? Long.MIN_VALUE : message.getRuleDate().getTime());
+            int flags = (message.isSlicingHint() ? FLAG_SLICING_HINT : 0)
+                    | (message.isSignpost() ? FLAG_SIGNPOST : 0)
+                    | (message.isCriticalSignpost() ? FLAG_CRITICAL_SIGNPOST : 0)
+                    | (message.isMatched() ? FLAG_MATCHED : 0)
+                    | (message.isIgnorableError() ? FLAG_IGNORABLE_ERROR : 0);
+            out.writeByte(flags);
+            var sliceInfo = message.getSliceInfo();
+            out.writeBoolean(sliceInfo != null);
+            if (sliceInfo != null) writeMessages(out, sliceInfo);
+        }
+    }
+
+    private static List<ValidationMessage> readMessages(DataInputStream in) throws IOException {
+        int count = in.readInt();
+        // ByteArrayInputStream reports the exact number of bytes left
+        if (count < 0 || count > in.available() / MIN_MESSAGE_BYTES) {
+            throw new IOException("Invalid message count " + count);
+        }
+        var messages = new ArrayList<ValidationMessage>(count);
+        for (int i = 0; i < count; i++) {
+            var message = new ValidationMessage();
+            message.setSource(readEnum(in, ValidationMessage.Source.values()));
+            message.setType(readEnum(in, ValidationMessage.IssueType.values()));
+            message.setLevel(readEnum(in, ValidationMessage.IssueSeverity.values()));
+            message.setLine(in.readInt());
+            message.setCol(in.readInt());
+            message.setLocation(readNullable(in));
+            message.setMessage(readNullable(in));
+            message.setMessageId(readNullable(in));
+            message.setServer(readNullable(in));
+            message.setHtml(readNullable(in));
+            message.setLocationLink(readNullable(in));
+            message.setTxLink(readNullable(in));
+            message.sliceHtml = readNullable(in);
+            message.setInvId(readNullable(in));
+            message.setComment(readNullable(in));
+            message.setValidationContext(readNullable(in));
+            message.setDiagnostics(readNullable(in));
+            long ruleDate = in.readLong();
+            message.setRuleDate(ruleDate == Long.MIN_VALUE ? null : new Date(ruleDate));
+            int flags = in.readByte();
+            message.setSlicingHint((flags & FLAG_SLICING_HINT) != 0);
+            message.setSignpost((flags & FLAG_SIGNPOST) != 0);
+            message.setCriticalSignpost((flags & FLAG_CRITICAL_SIGNPOST) != 0);
+            message.setMatched((flags & FLAG_MATCHED) != 0);
+            message.setIgnorableError((flags & FLAG_IGNORABLE_ERROR) != 0);
+            if (in.readBoolean()) message.setSliceInfo(readMessages(in));
+            messages.add(message);
+        }
+        return messages;
+    }
+
+    private static void writeEnum(DataOutputStream out, Enum<?> value) throws IOException {
+        out.writeShort(value == null ? -1 : value.ordinal());
+    }
+
+    private static <E extends Enum<E>> E readEnum(DataInputStream in, E[] values) throws IOException {
+        int ordinal = in.readShort();
+        if (ordinal >= values.length) throw new IOException("Invalid ordinal " + ordinal);
+        return ordinal < 0 ? null : values[ordinal];
+    }
+
+    private static void writeNullable(DataOutputStream out, String value) throws IOException {
+        if (value == null) {
+            out.writeInt(-1);
+            return;
+        }
+        var bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readNullable(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length < 0) return null;
+        if (length > in.available()) throw new IOException("Invalid string length " + length);
+        return new String(in.readNBytes(length), StandardCharsets.UTF_8);
+    }
+}
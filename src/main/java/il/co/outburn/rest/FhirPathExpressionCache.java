@@ -0,0 +1,202 @@
+package il.co.outburn.rest;
+
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+import org.hl7.fhir.r5.context.IWorkerContext;
+import org.hl7.fhir.r5.fhirpath.ExpressionNode;
+import org.hl7.fhir.r5.fhirpath.FHIRPathEngine;
+import org.hl7.fhir.r5.model.StructureDefinition;
+import org.hl7.fhir.r5.utils.UserDataNames;
+import org.hl7.fhir.validation.instance.utils.FHIRPathExpressionFixer;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Shared cache of parsed FHIRPath expressions, keyed by FHIR version, AST type and expression text.
+ * Evaluation only reads a parsed expression, so one AST is shared between all engines and requests.
+ * <p>
+ * The validator keeps the AST of each invariant in the user data of its constraint. Profiles are shared between
+ * the default engine and its clones, so prefill puts the ASTs there at startup and identical expressions used by
+ * different profiles share one AST. Message locations are parsed again for every OperationOutcome; the
+ * CachingFHIRPathEngine installed on the default engine answers those from this cache.
+ * <p>
+ * The cache is bounded by fhirpath-cache-size entries and by the cache budget, using a rough estimate of each
+ * AST's size. Once full, an arbitrary tenth of the entries is dropped, which is cheap and good enough for a cache
+ * whose entries are equally cheap to rebuild.
+ */
+@Slf4j
+public class FhirPathExpressionCache {
+    private record Key(String version, Class<?> type, String expression) {
+    }
+
+    private record Entry(Object value, long bytes) {
+    }
+
+    // Rough shallow size of an ExpressionNode with its parameter list, and of a cache entry without its value
+    static final long NODE_BYTES = 128;
+    static final long ENTRY_BYTES = 96;
+
+    @FunctionalInterface
+    public interface Parser<T> {
+        T parse(String expression) throws Exception;
+    }
+
+    private static final Map<Key, Entry> expressions = new ConcurrentHashMap<>();
+
+    @Getter
+    static volatile int maxEntries = 10000;
+
+    private static final AtomicLong hits = new AtomicLong();
+    private static final AtomicLong misses = new AtomicLong();
+
+    static {
+        FhirCacheStatistics.register("fhirpath-expressions", expressions::size);
+    }
+
+    public static void setMaxEntries(int value) {
+        maxEntries = Math.max(0, value);
+        if (maxEntries == 0) clear();
+    }
+
+    public static long getHits() {
+        return hits.get();
+    }
+
+    public static long getMisses() {
+        return misses.get();
+    }
+
+    public static int size() {
+        return expressions.size();
+    }
+
+    public static void clear() {
+        for (var entry : expressions.entrySet()) {
+            remove(entry);
+        }
+    }
+
+    /**
+     * Returns the cached AST of the expression, parsing and caching it on a miss.
+     * Expressions that fail to parse are not cached, the parser's exception is thrown to the caller.
+     */
+    @SuppressWarnings("unchecked")
+    public static <T> T get(String version, Class<T> type, String expression, Parser<T> parser) throws Exception {
+        if (expression == null || maxEntries == 0) return parser.parse(expression);
+
+        var key = new Key(version, type, expression);
+        var cached = expressions.get(key);
+        if (cached != null) {
+            hits.incrementAndGet();
+            return (T) cached.value();
+        }
+        misses.incrementAndGet();
+        var parsed = parser.parse(expression);
+        if (parsed != null) {
+            if (expressions.size() >= maxEntries) evict();
+            long bytes = estimateBytes(expression, parsed);
+            if (!FhirCacheBudget.tryReserve(bytes)) {
+                evict();
+                if (!FhirCacheBudget.tryReserve(bytes)) return parsed;
+            }
+            var existing = expressions.putIfAbsent(key, new Entry(parsed, bytes));
+            if (existing != null) {
+                FhirCacheBudget.release(bytes);
+                return (T) existing.value();
+            }
+        }
+        return parsed;
+    }
+
+    private static void evict() {
+        int toRemove = Math.max(1, expressions.size() / 10);
+        var iterator = expressions.entrySet().iterator();
+        while (toRemove-- > 0 && iterator.hasNext()) {
+            remove(iterator.next());
+        }
+    }
+
+    // Releases the entry's bytes only if this call removed it, so concurrent evictions don't release it twice
+    private static void remove(Map.Entry<Key, Entry> entry) {
+        if (expressions.remove(entry.getKey(), entry.getValue())) {
+            FhirCacheBudget.release(entry.getValue().bytes());
+        }
+    }
+
+    static long estimateBytes(String expression, Object parsed) {
+        long bytes = ENTRY_BYTES + 2L * expression.length();
+        return parsed instanceof ExpressionNode node ? bytes + countNodes(node) * NODE_BYTES : bytes;
+    }
+
+    private static long countNodes(ExpressionNode node) {
+        if (node == null) return 0;
+        long count = 1 + countNodes(node.getInner()) + countNodes(node.getOpNext()) + countNodes(node.getGroup());
+        if (node.getParameters() != null) {
+            for (var parameter : node.getParameters()) {
+                count += countNodes(parameter);
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Parses every invariant of every StructureDefinition in the context and stores the AST where the validator
+     * looks for it. Loads all StructureDefinitions, so it adds startup time and heap.
+     *
+     * @return the number of constraints that were prefilled
+     */
+    public static int prefill(IWorkerContext context, FHIRPathEngine fpe) {
+        long start = System.currentTimeMillis();
+        var version = context.getVersion();
+        int constraints = 0;
+        int failed = 0;
+        for (var sd : context.fetchResourcesByType(StructureDefinition.class)) {
+            if (!sd.hasSnapshot()) continue;
+            for (var element : sd.getSnapshot().getElement()) {
+                for (var inv : element.getConstraint()) {
+                    if (!inv.hasExpression() || inv.hasUserData(UserDataNames.validator_expression_cache)) continue;
+                    // Same rewrite the validator applies before parsing an invariant
+                    var expression = FHIRPathExpressionFixer.fixExpr(inv.getExpression(), inv.getKey(), version);
+                    try {
+                        inv.setUserData(UserDataNames.validator_expression_cache,
+                                get(version, ExpressionNode.class, expression, fpe::parse));
+                        constraints++;
+                    } catch (Exception e) {
+                        // Left to the validator, which reports it against the profile
+                        failed++;
+                    }
+                }
+            }
+        }
+        log.info("FhirPathExpressionCache::prefill - {} constraints, {} distinct expressions, {} unparseable ({} ms)",
+                constraints, size(), failed, System.currentTimeMillis() - start);
+        return constraints;
+    }
+
+    /**
+     * FHIRPathEngine that answers parse requests from the shared cache.
+     */
+    public static class CachingFHIRPathEngine extends FHIRPathEngine {
+        private final String version;
+
+        public CachingFHIRPathEngine(IWorkerContext context) {
+            super(context);
+            this.version = context.getVersion();
+            // As configured by ValidationEngine for its own engine
+            setAllowDoubleQuotes(false);
+        }
+
+        @Override
+        public ExpressionNode parse(String path) {
+            try {
+                return get(version, ExpressionNode.class, path, super::parse);
+            } catch (RuntimeException e) {
+                throw e;
+            } catch (Exception e) {
+                throw new IllegalStateException(e);
+            }
+        }
+    }
+}
@@ -0,0 +1,16 @@
+package il.co.outburn.rest;
+
+import lombok.Getter;
+
+/**
+ * Thrown when a request body is larger than the configured maximum (validator.max-request-body-mb).
+ */
+public class FhirPayloadTooLargeException extends RuntimeException {
+    @Getter
+    private final long maxBytes;
+
+    public FhirPayloadTooLargeException(long maxBytes) {
+        super("Request body is larger than the maximum of " + maxBytes + " bytes");
+        this.maxBytes = maxBytes;
+    }
+}
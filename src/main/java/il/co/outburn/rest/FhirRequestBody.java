@@ -0,0 +1,386 @@
+package il.co.outburn.rest;
+
+import com.github.luben.zstd.ZstdInputStream;
+import jakarta.servlet.http.HttpServletRequest;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.http.HttpHeaders;
+
+import java.io.ByteArrayInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * A request body read without growing arrays. Bodies with a known Content-Length up to the in-memory limit are
+ * read straight into an array of exactly that size. Larger bodies are copied to a temp file through pooled
+ * transfer buffers and read back from it, so they don't take heap. Bodies over the maximum are rejected
+ * with {@link FhirPayloadTooLargeException} before (or, without Content-Length, while) they are read.
+ * Endpoints that need the body as one array use {@link #readInMemory}, which never spills.
+ * <p>
+ * Bodies sent with Content-Encoding gzip, deflate or zstd are decoded while they are read. The limits apply
+ * to the decoded size, so a small compressed body cannot expand beyond them. Content the decoder rejects, such as
+ * a corrupt or truncated stream, is reported as an IllegalArgumentException (400); a failure of the connection
+ * underneath stays an IOException.
+ * <p>
+ * Must be closed, which deletes the temp file. The file is opened with DELETE_ON_CLOSE, so it is also deleted on
+ * Windows, and when the process dies the operating system removes it.
+ */
+@Slf4j
+public class FhirRequestBody implements AutoCloseable {
+    // Size of the pooled buffers used for bodies without Content-Length and for copying to disk
+    static final int BUFFER_SIZE = 64 * 1024;
+    private static final int MAX_POOLED_BUFFERS = 64;
+
+    private static final ConcurrentLinkedQueue<byte[]> bufferPool = new ConcurrentLinkedQueue<>();
+    private static final AtomicInteger pooledBuffers = new AtomicInteger();
+
+    private final byte[] bytes;
+    private final FileChannel channel;
+    private final Path file;
+    private final int length;
+
+    private FhirRequestBody(byte[] bytes) {
+        this.bytes = bytes;
+        this.channel = null;
+        this.file = null;
+        this.length = bytes.length;
+    }
+
+    private FhirRequestBody(Path file, FileChannel channel, int length) {
+        this.bytes = null;
+        this.channel = channel;
+        this.file = file;
+        this.length = length;
+    }
+
+    // Encodings accepted in the Content-Encoding header, as announced in Accept-Encoding on 415 responses
+    public static final String SUPPORTED_ENCODINGS = "gzip, deflate, zstd";
+
+    public static FhirRequestBody read(HttpServletRequest request, FhirValidatorConfiguration configuration) throws IOException {
+        return read(request, configuration, configuration.getRequestBodyMemoryBytes());
+    }
+
+    /**
+     * Reads the body into one array of its exact size, whatever its length. For endpoints that need the body as an
+     * array anyway, such as /validate, where spilling it to disk would only add a copy.
+     */
+    public static FhirRequestBody readInMemory(HttpServletRequest request, FhirValidatorConfiguration configuration) throws IOException {
+        return read(request, configuration, Long.MAX_VALUE);
+    }
+
+    private static FhirRequestBody read(HttpServletRequest request, FhirValidatorConfiguration configuration,
+                                        long maxInMemoryBytes) throws IOException {
+        var encoding = request.getHeader(HttpHeaders.CONTENT_ENCODING);
+        var raw = new SourceInputStream(request.getInputStream());
+        try {
+            InputStream in;
+            try {
+                // Decoders such as gzip already read their header here
+                in = decode(raw, encoding);
+            } catch (IOException e) {
+                throw raw.failed ? e : new MalformedContentException(e);
+            }
+            // The decoded length is not known up front
+            long contentLength = (in == raw) ? request.getContentLengthLong() : -1;
+            if (in != raw) in = new DecodedInputStream(in, raw);
+            return read(in, contentLength, configuration.getMaxRequestBodyBytes(), maxInMemoryBytes);
+        } catch (MalformedContentException e) {
+            throw new IllegalArgumentException("Request body is not valid " + encoding + " content: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Wraps the stream with a decoder for each encoding in the Content-Encoding header, in the reverse
+     * order of their application.
+     */
+    static InputStream decode(InputStream in, String contentEncoding) throws IOException {
+        if (contentEncoding == null || contentEncoding.isBlank()) {
+            return in;
+        }
+        var encodings = contentEncoding.split(",");
+        for (int i = encodings.length - 1; i >= 0; i--) {
+            var encoding = encodings[i].trim().toLowerCase();
+            in = switch (encoding) {
+                case "", "identity" -> in;
+                case "gzip", "x-gzip" -> new GZIPInputStream(in, BUFFER_SIZE);
+                case "deflate" -> new InflaterInputStream(in);
+                case "zstd" -> new ZstdInputStream(in);
+                default -> throw new FhirUnsupportedContentEncodingException(encoding);
+            };
+        }
+        return in;
+    }
+
+    /**
+     * @param contentLength    the declared length of the body, or -1 if unknown
+     * @param maxBytes         largest accepted body, 0 for no limit (bodies are still limited to 2 GB)
+     * @param maxInMemoryBytes bodies larger than this are spilled to a temp file
+     */
+    static FhirRequestBody read(InputStream in, long contentLength, long maxBytes, long maxInMemoryBytes) throws IOException {
+        long limit = (maxBytes > 0) ? Math.min(maxBytes, Integer.MAX_VALUE - 8) : Integer.MAX_VALUE - 8;
+        if (contentLength > limit) {
+            throw new FhirPayloadTooLargeException(limit);
+        }
+
+        if (contentLength >= 0 && contentLength <= maxInMemoryBytes) {
+            var bytes = new byte[(int) contentLength];
+            int read = in.readNBytes(bytes, 0, bytes.length);
+            if (read < bytes.length) {
+                throw new IOException("Request body ended after " + read + " of " + contentLength + " bytes");
+            }
+            return new FhirRequestBody(bytes);
+        }
+
+        // Unknown or large length: read in pooled chunks until the body turns out to be too large for memory
+        var chunks = new ArrayList<byte[]>();
+        long total = 0;
+        try {
+            if (contentLength < 0) {
+                while (true) {
+                    var chunk = acquireBuffer();
+                    chunks.add(chunk);
+                    int read = in.readNBytes(chunk, 0, chunk.length);
+                    total += read;
+                    if (total > limit) {
+                        throw new FhirPayloadTooLargeException(limit);
+                    }
+                    if (read < chunk.length) {
+                        return new FhirRequestBody(join(chunks, (int) total));
+                    }
+                    if (total > maxInMemoryBytes) {
+                        break;
+                    }
+                }
+            }
+            return spill(in, chunks, total, limit);
+        } finally {
+            chunks.forEach(FhirRequestBody::releaseBuffer);
+        }
+    }
+
+    public int length() {
+        return length;
+    }
+
+    public boolean isSpilled() {
+        return channel != null;
+    }
+
+    /**
+     * Opens a stream over the body without copying it. A spilled body is read from its temp file; each stream
+     * keeps its own position, and closing it leaves the file open.
+     */
+    public InputStream openStream() {
+        if (bytes != null) {
+            return new ByteArrayInputStream(bytes);
+        }
+        return new FileChannelInputStream(channel);
+    }
+
+    /**
+     * Returns the body as an array. An in-memory body is returned as is; a spilled body is read into a new
+     * array of exactly its length.
+     */
+    public byte[] toByteArray() throws IOException {
+        if (bytes != null) {
+            return bytes;
+        }
+        var copy = new byte[length];
+        int read = openStream().readNBytes(copy, 0, length);
+        if (read < length) {
+            throw new IOException("Temp file " + file + " ended after " + read + " of " + length + " bytes");
+        }
+        return copy;
+    }
+
+    @Override
+    public void close() {
+        if (channel == null) {
+            return;
+        }
+        try {
+            channel.close();
+            Files.deleteIfExists(file);
+        } catch (IOException e) {
+            log.warn("FhirRequestBody::close - could not delete {}: {}", file, e.getMessage());
+        }
+    }
+
+    private static FhirRequestBody spill(InputStream in, List<byte[]> chunks, long alreadyRead, long limit) throws IOException {
+        var file = Files.createTempFile("yafva-body-", ".json");
+        FileChannel channel = null;
+        try {
+            channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE, StandardOpenOption.DELETE_ON_CLOSE);
+            // Not closed, as that would close the channel
+            var out = Channels.newOutputStream(channel);
+            long total = 0;
+            for (var chunk : chunks) {
+                int length = (int) Math.min(chunk.length, alreadyRead - total);
+                out.write(chunk, 0, length);
+                total += length;
+            }
+            total = transfer(in, out, total, limit);
+            log.debug("FhirRequestBody::spill - {} bytes spilled to {}", total, file);
+            return new FhirRequestBody(file, channel, (int) total);
+        } catch (IOException | RuntimeException e) {
+            if (channel != null) channel.close();
+            Files.deleteIfExists(file);
+            throw e;
+        }
+    }
+
+    // Copies the rest of the body, returns the total number of bytes written
+    private static long transfer(InputStream in, OutputStream out, long written, long limit) throws IOException {
+        var buffer = acquireBuffer();
+        try {
+            long total = written;
+            int read;
+            while ((read = in.read(buffer)) >= 0) {
+                total += read;
+                if (total > limit) {
+                    throw new FhirPayloadTooLargeException(limit);
+                }
+                out.write(buffer, 0, read);
+            }
+            return total;
+        } finally {
+            releaseBuffer(buffer);
+        }
+    }
+
+    private static byte[] join(List<byte[]> chunks, int length) {
+        var bytes = new byte[length];
+        int offset = 0;
+        for (var chunk : chunks) {
+            int count = Math.min(chunk.length, length - offset);
+            System.arraycopy(chunk, 0, bytes, offset, count);
+            offset += count;
+        }
+        return bytes;
+    }
+
+    static byte[] acquireBuffer() {
+        var buffer = bufferPool.poll();
+        if (buffer == null) {
+            return new byte[BUFFER_SIZE];
+        }
+        pooledBuffers.decrementAndGet();
+        return buffer;
+    }
+
+    static void releaseBuffer(byte[] buffer) {
+        if (pooledBuffers.incrementAndGet() <= MAX_POOLED_BUFFERS) {
+            bufferPool.offer(buffer);
+        } else {
+            pooledBuffers.decrementAndGet();
+        }
+    }
+
+    static int getPooledBuffers() {
+        return pooledBuffers.get();
+    }
+
+    private static class MalformedContentException extends IOException {
+        MalformedContentException(IOException cause) {
+            super(cause.getMessage() == null ? cause.getClass().getSimpleName() : cause.getMessage(), cause);
+        }
+    }
+
+    // The request stream, remembering whether it failed itself
+    private static class SourceInputStream extends FilterInputStream {
+        boolean failed = false;
+
+        SourceInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            try {
+                return super.read();
+            } catch (IOException e) {
+                failed = true;
+                throw e;
+            }
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            try {
+                return super.read(b, off, len);
+            } catch (IOException e) {
+                failed = true;
+                throw e;
+            }
+        }
+    }
+
+    // The decoded body; a failure that did not come from the request stream is the decoder rejecting the content
+    private static class DecodedInputStream extends FilterInputStream {
+        private final SourceInputStream source;
+
+        DecodedInputStream(InputStream in, SourceInputStream source) {
+            super(in);
+            this.source = source;
+        }
+
+        @Override
+        public int read() throws IOException {
+            try {
+                return super.read();
+            } catch (IOException e) {
+                throw source.failed ? e : new MalformedContentException(e);
+            }
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            try {
+                return super.read(b, off, len);
+            } catch (IOException e) {
+                throw source.failed ? e : new MalformedContentException(e);
+            }
+        }
+    }
+
+    // Reads the temp file with positional reads, so streams don't share the channel's position
+    private static class FileChannelInputStream extends InputStream {
+        private final FileChannel channel;
+        private long position = 0;
+
+        FileChannelInputStream(FileChannel channel) {
+            this.channel = channel;
+        }
+
+        @Override
+        public int read() throws IOException {
+            var one = new byte[1];
+            return read(one, 0, 1) < 0 ? -1 : one[0] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            int count = channel.read(ByteBuffer.wrap(b, off, len), position);
+            if (count > 0) {
+                position += count;
+            }
+            return count;
+        }
+    }
+}
@@ -0,0 +1,165 @@
+package il.co.outburn.rest;
+
+import org.hl7.fhir.r5.elementmodel.Element;
+import org.hl7.fhir.r5.model.ElementDefinition;
+import org.hl7.fhir.r5.model.StructureDefinition;
+import org.hl7.fhir.r5.model.ValueSet;
+import org.hl7.fhir.r5.utils.validation.IMessagingServices;
+import org.hl7.fhir.r5.utils.validation.IResourceValidator;
+import org.hl7.fhir.r5.utils.validation.IValidationPolicyAdvisor;
+import org.hl7.fhir.r5.utils.validation.constants.BindingKind;
+import org.hl7.fhir.r5.utils.validation.constants.ContainedReferenceValidationPolicy;
+import org.hl7.fhir.r5.utils.validation.constants.ReferenceValidationPolicy;
+import org.hl7.fhir.utilities.validation.ValidationMessage;
+
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Wraps the engine's policy advisor for the duration of one validation. The validator consults the advisor
+ * for every resource, element, reference and coded element, which makes these calls the safe points where
+ * a cancelled validation, or one that reached its issue limit, is stopped.
+ * <p>
+ * Decisions are delegated to the wrapped advisor and then narrowed to the requested validation mode:
+ * lower tiers drop profile, invariant and terminology checks here instead of needing differently configured engines.
+ */
+public class FhirRequestPolicyAdvisor implements IValidationPolicyAdvisor {
+    private static final EnumSet<ElementValidationAction> TERMINOLOGY_ACTIONS =
+            EnumSet.of(ElementValidationAction.Bindings, ElementValidationAction.AdditionalBindings, ElementValidationAction.StatusCheck);
+
+    private IValidationPolicyAdvisor delegate;
+
+    private final FhirValidationDeadline deadline;
+
+    private final FhirValidationMode mode;
+
+    // Issue limit of the resource being validated, replaced per bundle entry
+    private FhirIssueLimit issueLimit;
+
+    public FhirRequestPolicyAdvisor(IValidationPolicyAdvisor delegate, FhirValidationDeadline deadline) {
+        this(delegate, deadline, FhirValidationMode.FULL);
+    }
+
+    public FhirRequestPolicyAdvisor(IValidationPolicyAdvisor delegate, FhirValidationDeadline deadline, FhirValidationMode mode) {
+        this.delegate = delegate;
+        this.deadline = deadline;
+        this.mode = mode == null ? FhirValidationMode.FULL : mode;
+    }
+
+    public void setIssueLimit(FhirIssueLimit issueLimit) {
+        this.issueLimit = issueLimit != null && issueLimit.hasLimit() ? issueLimit : null;
+    }
+
+    private void checkpoint() {
+        deadline.checkpoint();
+        if (issueLimit != null) issueLimit.checkpoint();
+    }
+
+    @Override
+    public IValidationPolicyAdvisor getPolicyAdvisor() {
+        return delegate;
+    }
+
+    @Override
+    public IValidationPolicyAdvisor setPolicyAdvisor(IValidationPolicyAdvisor policyAdvisor) {
+        this.delegate = policyAdvisor;
+        return this;
+    }
+
+    @Override
+    public ReferenceValidationPolicy getReferencePolicy() {
+        return delegate.getReferencePolicy();
+    }
+
+    @Override
+    public Set<String> getCheckReferencesTo() {
+        return delegate.getCheckReferencesTo();
+    }
+
+    @Override
+    public boolean isSuppressMessageId(String path, String messageId) {
+        return delegate.isSuppressMessageId(path, messageId);
+    }
+
+    @Override
+    public ReferenceValidationPolicy policyForReference(IResourceValidator validator, Object appContext, String path,
+                                                       String url, ReferenceDestinationType destinationType) {
+        checkpoint();
+        // Resolving references may fetch resources, and checking them is more than structure
+        if (mode == FhirValidationMode.STRUCTURE) return ReferenceValidationPolicy.IGNORE;
+        return delegate.policyForReference(validator, appContext, path, url, destinationType);
+    }
+
+    @Override
+    public ContainedReferenceValidationPolicy policyForContained(IResourceValidator validator, Object appContext,
+                                                                 StructureDefinition structure, ElementDefinition element,
+                                                                 String containerType, String containerId,
+                                                                 Element.SpecialElement containingResourceType,
+                                                                 String path, String url) {
+        checkpoint();
+        return delegate.policyForContained(validator, appContext, structure, element, containerType, containerId,
+                containingResourceType, path, url);
+    }
+
+    @Override
+    public EnumSet<ResourceValidationAction> policyForResource(IResourceValidator validator, Object appContext,
+                                                               StructureDefinition type, String path) {
+        checkpoint();
+        var result = delegate.policyForResource(validator, appContext, type, path);
+        if (mode == FhirValidationMode.STRUCTURE) {
+            result = EnumSet.copyOf(result);
+            result.retainAll(EnumSet.of(ResourceValidationAction.BaseType));
+        }
+        return result;
+    }
+
+    @Override
+    public EnumSet<ElementValidationAction> policyForElement(IResourceValidator validator, Object appContext,
+                                                             StructureDefinition structure, ElementDefinition element,
+                                                             String path) {
+        checkpoint();
+        var result = delegate.policyForElement(validator, appContext, structure, element, path);
+        if (mode == FhirValidationMode.FULL || result.isEmpty()) return result;
+        result = EnumSet.copyOf(result);
+        result.removeAll(TERMINOLOGY_ACTIONS);
+        if (mode == FhirValidationMode.STRUCTURE) {
+            result.remove(ElementValidationAction.Invariants);
+        }
+        return result;
+    }
+
+    @Override
+    public EnumSet<CodedContentValidationAction> policyForCodedContent(IResourceValidator validator, Object appContext,
+                                                                       String stackPath, ElementDefinition definition,
+                                                                       StructureDefinition structure, BindingKind kind,
+                                                                       AdditionalBindingPurpose purpose, ValueSet valueSet,
+                                                                       List<String> systems) {
+        // Terminology checks may call the tx-server, so this is the last chance to stop before a remote call
+        checkpoint();
+        if (mode != FhirValidationMode.FULL) return EnumSet.noneOf(CodedContentValidationAction.class);
+        return delegate.policyForCodedContent(validator, appContext, stackPath, definition, structure, kind, purpose,
+                valueSet, systems);
+    }
+
+    @Override
+    public SpecialValidationAction policyForSpecialValidation(IResourceValidator validator, Object appContext,
+                                                              SpecialValidationRule rule, String stackPath,
+                                                              Element resource, Element element) {
+        checkpoint();
+        if (mode == FhirValidationMode.STRUCTURE) return SpecialValidationAction.IGNORE_RULE;
+        return delegate.policyForSpecialValidation(validator, appContext, rule, stackPath, resource, element);
+    }
+
+    @Override
+    public List<StructureDefinition> getImpliedProfilesForResource(IResourceValidator validator, Object appContext,
+                                                                   String stackPath, ElementDefinition definition,
+                                                                   StructureDefinition structure, Element resource,
+                                                                   boolean valid, IMessagingServices msgServices,
+                                                                   List<ValidationMessage> messages) {
+        checkpoint();
+        if (mode == FhirValidationMode.STRUCTURE) return List.of();
+        return delegate.getImpliedProfilesForResource(validator, appContext, stackPath, definition, structure, resource,
+                valid, msgServices, messages);
+    }
+}
@@ -0,0 +1,65 @@
+package il.co.outburn.rest;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonPrimitive;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.TreeMap;
+
+/**
+ * SHA-256 of the canonical JSON form of a resource: object members sorted by name, no whitespace.
+ * Two resources have the same digest when they only differ in member order or formatting. Numbers are taken
+ * as written, so 1 and 1.0 differ, as they do for FHIR decimals.
+ */
+public class FhirResourceDigest {
+
+    public static String of(JsonElement resource) {
+        try {
+            var digest = MessageDigest.getInstance("SHA-256");
+            update(digest, resource);
+            return HexFormat.of().formatHex(digest.digest());
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static void update(MessageDigest digest, JsonElement element) {
+        if (element == null || element.isJsonNull()) {
+            update(digest, "null");
+        } else if (element.isJsonPrimitive()) {
+            // JSON form, so the string "1" and the number 1 differ
+            update(digest, element.toString());
+        } else if (element.isJsonArray()) {
+            update(digest, "[");
+            boolean first = true;
+            for (var item : element.getAsJsonArray()) {
+                if (!first) update(digest, ",");
+                update(digest, item);
+                first = false;
+            }
+            update(digest, "]");
+        } else {
+            var members = new TreeMap<String, JsonElement>();
+            for (var member : element.getAsJsonObject().entrySet()) {
+                members.put(member.getKey(), member.getValue());
+            }
+            update(digest, "{");
+            boolean first = true;
+            for (var member : members.entrySet()) {
+                if (!first) update(digest, ",");
+                update(digest, new JsonPrimitive(member.getKey()).toString());
+                update(digest, ":");
+                update(digest, member.getValue());
+                first = false;
+            }
+            update(digest, "}");
+        }
+    }
+
+    private static void update(MessageDigest digest, String value) {
+        digest.update(value.getBytes(StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,206 @@
+package il.co.outburn.rest;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Cache of validation results and terminology answers (validator.result-cache), in two tiers: a bounded map in
+ * this instance, and an optional FhirResultStore shared with the other replicas. A value found in the store is
+ * put in the local tier; a new value goes to both.
+ * <p>
+ * Keys are SHA-256 digests of the server fingerprint, a namespace and the request, so an entry is only found by
+ * a server that would give the same answer. Like the FHIRPath cache, the local tier drops an arbitrary tenth of
+ * its entries once it holds result-cache-size entries or the cache budget it shares with the other caches is used
+ * up. The budget is read on every put, so it follows auto-sizing.
+ */
+@Slf4j
+public class FhirResultCache {
+    public static final String VALIDATION = "validation";
+    public static final String TX_VALIDATION = "tx-validation";
+    public static final String TX_EXPANSION = "tx-expansion";
+
+    private static final Map<String, byte[]> local = new ConcurrentHashMap<>();
+
+    private static volatile int maxEntries = 0;
+    private static volatile FhirResultStore store;
+    private static volatile byte[] fingerprint = new byte[0];
+
+    private static final AtomicLong localHits = new AtomicLong();
+    private static final AtomicLong storeHits = new AtomicLong();
+    private static final AtomicLong misses = new AtomicLong();
+
+    static {
+        FhirCacheStatistics.register("results", local::size);
+    }
+
+    /**
+     * Sets up the cache from the configuration. Call once the default engine is initialized, so the loaded
+     * packages are part of the fingerprint.
+     */
+    public static void configure(FhirValidatorConfiguration configuration) throws Exception {
+        if (!Boolean.TRUE.equals(configuration.getResultCache())) {
+            configure(0, null, "");
+            return;
+        }
+        var resultStore = createStore(configuration);
+        configure(configuration.getResultCacheSize(), resultStore, ApplicationProperties.getServerFingerprint(configuration));
+        log.info("FhirResultCache::configure - {} local entries, store {}", maxEntries,
+                resultStore == null ? "none" : resultStore.getClass().getSimpleName());
+    }
+
+    static synchronized void configure(int entries, FhirResultStore resultStore, String serverFingerprint) {
+        if (store != null) store.close();
+        clear();
+        maxEntries = Math.max(0, entries);
+        store = resultStore;
+        fingerprint = sha256().digest(serverFingerprint.getBytes(StandardCharsets.UTF_8));
+        if (resultStore != null && resultStore.size() >= 0) {
+            FhirCacheStatistics.register("results-store", resultStore::size);
+        } else {
+            FhirCacheStatistics.unregister("results-store");
+        }
+    }
+
+    private static FhirResultStore createStore(FhirValidatorConfiguration configuration) throws Exception {
+        var name = configuration.getResultCacheStore();
+        if (name == null) return null;
+        return switch (name) {
+            case "file" -> {
+                if (configuration.getResultCachePath() == null) {
+                    throw new IllegalArgumentException("validator.result-cache-path is required for the file result store");
+                }
+                yield new FhirFileResultStore(Path.of(configuration.getResultCachePath()),
+                        (long) configuration.getResultCacheMaxMb() * 1024 * 1024);
+            }
+            case "http" -> {
+                if (configuration.getResultCacheUrl() == null) {
+                    throw new IllegalArgumentException("validator.result-cache-url is required for the http result store");
+                }
+                yield new FhirHttpResultStore(configuration.getResultCacheUrl(), configuration.getResultCacheSecret());
+            }
+            default -> (FhirResultStore) Class.forName(name)
+                    .getConstructor(FhirValidatorConfiguration.class)
+                    .newInstance(configuration);
+        };
+    }
+
+    public static boolean isEnabled() {
+        return maxEntries > 0 || store != null;
+    }
+
+    /**
+     * Key of a request: a hex SHA-256 of the server fingerprint, the namespace, the parts and the body.
+     */
+    public static String key(String namespace, byte[] body, String... parts) {
+        var digest = sha256();
+        digest.update(fingerprint);
+        update(digest, namespace);
+        for (var part : parts) {
+            update(digest, part == null ? "" : part);
+        }
+        if (body != null) digest.update(body);
+        return HexFormat.of().formatHex(digest.digest());
+    }
+
+    public static byte[] get(String key) {
+        var value = local.get(key);
+        if (value != null) {
+            localHits.incrementAndGet();
+            return value;
+        }
+        var resultStore = store;
+        value = resultStore == null ? null : resultStore.get(key);
+        if (value != null) {
+            storeHits.incrementAndGet();
+            putLocal(key, value);
+            return value;
+        }
+        misses.incrementAndGet();
+        return null;
+    }
+
+    public static void put(String key, byte[] value) {
+        putLocal(key, value);
+        var resultStore = store;
+        if (resultStore != null) resultStore.put(key, value);
+    }
+
+    /**
+     * The value in the local tier, without counting the lookup. Used to serve the cache to other replicas.
+     */
+    static byte[] getLocal(String key) {
+        return local.get(key);
+    }
+
+    static void putLocal(String key, byte[] value) {
+        if (maxEntries == 0 || value.length > FhirCacheBudget.getMaxBytes() / 10) return;
+        if (local.size() >= maxEntries) evict();
+        if (!FhirCacheBudget.tryReserve(value.length)) {
+            evict();
+            if (!FhirCacheBudget.tryReserve(value.length)) return;
+        }
+        var previous = local.put(key, value);
+        if (previous != null) FhirCacheBudget.release(previous.length);
+    }
+
+    private static void evict() {
+        int toRemove = Math.max(1, local.size() / 10);
+        var iterator = local.entrySet().iterator();
+        while (toRemove-- > 0 && iterator.hasNext()) {
+            remove(iterator.next());
+        }
+    }
+
+    // Releases the entry's bytes only if this call removed it, so concurrent evictions don't release it twice
+    private static void remove(Map.Entry<String, byte[]> entry) {
+        if (local.remove(entry.getKey(), entry.getValue())) {
+            FhirCacheBudget.release(entry.getValue().length);
+        }
+    }
+
+    public static int size() {
+        return local.size();
+    }
+
+    public static void clear() {
+        for (var entry : local.entrySet()) {
+            remove(entry);
+        }
+    }
+
+    public static long getLocalHits() {
+        return localHits.get();
+    }
+
+    public static long getStoreHits() {
+        return storeHits.get();
+    }
+
+    public static long getMisses() {
+        return misses.get();
+    }
+
+    private static void update(MessageDigest digest, String value) {
+        var bytes = value.getBytes(StandardCharsets.UTF_8);
+        // Length first, so the parts can't run into each other
+        digest.update(ByteBuffer.allocate(4).putInt(bytes.length).array());
+        digest.update(bytes);
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
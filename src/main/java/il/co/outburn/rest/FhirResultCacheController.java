@@ -0,0 +1,67 @@
+package il.co.outburn.rest;
+
+import io.swagger.v3.oas.annotations.Hidden;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.PutMapping;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestHeader;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.regex.Pattern;
+
+/**
+ * Serves the local tier of the result cache to other replicas (validator.result-cache-serve), which use this
+ * instance as their 'http' result store. Keys are hex SHA-256 digests; anything else is rejected.
+ * <p>
+ * /cache shares the port of /validate, and its keys can be derived from what /info publishes, so writes are only
+ * accepted from replicas that send the shared validator.result-cache-secret. Without a secret, /cache is read-only.
+ */
+@Hidden
+@RestController
+public class FhirResultCacheController {
+    private static final Pattern KEY = Pattern.compile("[0-9a-f]{64}");
+    private static final String BEARER = "Bearer ";
+
+    @Autowired
+    FhirValidatorConfiguration configuration;
+
+    @GetMapping(value = "/cache/{key}", produces = MediaType.APPLICATION_OCTET_STREAM_VALUE)
+    public ResponseEntity<byte[]> get(@PathVariable("key") String key,
+                                      @RequestHeader(value = HttpHeaders.AUTHORIZATION, required = false) String authorization) {
+        if (!isServed(key)) return ResponseEntity.notFound().build();
+        var secret = configuration.getResultCacheSecret();
+        if (secret != null && !isAuthorized(authorization, secret)) return ResponseEntity.status(HttpStatus.FORBIDDEN).build();
+        var value = FhirResultCache.getLocal(key);
+        return value == null ? ResponseEntity.notFound().build() : ResponseEntity.ok(value);
+    }
+
+    @PutMapping(value = "/cache/{key}", consumes = MediaType.APPLICATION_OCTET_STREAM_VALUE)
+    public ResponseEntity<Void> put(@PathVariable("key") String key,
+                                    @RequestHeader(value = HttpHeaders.AUTHORIZATION, required = false) String authorization,
+                                    @RequestBody byte[] value) {
+        if (!isServed(key)) return ResponseEntity.notFound().build();
+        var secret = configuration.getResultCacheSecret();
+        if (secret == null || !isAuthorized(authorization, secret)) return ResponseEntity.status(HttpStatus.FORBIDDEN).build();
+        FhirResultCache.putLocal(key, value);
+        return ResponseEntity.status(HttpStatus.NO_CONTENT).build();
+    }
+
+    private boolean isServed(String key) {
+        return Boolean.TRUE.equals(configuration.getResultCacheServe()) && KEY.matcher(key).matches();
+    }
+
+    // Constant-time comparison, so the secret cannot be guessed from response times
+    private static boolean isAuthorized(String authorization, String secret) {
+        if (authorization == null || !authorization.startsWith(BEARER)) return false;
+        return MessageDigest.isEqual(authorization.substring(BEARER.length()).getBytes(StandardCharsets.UTF_8),
+                secret.getBytes(StandardCharsets.UTF_8));
+    }
+}
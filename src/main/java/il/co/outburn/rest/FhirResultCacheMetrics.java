@@ -0,0 +1,28 @@
+package il.co.outburn.rest;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.springframework.stereotype.Component;
+
+import java.util.function.LongSupplier;
+
+/**
+ * Meters of the result cache, counted by FhirResultCache and read when scraped.
+ */
+@Component
+public class FhirResultCacheMetrics implements MeterBinder {
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        register(registry, "local", FhirResultCache::getLocalHits);
+        register(registry, "store", FhirResultCache::getStoreHits);
+        register(registry, "miss", FhirResultCache::getMisses);
+    }
+
+    private void register(MeterRegistry registry, String result, LongSupplier count) {
+        FunctionCounter.builder("yafva.result.cache.requests", count, LongSupplier::getAsLong)
+                .description("Result cache lookups, by the tier that answered them")
+                .tag("result", result)
+                .register(registry);
+    }
+}
@@ -0,0 +1,31 @@
+package il.co.outburn.rest;
+
+import java.io.Closeable;
+
+/**
+ * Second tier of the result cache (validator.result-cache-store), shared by the replicas of the service.
+ * <p>
+ * Keys are hex SHA-256 digests that already include the server fingerprint, so a store may be shared by replicas
+ * with other packages or settings. Values are opaque. A store is used by many threads at once; get and put must
+ * not throw, a store that fails behaves as a miss.
+ * <p>
+ * Besides the built-in stores, validator.result-cache-store may name a class that implements this interface and
+ * has a public constructor taking the FhirValidatorConfiguration.
+ */
+public interface FhirResultStore extends Closeable {
+    /**
+     * The value stored under the key, or null.
+     */
+    byte[] get(String key);
+
+    void put(String key, byte[] value);
+
+    /**
+     * Number of entries in the store, or -1 when the store can't tell.
+     */
+    long size();
+
+    @Override
+    default void close() {
+    }
+}
@@ -0,0 +1,160 @@
+package il.co.outburn.rest;
+
+import lombok.extern.slf4j.Slf4j;
+import org.hl7.fhir.r5.context.SimpleWorkerContext;
+import org.hl7.fhir.r5.formats.IParser;
+import org.hl7.fhir.r5.formats.JsonParser;
+import org.hl7.fhir.r5.model.StructureDefinition;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Persists the snapshots the engine generates at startup for profiles that are published with a differential only
+ * (validator.snapshot-cache).
+ * <p>
+ * ValidationEngine.prepare() generates a snapshot for every such StructureDefinition on every start, which is a large
+ * part of the startup time of IGs with many profiles. Before prepare() the cached snapshots are put back on the
+ * profiles, so prepare() skips them; if any profile still needed a snapshot, the file is written again afterwards.
+ * The file name is derived from the FHIR version and the loaded packages, so another set of packages gets its own file.
+ */
+@Slf4j
+public class FhirSnapshotCache {
+    private final Path folder;
+
+    // Profiles that were loaded without a snapshot
+    private final List<StructureDefinition> derived = new ArrayList<>();
+    private String fingerprint;
+    private int missing = 0;
+
+    public FhirSnapshotCache(Path folder) {
+        this.folder = folder;
+    }
+
+    /**
+     * Puts the cached snapshots on the profiles of the context that have none. Call after the IGs are loaded and
+     * before ValidationEngine.prepare().
+     *
+     * @return the number of snapshots that were restored
+     */
+    public int restore(SimpleWorkerContext context) {
+        long start = System.currentTimeMillis();
+        // Another validator version may generate other snapshots
+        fingerprint = ApplicationProperties.getHapiValidatorVersion() + "|" + context.getVersion() + "|"
+                + new TreeSet<>(context.getLoadedPackages());
+        for (var sd : context.fetchResourcesByType(StructureDefinition.class)) {
+            if (!sd.hasSnapshot() && sd.hasDifferential()) derived.add(sd);
+        }
+        if (derived.isEmpty()) return 0;
+
+        Map<String, StructureDefinition.StructureDefinitionSnapshotComponent> snapshots = Map.of();
+        var path = getPath();
+        if (Files.exists(path)) {
+            try {
+                snapshots = read(path, fingerprint);
+            } catch (Exception e) {
+                log.warn("FhirSnapshotCache::restore - could not read {}: {}", path, e.getMessage());
+            }
+        }
+        int restored = 0;
+        for (var sd : derived) {
+            var snapshot = snapshots.get(sd.getVersionedUrl());
+            if (snapshot != null) {
+                sd.setSnapshot(snapshot);
+                restored++;
+            }
+        }
+        missing = derived.size() - restored;
+        log.info("FhirSnapshotCache::restore - {} of {} profile snapshots restored from {} ({} ms)",
+                restored, derived.size(), path, System.currentTimeMillis() - start);
+        return restored;
+    }
+
+    /**
+     * Writes the snapshots of all profiles that were loaded without one, if any of them had to be generated.
+     * Call after ValidationEngine.prepare().
+     */
+    public void save() {
+        if (missing == 0) return;
+        var path = getPath();
+        try {
+            var profiles = derived.stream().filter(StructureDefinition::hasSnapshot).toList();
+            write(path, fingerprint, profiles);
+            log.info("FhirSnapshotCache::save - {} profile snapshots written to {}", profiles.size(), path);
+        } catch (IOException e) {
+            log.warn("FhirSnapshotCache::save - could not write {}: {}", path, e.getMessage());
+        }
+    }
+
+    Path getPath() {
+        try {
+            var digest = MessageDigest.getInstance("SHA-256").digest(fingerprint.getBytes(StandardCharsets.UTF_8));
+            return folder.resolve("snapshots-" + HexFormat.of().formatHex(digest, 0, 8) + ".ndjson.gz");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Writes the fingerprint, then one line per profile with its url, version and snapshot, to a temporary file
+     * that is then moved in place.
+     */
+    static void write(Path path, String fingerprint, List<StructureDefinition> profiles) throws IOException {
+        var parser = new JsonParser();
+        parser.setOutputStyle(IParser.OutputStyle.NORMAL);
+        Files.createDirectories(path.toAbsolutePath().getParent());
+        var temp = Files.createTempFile(path.toAbsolutePath().getParent(), path.getFileName().toString(), ".tmp");
+        try {
+            try (var writer = new BufferedWriter(new OutputStreamWriter(new GZIPOutputStream(Files.newOutputStream(temp)), StandardCharsets.UTF_8))) {
+                writer.write(fingerprint);
+                writer.newLine();
+                for (var sd : profiles) {
+                    var entry = new StructureDefinition();
+                    entry.setUrl(sd.getUrl());
+                    entry.setVersion(sd.getVersion());
+                    entry.setSnapshot(sd.getSnapshot());
+                    writer.write(parser.composeString(entry));
+                    writer.newLine();
+                }
+            }
+            Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    /**
+     * Reads the snapshots by versioned url. Returns an empty map when the file was written for another fingerprint.
+     */
+    static Map<String, StructureDefinition.StructureDefinitionSnapshotComponent> read(Path path, String fingerprint) throws IOException {
+        var result = new HashMap<String, StructureDefinition.StructureDefinitionSnapshotComponent>();
+        var parser = new JsonParser();
+        try (var reader = new BufferedReader(new InputStreamReader(new GZIPInputStream(Files.newInputStream(path)), StandardCharsets.UTF_8))) {
+            if (!fingerprint.equals(reader.readLine())) return result;
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.isBlank()) continue;
+                var sd = (StructureDefinition) parser.parse(line);
+                result.put(sd.getVersionedUrl(), sd.getSnapshot());
+            }
+        }
+        return result;
+    }
+}
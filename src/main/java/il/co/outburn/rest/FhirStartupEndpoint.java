@@ -0,0 +1,20 @@
+package il.co.outburn.rest;
+
+import org.springframework.boot.actuate.endpoint.annotation.Endpoint;
+import org.springframework.boot.actuate.endpoint.annotation.ReadOperation;
+import org.springframework.stereotype.Component;
+
+/**
+ * Actuator endpoint (/actuator/validatorstartup) with the duration and memory of each startup stage
+ * of the validation engine, including the packages each IG pulled in.
+ */
+@Component
+@Endpoint(id = "validatorstartup")
+public class FhirStartupEndpoint {
+
+    @ReadOperation
+    public FhirStartupProfiler.Report startup() {
+        var profiler = FhirStartupProfiler.getCurrent();
+        return profiler == null ? null : profiler.getReport();
+    }
+}
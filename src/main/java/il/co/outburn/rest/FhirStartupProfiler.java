@@ -0,0 +1,162 @@
+package il.co.outburn.rest;
+
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Records duration and memory of each startup stage of the default ValidationEngine.
+ * <p>
+ * Allocated bytes are counted per thread and are exact for work done on the startup thread. Retained bytes are
+ * the change in used heap across the stage; they are only meaningful with memory accounting enabled, which runs
+ * a full GC before and after every stage (a few seconds of extra startup time).
+ */
+@Slf4j
+public class FhirStartupProfiler {
+    @Getter
+    static FhirStartupProfiler current;
+
+    /**
+     * Name of the stage that clones the first engine; all other stages together build the default engine.
+     */
+    static final String FIRST_CLONE_STAGE = "first clone";
+
+    private static final MemoryMXBean memoryBean = ManagementFactory.getMemoryMXBean();
+
+    public record StageReport(String name, long durationMs, long allocatedBytes, Long retainedBytes,
+                              List<String> packages, Integer resources) {
+    }
+
+    public record Report(long totalDurationMs, Long totalRetainedBytes, boolean memoryAccounting,
+                         List<StageReport> stages) {
+        /**
+         * Approximate size of the default engine: retained bytes with memory accounting, allocated bytes otherwise.
+         */
+        public long defaultEngineBytes() {
+            return stages.stream()
+                    .filter(s -> !FIRST_CLONE_STAGE.equals(s.name()))
+                    .mapToLong(this::stageBytes)
+                    .sum();
+        }
+
+        /**
+         * Approximate size of one engine clone, or null if no clone was profiled.
+         */
+        public Long cloneBytes() {
+            return stages.stream()
+                    .filter(s -> FIRST_CLONE_STAGE.equals(s.name()))
+                    .map(this::stageBytes)
+                    .findFirst()
+                    .orElse(null);
+        }
+
+        private long stageBytes(StageReport stage) {
+            return memoryAccounting && stage.retainedBytes() != null ? stage.retainedBytes() : stage.allocatedBytes();
+        }
+    }
+
+    private final boolean memoryAccounting;
+    private final long startNanos = System.nanoTime();
+    private final List<StageReport> stages = Collections.synchronizedList(new ArrayList<>());
+
+    public FhirStartupProfiler(boolean memoryAccounting) {
+        this.memoryAccounting = memoryAccounting;
+        current = this;
+    }
+
+    public Stage start(String name) {
+        return new Stage(name);
+    }
+
+    public Report getReport() {
+        List<StageReport> snapshot;
+        synchronized (stages) {
+            snapshot = List.copyOf(stages);
+        }
+        Long retained = null;
+        if (memoryAccounting) {
+            retained = snapshot.stream().mapToLong(s -> s.retainedBytes() == null ? 0 : s.retainedBytes()).sum();
+        }
+        long total = snapshot.stream().mapToLong(StageReport::durationMs).sum();
+        return new Report(total, retained, memoryAccounting, snapshot);
+    }
+
+    /**
+     * Logs all stages as one summary.
+     */
+    public void logSummary() {
+        var report = getReport();
+        var summary = new StringBuilder("Startup profile (")
+                .append(report.totalDurationMs()).append(" ms");
+        if (report.totalRetainedBytes() != null) {
+            summary.append(", ").append(megabytes(report.totalRetainedBytes())).append(" MB retained");
+        }
+        summary.append("):");
+        for (var stage : report.stages()) {
+            summary.append(System.lineSeparator()).append(String.format("  %-60s %8d ms %8s MB allocated",
+                    stage.name(), stage.durationMs(), megabytes(stage.allocatedBytes())));
+            if (stage.retainedBytes() != null) {
+                summary.append(String.format(" %8s MB retained", megabytes(stage.retainedBytes())));
+            }
+            if (stage.resources() != null) {
+                summary.append(String.format(" %7d resources", stage.resources()));
+            }
+            if (stage.packages() != null && !stage.packages().isEmpty()) {
+                summary.append(" ").append(String.join(", ", stage.packages()));
+            }
+        }
+        log.info(summary.toString());
+    }
+
+    private static String megabytes(long bytes) {
+        return String.format("%.1f", bytes / (1024.0 * 1024.0));
+    }
+
+    static long allocatedBytes() {
+        if (ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean threadBean
+                && threadBean.isThreadAllocatedMemorySupported()) {
+            return threadBean.getCurrentThreadAllocatedBytes();
+        }
+        return 0;
+    }
+
+    private long usedHeapAfterGc() {
+        memoryBean.gc();
+        return memoryBean.getHeapMemoryUsage().getUsed();
+    }
+
+    public class Stage {
+        private final String name;
+        private final long stageStartNanos;
+        private final long allocatedAtStart;
+        private final long heapAtStart;
+
+        private Stage(String name) {
+            this.name = name;
+            this.heapAtStart = memoryAccounting ? usedHeapAfterGc() : 0;
+            this.allocatedAtStart = allocatedBytes();
+            this.stageStartNanos = System.nanoTime();
+        }
+
+        public void finish() {
+            finish(null, null);
+        }
+
+        /**
+         * @param packages  packages (id#version) that were loaded during the stage
+         * @param resources number of resources the stage added to the context
+         */
+        public void finish(List<String> packages, Integer resources) {
+            long durationMs = (System.nanoTime() - stageStartNanos) / 1_000_000;
+            long allocated = allocatedBytes() - allocatedAtStart;
+            Long retained = memoryAccounting ? usedHeapAfterGc() - heapAtStart : null;
+            stages.add(new StageReport(name, durationMs, allocated, retained, packages, resources));
+            log.info("FhirStartupProfiler - {} took {} ms", name, durationMs);
+        }
+    }
+}
@@ -0,0 +1,213 @@
+package il.co.outburn.rest;
+
+import lombok.extern.slf4j.Slf4j;
+import org.hl7.fhir.r5.context.SimpleWorkerContext;
+import org.hl7.fhir.r5.formats.JsonParser;
+import org.hl7.fhir.r5.model.BooleanType;
+import org.hl7.fhir.r5.model.CodeSystem;
+import org.hl7.fhir.r5.model.CodeableConcept;
+import org.hl7.fhir.r5.model.OperationOutcome;
+import org.hl7.fhir.r5.model.Parameters;
+import org.hl7.fhir.r5.model.StringType;
+import org.hl7.fhir.r5.model.ValueSet;
+import org.hl7.fhir.r5.terminologies.expansion.ValueSetExpansionOutcome;
+import org.hl7.fhir.r5.terminologies.utilities.TerminologyCache;
+import org.hl7.fhir.r5.terminologies.utilities.ValidationResult;
+import org.hl7.fhir.utilities.validation.ValidationMessage;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+
+/**
+ * Terminology cache of the engines that also keeps its answers in the result cache, so code validations and
+ * ValueSet expansions done by one replica, locally or by the tx-server, are reused by the others.
+ * <p>
+ * Only definite answers are shared: validations without a terminology error class, such as an unreachable
+ * tx-server, and expansions without error. An answer found in the result cache is also put in this cache.
+ */
+@Slf4j
+public class FhirTerminologyCache extends TerminologyCache {
+
+    public FhirTerminologyCache(Object lock, String folder) throws IOException {
+        super(lock, folder);
+    }
+
+    /**
+     * Replaces the terminology cache of the context, which the engines cloned from it share. The new cache uses
+     * the same folder, and gets the server capabilities the current one holds.
+     */
+    public static void install(SimpleWorkerContext context) throws IOException {
+        var current = context.getTxCache();
+        var cache = new FhirTerminologyCache(new Object(), current == null ? null : current.getFolder());
+        if (current != null) {
+            for (var address : current.servers().keySet()) {
+                if (current.hasCapabilityStatement(address)) {
+                    cache.cacheCapabilityStatement(address, current.getCapabilityStatement(address));
+                }
+                if (current.hasTerminologyCapabilities(address)) {
+                    cache.cacheTerminologyCapabilities(address, current.getTerminologyCapabilities(address));
+                }
+            }
+        }
+        context.initTxCache(cache);
+    }
+
+    @Override
+    public ValidationResult getValidation(CacheToken token) {
+        var result = super.getValidation(token);
+        if (result != null || !isShared(token)) return result;
+        var value = FhirResultCache.get(key(FhirResultCache.TX_VALIDATION, token));
+        result = value == null ? null : decodeValidation(value);
+        if (result != null) super.cacheValidation(token, result, TRANSIENT);
+        return result;
+    }
+
+    @Override
+    public void cacheValidation(CacheToken token, ValidationResult result, boolean persistent) {
+        super.cacheValidation(token, result, persistent);
+        if (result != null && result.getErrorClass() == null && isShared(token)) {
+            FhirResultCache.put(key(FhirResultCache.TX_VALIDATION, token), encodeValidation(result));
+        }
+    }
+
+    @Override
+    public ValueSetExpansionOutcome getExpansion(CacheToken token) {
+        var outcome = super.getExpansion(token);
+        if (outcome != null || !isShared(token)) return outcome;
+        var value = FhirResultCache.get(key(FhirResultCache.TX_EXPANSION, token));
+        outcome = value == null ? null : decodeExpansion(value);
+        if (outcome != null) super.cacheExpansion(token, outcome, TRANSIENT);
+        return outcome;
+    }
+
+    @Override
+    public void cacheExpansion(CacheToken token, ValueSetExpansionOutcome outcome, boolean persistent) {
+        super.cacheExpansion(token, outcome, persistent);
+        if (outcome != null && outcome.getValueset() != null && outcome.getError() == null && outcome.getErrorClass() == null
+                && isShared(token)) {
+            FhirResultCache.put(key(FhirResultCache.TX_EXPANSION, token), encodeExpansion(outcome));
+        }
+    }
+
+    private static boolean isShared(CacheToken token) {
+        return token != null && token.getRequest() != null && FhirResultCache.isEnabled();
+    }
+
+    private static String key(String namespace, CacheToken token) {
+        return FhirResultCache.key(namespace, null, token.getName(), token.getRequest());
+    }
+
+    static byte[] encodeValidation(ValidationResult result) {
+        var parameters = new Parameters();
+        if (result.getSeverity() != null) parameters.addParameter("severity", result.getSeverity().name());
+        addString(parameters, "message", result.getMessage());
+        addString(parameters, "system", result.getSystem());
+        addString(parameters, "version", result.getVersion());
+        addString(parameters, "display", result.getDisplay());
+        addString(parameters, "status", result.getStatus());
+        addString(parameters, "diagnostics", result.getDiagnostics());
+        addString(parameters, "server", result.getServer());
+        addString(parameters, "txLink", result.getTxLink());
+        parameters.addParameter("inactive", result.isInactive());
+        parameters.addParameter("errorIsDisplayIssue", result.isErrorIsDisplayIssue());
+        if (result.getUnknownSystems() != null) {
+            result.getUnknownSystems().forEach(system -> parameters.addParameter("unknownSystem", system));
+        }
+        if (result.asConceptDefinition() != null) {
+            var codeSystem = new CodeSystem();
+            codeSystem.addConcept(result.asConceptDefinition().copy());
+            parameters.addParameter().setName("definition").setResource(codeSystem);
+        }
+        if (result.getIssues() != null && !result.getIssues().isEmpty()) {
+            var outcome = new OperationOutcome();
+            result.getIssues().forEach(issue -> outcome.addIssue(issue.copy()));
+            parameters.addParameter().setName("issues").setResource(outcome);
+        }
+        if (result.getCodeableConcept() != null) {
+            parameters.addParameter().setName("codeableConcept").setValue(result.getCodeableConcept().copy());
+        }
+        if (result.getParameters() != null) {
+            parameters.addParameter().setName("parameters").setResource(result.getParameters().copy());
+        }
+        return compose(parameters);
+    }
+
+    static ValidationResult decodeValidation(byte[] value) {
+        try {
+            var parameters = (Parameters) new JsonParser().parse(value);
+            var severity = parameters.hasParameter("severity")
+                    ? ValidationMessage.IssueSeverity.valueOf(parameters.getParameterValue("severity").primitiveValue())
+                    : null;
+            var message = getString(parameters, "message");
+            var definition = parameters.hasParameter("definition")
+                    ? ((CodeSystem) parameters.getParameter("definition").getResource()).getConceptFirstRep()
+                    : null;
+            var issues = parameters.hasParameter("issues")
+                    ? ((OperationOutcome) parameters.getParameter("issues").getResource()).getIssue()
+                    : new ArrayList<OperationOutcome.OperationOutcomeIssueComponent>();
+            var result = new ValidationResult(severity, message == null ? List.of() : List.of(message),
+                    getString(parameters, "system"), getString(parameters, "version"), definition,
+                    getString(parameters, "display"), issues);
+            result.setStatus(getBoolean(parameters, "inactive"), getString(parameters, "status"));
+            result.setDiagnostics(getString(parameters, "diagnostics"));
+            result.setServer(getString(parameters, "server"));
+            result.setTxLink(getString(parameters, "txLink"));
+            result.setErrorIsDisplayIssue(getBoolean(parameters, "errorIsDisplayIssue"));
+            var unknownSystems = new HashSet<String>();
+            for (var parameter : parameters.getParameters("unknownSystem")) {
+                unknownSystems.add(parameter.getValue().primitiveValue());
+            }
+            if (!unknownSystems.isEmpty()) result.setUnknownSystems(unknownSystems);
+            if (parameters.hasParameter("codeableConcept")) {
+                result.addCodeableConcept((CodeableConcept) parameters.getParameterValue("codeableConcept"));
+            }
+            if (parameters.hasParameter("parameters")) {
+                result.setParameters((Parameters) parameters.getParameter("parameters").getResource());
+            }
+            return result;
+        } catch (Exception e) {
+            log.warn("FhirTerminologyCache::decodeValidation - {}", e.getMessage());
+            return null;
+        }
+    }
+
+    static byte[] encodeExpansion(ValueSetExpansionOutcome outcome) {
+        var parameters = new Parameters();
+        parameters.addParameter("fromServer", outcome.isFromServer());
+        parameters.addParameter().setName("valueSet").setResource(outcome.getValueset());
+        return compose(parameters);
+    }
+
+    static ValueSetExpansionOutcome decodeExpansion(byte[] value) {
+        try {
+            var parameters = (Parameters) new JsonParser().parse(value);
+            var valueSet = (ValueSet) parameters.getParameter("valueSet").getResource();
+            return new ValueSetExpansionOutcome(valueSet, null, null, getBoolean(parameters, "fromServer"));
+        } catch (Exception e) {
+            log.warn("FhirTerminologyCache::decodeExpansion - {}", e.getMessage());
+            return null;
+        }
+    }
+
+    private static void addString(Parameters parameters, String name, String value) {
+        if (value != null) parameters.addParameter().setName(name).setValue(new StringType(value));
+    }
+
+    private static String getString(Parameters parameters, String name) {
+        return parameters.hasParameter(name) ? parameters.getParameterValue(name).primitiveValue() : null;
+    }
+
+    private static boolean getBoolean(Parameters parameters, String name) {
+        return parameters.hasParameter(name) && ((BooleanType) parameters.getParameterValue(name)).booleanValue();
+    }
+
+    private static byte[] compose(Parameters parameters) {
+        try {
+            return new JsonParser().composeBytes(parameters);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,16 @@
+package il.co.outburn.rest;
+
+import lombok.Getter;
+
+/**
+ * Thrown when a request body uses a Content-Encoding that cannot be decoded.
+ */
+public class FhirUnsupportedContentEncodingException extends RuntimeException {
+    @Getter
+    private final String encoding;
+
+    public FhirUnsupportedContentEncodingException(String encoding) {
+        super("Unsupported Content-Encoding: " + encoding);
+        this.encoding = encoding;
+    }
+}
@@ -46,7 +46,7 @@ public class FhirUtil {
         OperationOutcome op = new OperationOutcome();
         for (ValidationMessage vm : filterMessages(messages)) {
             try {
-                fpe.parse(vm.getLocation());
+                FhirPathExpressionCache.get(context.getVersion(), org.hl7.fhir.r4.fhirpath.ExpressionNode.class, vm.getLocation(), fpe::parse);
             } catch (Exception e) {
                 System.out.println("Internal error in location for message: '" + e.getMessage() + "', loc = '" + vm.getLocation() + "', err = '" + vm.getMessage() + "'");
             }
@@ -60,6 +60,33 @@ public class FhirUtil {
         return op;
     }
 
+    public static org.hl7.fhir.r5.model.OperationOutcome messagesToOutcome(List<ValidationMessage> messages, org.hl7.fhir.r5.context.IWorkerContext context) {
+        var op = new org.hl7.fhir.r5.model.OperationOutcome();
+        for (ValidationMessage vm : filterMessages(messages)) {
+            op.getIssue().add(org.hl7.fhir.r5.utils.OperationOutcomeUtilities.convertToIssue(vm, op));
+        }
+        if (!op.hasIssue()) {
+            op.addIssue().setSeverity(org.hl7.fhir.r5.model.OperationOutcome.IssueSeverity.INFORMATION).setCode(org.hl7.fhir.r5.model.OperationOutcome.IssueType.INFORMATIONAL).getDetails().setText(context.formatMessage(I18nConstants.ALL_OK));
+        }
+        return op;
+    }
+
+    /**
+     * Marks an OperationOutcome as truncated: its issues are not all the issues of the resource.
+     */
+    public static void addIncompleteIssue(org.hl7.fhir.r5.model.OperationOutcome outcome, String text) {
+        outcome.addIssue()
+                .setSeverity(org.hl7.fhir.r5.model.OperationOutcome.IssueSeverity.INFORMATION)
+                .setCode(org.hl7.fhir.r5.model.OperationOutcome.IssueType.INCOMPLETE)
+                .getDetails().setText(text);
+    }
+
+    public static org.hl7.fhir.r5.model.OperationOutcome incompleteOutcome(String text) {
+        var outcome = new org.hl7.fhir.r5.model.OperationOutcome();
+        addIncompleteIssue(outcome, text);
+        return outcome;
+    }
+
     public static org.hl7.fhir.r5.model.OperationOutcome exceptionToOutcome(Throwable e) {
         return org.hl7.fhir.r5.utils.OperationOutcomeUtilities.createError(e.toString());
     }
@@ -78,6 +105,16 @@ public class FhirUtil {
         return false;
     }
 
+    public static boolean operationOutcomeHasErrorIssue(org.hl7.fhir.r5.model.OperationOutcome outcome) {
+        for (var item : outcome.getIssue()) {
+            if (item.hasSeverity() &&
+                (item.getSeverity() == org.hl7.fhir.r5.model.OperationOutcome.IssueSeverity.FATAL || item.getSeverity() == org.hl7.fhir.r5.model.OperationOutcome.IssueSeverity.ERROR)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
     private static String getString(OperationOutcome resource) {
         int error = 0;
         int warn = 0;
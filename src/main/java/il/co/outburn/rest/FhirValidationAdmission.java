@@ -0,0 +1,379 @@
+package il.co.outburn.rest;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.actuate.health.Health;
+import org.springframework.boot.actuate.health.HealthIndicator;
+import org.springframework.context.annotation.DependsOn;
+import org.springframework.stereotype.Component;
+
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Admission control in front of FhirValidator. At most one validation per engine runs at a time,
+ * a bounded number of requests may wait for a free engine, and everything beyond that is rejected
+ * immediately instead of piling up in the servlet container.
+ * <p>
+ * Engines are split between execution lanes (see {@link FhirValidationLane}) according to the configured
+ * shares. Each lane has its own quota and wait queue, so a burst of bundles cannot starve small requests.
+ * When borrowing is enabled, a lane that is over its quota may use engines reserved for other lanes
+ * as long as nothing is waiting in those lanes.
+ * <p>
+ * With adaptive concurrency enabled the limit is not fixed: latency samples from the interactive lane drive
+ * a {@link FhirAdaptiveConcurrencyLimit}, and the lane quotas and the engine pool are resized to follow it.
+ * <p>
+ * Created after the application bean, which initializes the default engine and may auto-size max-engines.
+ */
+@Slf4j
+@Component
+@DependsOn("fhirValidatorApplication")
+public class FhirValidationAdmission implements HealthIndicator {
+    // Weight of the newest sample in the moving average of service time
+    private static final double SERVICE_TIME_ALPHA = 0.2;
+
+    private final ReentrantLock lock = new ReentrantLock(true);
+
+    private final Map<FhirValidationLane, LaneState> lanes = new EnumMap<>(FhirValidationLane.class);
+
+    private final FhirValidatorConfiguration configuration;
+
+    private final MeterRegistry meterRegistry;
+
+    @Getter
+    private volatile int limit;
+
+    // null when adaptive concurrency is disabled; guarded by the lock
+    private final FhirAdaptiveConcurrencyLimit adaptiveLimit;
+
+    private final long queueTimeoutNanos;
+
+    private final boolean borrowing;
+
+    private int inFlight = 0;
+
+    public FhirValidationAdmission(FhirValidatorConfiguration configuration, MeterRegistry meterRegistry) {
+        this.configuration = configuration;
+        this.meterRegistry = meterRegistry;
+        this.limit = configuration.getMaxEngines();
+        this.queueTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(configuration.getQueueTimeout());
+        this.borrowing = Boolean.TRUE.equals(configuration.getLaneBorrowing());
+        this.adaptiveLimit = Boolean.TRUE.equals(configuration.getAdaptiveConcurrency())
+                ? new FhirAdaptiveConcurrencyLimit(limit, configuration.getMinEngines(), configuration.getAdaptiveMaxEngines())
+                : null;
+        if (adaptiveLimit != null) {
+            this.limit = adaptiveLimit.getLimit();
+            FhirValidationEngineCache.setMaxEngines(limit);
+        }
+
+        for (var lane : FhirValidationLane.values()) {
+            lanes.put(lane, new LaneState(lane, meterRegistry));
+        }
+        updateQuotas();
+
+        Gauge.builder("yafva.validation.in.flight", this, FhirValidationAdmission::getInFlight)
+                .description("Validations currently running")
+                .register(meterRegistry);
+        Gauge.builder("yafva.validation.limit", this, FhirValidationAdmission::getLimit)
+                .description("Maximum number of validations running at the same time")
+                .register(meterRegistry);
+
+        for (var state : lanes.values()) {
+            log.info("Admission control: lane '{}' - {} engines, {} queued requests",
+                    state.lane.tag(), state.quota, state.maxQueued);
+        }
+        log.info("Admission control: {} concurrent validations, {} ms queue timeout, lane borrowing {}",
+                limit, configuration.getQueueTimeout(), borrowing ? "enabled" : "disabled");
+        if (adaptiveLimit != null) {
+            log.info("Admission control: adaptive concurrency enabled, limit between {} and {}",
+                    adaptiveLimit.getMinLimit(), adaptiveLimit.getMaxLimit());
+        }
+    }
+
+    /**
+     * Changes the number of validations allowed to run at the same time. Lane quotas and the engine pool
+     * are resized accordingly; validations above a lowered limit are allowed to finish.
+     */
+    public void setLimit(int value) {
+        int newLimit = Math.max(1, value);
+        lock.lock();
+        try {
+            if (newLimit == limit) return;
+            log.info("FhirValidationAdmission::setLimit - concurrency limit changed from {} to {}", limit, newLimit);
+            limit = newLimit;
+            updateQuotas();
+            FhirValidationEngineCache.setMaxEngines(newLimit);
+            for (var state : lanes.values()) {
+                state.released.signalAll();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Waits for a free engine slot in the given lane. The returned permit must be closed when the validation is done.
+     *
+     * @throws FhirValidationRejectedException if the lane's wait queue is full or the wait times out
+     */
+    public Permit acquire(FhirValidationLane lane) {
+        var state = lanes.get(lane);
+        long start = System.nanoTime();
+        lock.lock();
+        try {
+            if (!canRun(state)) {
+                if (state.queued >= state.maxQueued) {
+                    throw reject(state, "All validation engines are busy and the wait queue is full");
+                }
+                state.queued++;
+                try {
+                    long remaining = queueTimeoutNanos;
+                    while (!canRun(state)) {
+                        if (remaining <= 0) {
+                            throw reject(state, "Timed out waiting for a free validation engine");
+                        }
+                        remaining = state.released.awaitNanos(remaining);
+                    }
+                } finally {
+                    state.queued--;
+                }
+            }
+            state.inFlight++;
+            inFlight++;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw reject(state, "Interrupted while waiting for a free validation engine");
+        } finally {
+            lock.unlock();
+        }
+
+        long now = System.nanoTime();
+        state.waitTimer.record(now - start, TimeUnit.NANOSECONDS);
+        return new Permit(state, now);
+    }
+
+    /**
+     * Counts a validation that was stopped before completion, by reason.
+     */
+    public void recordCancelled(FhirValidationDeadline.Reason reason) {
+        Counter.builder("yafva.validation.cancelled")
+                .description("Validations stopped because their deadline passed or the client disconnected")
+                .tag("reason", reason.tag())
+                .register(meterRegistry)
+                .increment();
+    }
+
+    /**
+     * Picks the lane for a single-resource request based on its size.
+     */
+    public FhirValidationLane laneForResource(long contentLength) {
+        var maxBytes = configuration.getInteractiveMaxBytes();
+        if (maxBytes != null && maxBytes > 0 && contentLength > maxBytes) {
+            return FhirValidationLane.BUNDLE;
+        }
+        return FhirValidationLane.INTERACTIVE;
+    }
+
+    public int getInFlight() {
+        lock.lock();
+        try {
+            return inFlight;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int getInFlight(FhirValidationLane lane) {
+        lock.lock();
+        try {
+            return lanes.get(lane).inFlight;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int getQueued(FhirValidationLane lane) {
+        lock.lock();
+        try {
+            return lanes.get(lane).queued;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int getQuota(FhirValidationLane lane) {
+        lock.lock();
+        try {
+            return lanes.get(lane).quota;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Reported as part of the readiness probe: the instance stops accepting traffic while the interactive
+     * lane cannot take any more requests. Saturated bundle or bulk lanes alone do not make it unready.
+     */
+    @Override
+    public Health health() {
+        lock.lock();
+        try {
+            var interactive = lanes.get(FhirValidationLane.INTERACTIVE);
+            var builder = (!canRun(interactive) && interactive.queued >= interactive.maxQueued)
+                    ? Health.outOfService()
+                    : Health.up();
+            builder.withDetail("inFlight", inFlight).withDetail("limit", limit).withDetail("adaptive", adaptiveLimit != null);
+            for (var state : lanes.values()) {
+                var details = new LinkedHashMap<String, Object>();
+                details.put("inFlight", state.inFlight);
+                details.put("queued", state.queued);
+                details.put("quota", state.quota);
+                details.put("maxQueued", state.maxQueued);
+                builder.withDetail(state.lane.tag(), details);
+            }
+            return builder.build();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Must be called holding the lock.
+    private boolean canRun(LaneState state) {
+        if (inFlight >= limit) return false;
+        if (state.inFlight < state.quota) return true;
+        if (!borrowing) return false;
+
+        // Borrow only capacity that is reserved for lanes with nothing waiting
+        int spare = 0;
+        for (var other : lanes.values()) {
+            if (other == state) continue;
+            if (other.queued > 0) return false;
+            spare += Math.max(0, other.quota - other.inFlight);
+        }
+        return state.inFlight - state.quota < spare;
+    }
+
+    // Splits the engines between lanes proportionally to their shares; every lane with a share gets at least one.
+    // Must be called holding the lock or from the constructor.
+    private void updateQuotas() {
+        int totalShares = 0;
+        for (var lane : FhirValidationLane.values()) {
+            totalShares += configuration.getLaneShare(lane);
+        }
+        int queuePerEngine = Math.max(0, configuration.getQueueSizePerEngine());
+        for (var state : lanes.values()) {
+            int share = configuration.getLaneShare(state.lane);
+            int quota = (totalShares == 0)
+                    ? limit
+                    : (share == 0 ? 0 : Math.max(1, limit * share / totalShares));
+            state.quota = quota;
+            state.maxQueued = quota * queuePerEngine;
+        }
+    }
+
+    private FhirValidationRejectedException reject(LaneState state, String message) {
+        state.rejectedCounter.increment();
+        log.warn("FhirValidationAdmission - request rejected in lane '{}': {} (in flight: {}, queued: {})",
+                state.lane.tag(), message, state.inFlight, state.queued);
+        return new FhirValidationRejectedException(message, estimateRetryAfterSeconds(state));
+    }
+
+    // Time until the lane's backlog is drained at the observed service time. Must be called holding the lock.
+    private long estimateRetryAfterSeconds(LaneState state) {
+        double backlog = (double) (state.inFlight + state.queued) / Math.max(1, state.quota);
+        long seconds = (long) Math.ceil(backlog * state.averageServiceNanos / TimeUnit.SECONDS.toNanos(1));
+        return Math.max(1, seconds);
+    }
+
+    private void release(LaneState state, long serviceNanos) {
+        int newLimit = -1;
+        lock.lock();
+        try {
+            // Only the interactive lane has a latency that does not depend on the request size
+            if (adaptiveLimit != null && state.lane == FhirValidationLane.INTERACTIVE
+                    && adaptiveLimit.onSample(serviceNanos, inFlight)) {
+                newLimit = adaptiveLimit.getLimit();
+            }
+            state.inFlight--;
+            inFlight--;
+            state.averageServiceNanos = (state.averageServiceNanos == 0)
+                    ? serviceNanos
+                    : SERVICE_TIME_ALPHA * serviceNanos + (1 - SERVICE_TIME_ALPHA) * state.averageServiceNanos;
+            // The own lane first, then lanes that may be able to borrow the freed engine
+            state.released.signal();
+            for (var other : lanes.values()) {
+                if (other != state && other.queued > 0) {
+                    other.released.signal();
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+        if (newLimit > 0) {
+            setLimit(newLimit);
+        }
+    }
+
+    private class LaneState {
+        final FhirValidationLane lane;
+        final Condition released = lock.newCondition();
+        final Counter rejectedCounter;
+        final Timer waitTimer;
+
+        int quota;
+        int maxQueued;
+        int inFlight = 0;
+        int queued = 0;
+        double averageServiceNanos = 0;
+
+        LaneState(FhirValidationLane lane, MeterRegistry meterRegistry) {
+            this.lane = lane;
+            Gauge.builder("yafva.validation.queue.depth", this, s -> getQueued(s.lane))
+                    .description("Requests waiting for a free validation engine")
+                    .tag("lane", lane.tag())
+                    .register(meterRegistry);
+            Gauge.builder("yafva.validation.lane.in.flight", this, s -> getInFlight(s.lane))
+                    .description("Validations currently running in the lane")
+                    .tag("lane", lane.tag())
+                    .register(meterRegistry);
+            rejectedCounter = Counter.builder("yafva.validation.rejected")
+                    .description("Requests rejected because the wait queue was full or the wait timed out")
+                    .tag("lane", lane.tag())
+                    .register(meterRegistry);
+            waitTimer = Timer.builder("yafva.validation.queue.wait")
+                    .description("Time spent waiting for a free validation engine")
+                    .tag("lane", lane.tag())
+                    .register(meterRegistry);
+        }
+    }
+
+    public class Permit implements AutoCloseable {
+        private final LaneState state;
+        private final long startNanos;
+        private boolean closed = false;
+
+        private Permit(LaneState state, long startNanos) {
+            this.state = state;
+            this.startNanos = startNanos;
+        }
+
+        public FhirValidationLane getLane() {
+            return state.lane;
+        }
+
+        @Override
+        public void close() {
+            if (closed) return;
+            closed = true;
+            release(state, System.nanoTime() - startNanos);
+        }
+    }
+}
@@ -0,0 +1,18 @@
+package il.co.outburn.rest;
+
+import lombok.Getter;
+
+/**
+ * Thrown at a safe point when a validation is cancelled because its deadline passed or its client went away.
+ */
+public class FhirValidationCancelledException extends RuntimeException {
+    @Getter
+    private final FhirValidationDeadline.Reason reason;
+
+    public FhirValidationCancelledException(FhirValidationDeadline.Reason reason) {
+        super(reason == FhirValidationDeadline.Reason.DEADLINE_EXCEEDED
+                ? "Validation deadline exceeded"
+                : "Validation cancelled because the client disconnected");
+        this.reason = reason;
+    }
+}
@@ -1,9 +1,14 @@
 package il.co.outburn.rest;
 
+import java.util.ArrayList;
+import java.util.Comparator;
 import java.util.List;
 
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
 import org.springframework.http.HttpStatusCode;
+import org.springframework.http.InvalidMediaTypeException;
 import org.springframework.http.MediaType;
 import org.springframework.http.ProblemDetail;
 import org.springframework.http.ResponseEntity;
@@ -33,6 +38,10 @@ import lombok.extern.slf4j.Slf4j;
 public class FhirValidationController {
     private static final String CONTENT_TYPE_APPLICATION_FHIR_JSON = "application/fhir+json";
     private static final String CONTENT_TYPE_APPLICATION_FHIR_JSON_UTF8 = "application/fhir+json;charset=UTF-8";
+    private static final String HEADER_VALIDATION_TIMEOUT = "X-Validation-Timeout";
+    private static final String HEADER_VALIDATION_TRUNCATED = "X-Validation-Truncated";
+    private static final String HEADER_DEDUPLICATED_ENTRIES = "X-Deduplicated-Entries";
+    private static final String HEADER_VALIDATION_VALID = "X-Validation-Valid";
 
     FhirValidationController() {
         log.info("FhirValidationController constructor called");
@@ -41,6 +50,15 @@ public class FhirValidationController {
     @Autowired
     FhirValidatorConfiguration configuration;
 
+    @Autowired
+    FhirValidationAdmission admission;
+
+    @Autowired
+    FhirValidationExecutor executor;
+
+    @Autowired
+    FhirValidationETags etags;
+
     @Hidden
     @GetMapping(value = "/", produces = {MediaType.TEXT_HTML_VALUE})
     public String index() {
@@ -75,11 +93,37 @@ public class FhirValidationController {
                 responses = {
                     @ApiResponse(
                         responseCode = "200",
-                        description = "Success",
+                        description = "Success. The X-Validation-Truncated header is set to true when the validation stopped early because of stopOnFirstError or maxIssues.",
                         content = @Content(mediaType = CONTENT_TYPE_APPLICATION_FHIR_JSON_UTF8, schema = @Schema(type = "object"))),
+                    @ApiResponse(
+                        responseCode = "204",
+                        description = "No errors were found and noContentIfValid was requested."),
+                    @ApiResponse(
+                        responseCode = "304",
+                        description = "The If-None-Match header holds the ETag of an earlier validation of the same request. The X-Validation-Valid header tells whether that outcome had no errors."),
+                    @ApiResponse(
+                        responseCode = "412",
+                        description = "The request has no body and none of the ETags in If-None-Match is known to the server.",
+                        content = @Content(schema = @Schema(implementation = ProblemDetail.class))),
+                    @ApiResponse(
+                        responseCode = "413",
+                        description = "The request body is larger than the configured maximum (validator.max-request-body-mb).",
+                        content = @Content(schema = @Schema(implementation = ProblemDetail.class))),
+                    @ApiResponse(
+                        responseCode = "415",
+                        description = "The request body uses a Content-Encoding other than gzip, deflate or zstd. The Accept-Encoding header lists the supported encodings.",
+                        content = @Content(schema = @Schema(implementation = ProblemDetail.class))),
                     @ApiResponse(
                         responseCode = "500",
                         description = "Internal Server Error",
+                        content = @Content(schema = @Schema(implementation = ProblemDetail.class))),
+                    @ApiResponse(
+                        responseCode = "503",
+                        description = "All validation engines are busy. Retry after the number of seconds in the Retry-After header.",
+                        content = @Content(schema = @Schema(implementation = ProblemDetail.class))),
+                    @ApiResponse(
+                        responseCode = "504",
+                        description = "The validation did not finish before the request deadline and was cancelled.",
                         content = @Content(schema = @Schema(implementation = ProblemDetail.class)))})
     @Parameter(
             in = ParameterIn.QUERY,
@@ -91,36 +135,141 @@ public class FhirValidationController {
             name = "format",
             required = false,
             schema = @Schema(type = "string"), description = "Optional. Response format. Specify 'list' to return a list of messages, or specify 'outcome' to return validation results as an instance of FHIR OperationOutcome resource. Default value is 'outcome'.")
+    @Parameter(
+            in = ParameterIn.QUERY,
+            name = "mode",
+            required = false,
+            schema = @Schema(type = "string", allowableValues = {"structure", "profiles", "full"}), description = "Optional. Validation tier. 'structure' checks the resource against its base type only, 'profiles' adds profiles and invariants, 'full' adds terminology. Only 'full' calls the terminology server. Default value is 'full'.")
+    @Parameter(
+            in = ParameterIn.QUERY,
+            name = "stopOnFirstError",
+            required = false,
+            schema = @Schema(type = "boolean"), description = "Optional. Stop validating a resource at its first error. Default value is false.")
+    @Parameter(
+            in = ParameterIn.QUERY,
+            name = "maxIssues",
+            required = false,
+            schema = @Schema(type = "integer"), description = "Optional. Stop validating a resource once it has this many issues.")
+    @Parameter(
+            in = ParameterIn.QUERY,
+            name = "minSeverity",
+            required = false,
+            schema = @Schema(type = "string", allowableValues = {"fatal", "error", "warning", "information"}), description = "Optional. Report only issues of this severity or worse.")
+    @Parameter(
+            in = ParameterIn.QUERY,
+            name = "dropAllOk",
+            required = false,
+            schema = @Schema(type = "boolean"), description = "Optional. Leave out the informational 'All OK' issue of resources without issues in compact and list output; an OperationOutcome always keeps it. Default value is false.")
+    @Parameter(
+            in = ParameterIn.QUERY,
+            name = "fields",
+            required = false,
+            array = @ArraySchema(schema = @Schema(type = "string", allowableValues = {"severity", "code", "expression", "text", "position", "messageId"})), description = "Optional. Issue fields to return. In an OperationOutcome, severity and code are always returned. Default is all fields.")
+    @Parameter(
+            in = ParameterIn.QUERY,
+            name = "noContentIfValid",
+            required = false,
+            schema = @Schema(type = "boolean"), description = "Optional. Answer with 204 and no body when no errors were found. Default value is false.")
+    @Parameter(
+            in = ParameterIn.HEADER,
+            name = HEADER_VALIDATION_TIMEOUT,
+            required = false,
+            schema = @Schema(type = "integer"), description = "Optional. Deadline for the validation in milliseconds. The validation is cancelled with 504 when it passes.")
+    @Parameter(
+            in = ParameterIn.HEADER,
+            name = HttpHeaders.IF_NONE_MATCH,
+            required = false,
+            schema = @Schema(type = "string"), description = "Optional. ETags of earlier responses. When one of them is the ETag of this request, the server answers 304 without validating. Without a body, any known ETag is answered.")
     @PostMapping(
             value = "/validate",
             consumes = {MediaType.APPLICATION_JSON_VALUE, "text/json", CONTENT_TYPE_APPLICATION_FHIR_JSON},
-            produces = {MediaType.APPLICATION_JSON_VALUE, CONTENT_TYPE_APPLICATION_FHIR_JSON, MediaType.APPLICATION_PROBLEM_JSON_VALUE})
+            produces = {MediaType.APPLICATION_JSON_VALUE, CONTENT_TYPE_APPLICATION_FHIR_JSON, MediaType.APPLICATION_CBOR_VALUE, MediaType.APPLICATION_PROBLEM_JSON_VALUE})
     public ResponseEntity<?> validateRequest(
             HttpServletRequest request,
             @RequestParam(value = "profile", required = false) List<String> profiles,
-            @RequestParam(value = "format", required = false) String format) throws Throwable {
+            @RequestParam(value = "format", required = false) String format,
+            @RequestParam(value = "mode", required = false) String mode,
+            @RequestParam(value = "stopOnFirstError", required = false) Boolean stopOnFirstError,
+            @RequestParam(value = "maxIssues", required = false) Integer maxIssues,
+            @RequestParam(value = "minSeverity", required = false) String minSeverity,
+            @RequestParam(value = "dropAllOk", required = false) Boolean dropAllOk,
+            @RequestParam(value = "fields", required = false) List<String> fields,
+            @RequestParam(value = "noContentIfValid", required = false) Boolean noContentIfValid) throws Throwable {
         try {
             if (format == null || format.isEmpty()) {
                 format = "outcome";
             }
 
             log.info("FhirValidationController::validate called");
-            var body = request.getInputStream();
-            var bytes = body.readAllBytes();
-            var result = FhirValidator.validateBytes(bytes, profiles, configuration);
+            FhirValidationOptions options;
+            FhirValidationResult result;
+            String etag = null;
+            try (var body = FhirRequestBody.readInMemory(request, configuration)) {
+                var deadline = createDeadline(request);
+                options = createOptions(mode, stopOnFirstError, maxIssues, null, minSeverity, dropAllOk, fields);
+                options.setCompact(acceptsCompact(request));
+                options.setComposeOutcome("outcome".equals(format) && !options.isCompact());
+                var bytes = body.toByteArray();
+                if (etags.isEnabled()) {
+                    // A request with just If-None-Match and no body asks for the status of an earlier validation
+                    etag = bytes.length == 0 ? null : etags.compute(bytes, request.getParameterMap(), options.isCompact());
+                    var ifNoneMatch = request.getHeader(HttpHeaders.IF_NONE_MATCH);
+                    var matched = ifNoneMatch == null ? null : etags.match(ifNoneMatch, etag);
+                    var valid = matched == null ? null : etags.isValid(matched);
+                    if (valid != null) {
+                        return notModified(matched, valid);
+                    }
+                    if (etag == null && ifNoneMatch != null) {
+                        return preconditionFailed();
+                    }
+                }
+                var resourceOptions = options;
+                try (var permit = admission.acquire(admission.laneForResource(bytes.length))) {
+                    deadline.checkpoint();
+                    result = executor.execute(() -> FhirValidator.validateBytes(bytes, profiles, configuration, resourceOptions, deadline));
+                }
+            }
+            var headers = resultHeaders(result);
+            // A truncated outcome or a transient failure gets no ETag, so it is not answered again with 304
+            if (etag != null && result.isReusable()) {
+                etags.record(etag, !result.isHasErrors());
+                headers.setETag(etag);
+            }
+            if (Boolean.TRUE.equals(noContentIfValid) && !result.isHasErrors()) {
+                return ResponseEntity.noContent().headers(headers).build();
+            }
+            if (options.isCompact()) {
+                return ResponseEntity
+                        .ok()
+                        .headers(headers)
+                        .contentType(MediaType.APPLICATION_CBOR)
+                        .body(FhirCompactResponse.forResource(result, options.getFields()));
+            }
             if ("outcome".equals(format)) {
                 return ResponseEntity
                         .ok()
+                        .headers(headers)
                         .contentType(MediaType.parseMediaType(CONTENT_TYPE_APPLICATION_FHIR_JSON_UTF8))
                         .body(result.resourceBytes);
             } else {
                 var response = new FhirValidatorResponse();
-                response.messages = result.messages;
+                response.messages = options.getFields() == null
+                        ? result.messages
+                        : FhirIssueFilter.projectMessages(result.messages, options.getFields());
                 return ResponseEntity
                         .ok()
+                        .headers(headers)
                         .contentType(MediaType.APPLICATION_JSON)
                         .body(response);
             }
+        } catch (FhirPayloadTooLargeException ex) {
+            return payloadTooLarge(ex);
+        } catch (FhirUnsupportedContentEncodingException ex) {
+            return unsupportedEncoding(ex);
+        } catch (FhirValidationRejectedException ex) {
+            return serviceUnavailable(ex);
+        } catch (FhirValidationCancelledException ex) {
+            return cancelled(ex);
         } catch (IllegalArgumentException ex) {
             log.error("FhirValidationController::validate - bad request: ", ex);
             var pd = ProblemDetail.forStatusAndDetail(HttpStatusCode.valueOf(400), ex.getMessage());
@@ -147,27 +296,128 @@ public class FhirValidationController {
                 responses = {
                     @ApiResponse(
                         responseCode = "200",
-                        description = "Success. Returned value is a FHIR Bundle of type collection.",
+                        description = "Success. Returned value is a FHIR Bundle of type collection. The X-Validation-Truncated header is set to true when the validation stopped early because of stopOnFirstError, maxIssues or maxFailedEntries. X-Deduplicated-Entries holds the number of entries that got the outcome of an identical earlier entry.",
                         content = @Content(mediaType = CONTENT_TYPE_APPLICATION_FHIR_JSON_UTF8, schema = @Schema(type = "object"))),
+                    @ApiResponse(
+                        responseCode = "204",
+                        description = "No errors were found and noContentIfValid was requested."),
+                    @ApiResponse(
+                        responseCode = "413",
+                        description = "The request body is larger than the configured maximum (validator.max-request-body-mb).",
+                        content = @Content(schema = @Schema(implementation = ProblemDetail.class))),
+                    @ApiResponse(
+                        responseCode = "415",
+                        description = "The request body uses a Content-Encoding other than gzip, deflate or zstd. The Accept-Encoding header lists the supported encodings.",
+                        content = @Content(schema = @Schema(implementation = ProblemDetail.class))),
                     @ApiResponse(
                         responseCode = "500",
                         description = "Internal Server Error",
+                        content = @Content(schema = @Schema(implementation = ProblemDetail.class))),
+                    @ApiResponse(
+                        responseCode = "503",
+                        description = "All validation engines are busy. Retry after the number of seconds in the Retry-After header.",
+                        content = @Content(schema = @Schema(implementation = ProblemDetail.class))),
+                    @ApiResponse(
+                        responseCode = "504",
+                        description = "The validation did not finish before the request deadline and was cancelled.",
                         content = @Content(schema = @Schema(implementation = ProblemDetail.class)))})
+    @Parameter(
+            in = ParameterIn.QUERY,
+            name = "mode",
+            required = false,
+            schema = @Schema(type = "string", allowableValues = {"structure", "profiles", "full"}), description = "Optional. Validation tier. 'structure' checks the resource against its base type only, 'profiles' adds profiles and invariants, 'full' adds terminology. Only 'full' calls the terminology server. Default value is 'full'.")
+    @Parameter(
+            in = ParameterIn.QUERY,
+            name = "stopOnFirstError",
+            required = false,
+            schema = @Schema(type = "boolean"), description = "Optional. Stop validating a resource at its first error. Default value is false.")
+    @Parameter(
+            in = ParameterIn.QUERY,
+            name = "maxIssues",
+            required = false,
+            schema = @Schema(type = "integer"), description = "Optional. Stop validating a resource once it has this many issues.")
+    @Parameter(
+            in = ParameterIn.QUERY,
+            name = "maxFailedEntries",
+            required = false,
+            schema = @Schema(type = "integer"), description = "Optional. Stop validating the bundle after this many entries failed. The remaining entries are returned with an 'incomplete' issue.")
+    @Parameter(
+            in = ParameterIn.QUERY,
+            name = "minSeverity",
+            required = false,
+            schema = @Schema(type = "string", allowableValues = {"fatal", "error", "warning", "information"}), description = "Optional. Report only issues of this severity or worse.")
+    @Parameter(
+            in = ParameterIn.QUERY,
+            name = "dropAllOk",
+            required = false,
+            schema = @Schema(type = "boolean"), description = "Optional. Leave out the informational 'All OK' issue of resources without issues in compact and list output; an OperationOutcome always keeps it. Default value is false.")
+    @Parameter(
+            in = ParameterIn.QUERY,
+            name = "fields",
+            required = false,
+            array = @ArraySchema(schema = @Schema(type = "string", allowableValues = {"severity", "code", "expression", "text", "position", "messageId"})), description = "Optional. Issue fields to return. In an OperationOutcome, severity and code are always returned. Default is all fields.")
+    @Parameter(
+            in = ParameterIn.QUERY,
+            name = "noContentIfValid",
+            required = false,
+            schema = @Schema(type = "boolean"), description = "Optional. Answer with 204 and no body when no errors were found. Default value is false.")
+    @Parameter(
+            in = ParameterIn.HEADER,
+            name = HEADER_VALIDATION_TIMEOUT,
+            required = false,
+            schema = @Schema(type = "integer"), description = "Optional. Deadline for the validation in milliseconds. The validation is cancelled with 504 when it passes.")
     @PostMapping(
             value = "/validateBundle",
             consumes = {MediaType.APPLICATION_JSON_VALUE, "text/json", CONTENT_TYPE_APPLICATION_FHIR_JSON},
-            produces = {CONTENT_TYPE_APPLICATION_FHIR_JSON, MediaType.APPLICATION_PROBLEM_JSON_VALUE})
-    public ResponseEntity<?> validateBundle(HttpServletRequest request) throws Throwable {
+            produces = {CONTENT_TYPE_APPLICATION_FHIR_JSON, MediaType.APPLICATION_CBOR_VALUE, MediaType.APPLICATION_PROBLEM_JSON_VALUE})
+    public ResponseEntity<?> validateBundle(
+            HttpServletRequest request,
+            @RequestParam(value = "mode", required = false) String mode,
+            @RequestParam(value = "stopOnFirstError", required = false) Boolean stopOnFirstError,
+            @RequestParam(value = "maxIssues", required = false) Integer maxIssues,
+            @RequestParam(value = "maxFailedEntries", required = false) Integer maxFailedEntries,
+            @RequestParam(value = "minSeverity", required = false) String minSeverity,
+            @RequestParam(value = "dropAllOk", required = false) Boolean dropAllOk,
+            @RequestParam(value = "fields", required = false) List<String> fields,
+            @RequestParam(value = "noContentIfValid", required = false) Boolean noContentIfValid) throws Throwable {
         try {
             log.info("FhirValidationController::validateBundle called");
-            var body = request.getInputStream();
-            var bytes = body.readAllBytes();
-            var result = FhirValidator.validateBundle(bytes, configuration);
+            FhirValidationOptions options;
+            FhirValidationResult result;
+            try (var body = FhirRequestBody.read(request, configuration)) {
+                var deadline = createDeadline(request);
+                options = createOptions(mode, stopOnFirstError, maxIssues, maxFailedEntries, minSeverity, dropAllOk, fields);
+                options.setCompact(acceptsCompact(request));
+                var bundleOptions = options;
+                try (var permit = admission.acquire(FhirValidationLane.BUNDLE)) {
+                    deadline.checkpoint();
+                    result = executor.execute(() -> FhirValidator.validateBundle(body.openStream(), configuration, bundleOptions, deadline));
+                }
+            }
+            if (Boolean.TRUE.equals(noContentIfValid) && !result.isHasErrors()) {
+                return ResponseEntity.noContent().headers(resultHeaders(result)).build();
+            }
+            if (options.isCompact()) {
+                return ResponseEntity
+                        .ok()
+                        .headers(resultHeaders(result))
+                        .contentType(MediaType.APPLICATION_CBOR)
+                        .body(FhirCompactResponse.forBundle(result));
+            }
             return ResponseEntity
                     .ok()
+                    .headers(resultHeaders(result))
                     .contentType(MediaType.parseMediaType(CONTENT_TYPE_APPLICATION_FHIR_JSON_UTF8))
                     .body(result.resourceBytes);
 
+        } catch (FhirPayloadTooLargeException ex) {
+            return payloadTooLarge(ex);
+        } catch (FhirUnsupportedContentEncodingException ex) {
+            return unsupportedEncoding(ex);
+        } catch (FhirValidationRejectedException ex) {
+            return serviceUnavailable(ex);
+        } catch (FhirValidationCancelledException ex) {
+            return cancelled(ex);
         } catch (IllegalArgumentException ex) {
             log.error("FhirValidationController::validateBundle - bad request: ", ex);
             var pd = ProblemDetail.forStatusAndDetail(HttpStatusCode.valueOf(400), ex.getMessage());
@@ -185,6 +435,141 @@ public class FhirValidationController {
         }
     }
 
+    // The request deadline is the configured request-timeout, or the X-Validation-Timeout header if it is shorter
+    private FhirValidationDeadline createDeadline(HttpServletRequest request) {
+        long timeout = configuration.getRequestTimeout() == null ? 0 : configuration.getRequestTimeout();
+        var header = request.getHeader(HEADER_VALIDATION_TIMEOUT);
+        if (header != null && !header.isBlank()) {
+            long requested;
+            try {
+                requested = Long.parseLong(header.trim());
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException(HEADER_VALIDATION_TIMEOUT + " must be a number of milliseconds");
+            }
+            if (requested <= 0) {
+                throw new IllegalArgumentException(HEADER_VALIDATION_TIMEOUT + " must be greater than 0");
+            }
+            timeout = (timeout > 0) ? Math.min(timeout, requested) : requested;
+        }
+        return FhirValidationDeadline.afterMillis(timeout);
+    }
+
+    static FhirValidationOptions createOptions(String mode, Boolean stopOnFirstError, Integer maxIssues, Integer maxFailedEntries,
+                                                       String minSeverity, Boolean dropAllOk, List<String> fields) {
+        var options = FhirValidationOptions.defaults();
+        options.setMinSeverity(FhirIssueFilter.parseSeverity(minSeverity));
+        options.setDropAllOk(Boolean.TRUE.equals(dropAllOk));
+        options.setFields(FhirIssueFilter.parseFields(fields));
+        options.setMode(FhirValidationMode.fromParameter(mode));
+        options.setStopOnFirstError(Boolean.TRUE.equals(stopOnFirstError));
+        if (maxIssues != null) {
+            if (maxIssues < 1) throw new IllegalArgumentException("maxIssues must be greater than 0");
+            options.setMaxIssues(maxIssues);
+        }
+        if (maxFailedEntries != null) {
+            if (maxFailedEntries < 1) throw new IllegalArgumentException("maxFailedEntries must be greater than 0");
+            options.setMaxFailedEntries(maxFailedEntries);
+        }
+        return options;
+    }
+
+    /**
+     * Whether the client prefers the compact CBOR response: application/cbor is the Accept type with the highest
+     * quality, and comes before any JSON type of the same quality.
+     */
+    static boolean acceptsCompact(HttpServletRequest request) {
+        var accept = request.getHeader(HttpHeaders.ACCEPT);
+        if (accept == null || accept.isBlank()) {
+            return false;
+        }
+        List<MediaType> mediaTypes;
+        try {
+            mediaTypes = new ArrayList<>(MediaType.parseMediaTypes(accept));
+        } catch (InvalidMediaTypeException e) {
+            return false;
+        }
+        // Stable sort, so the order of the header decides between equal qualities
+        mediaTypes.sort(Comparator.comparingDouble(MediaType::getQualityValue).reversed());
+        for (var mediaType : mediaTypes) {
+            if (mediaType.getQualityValue() <= 0 || mediaType.isWildcardType()) {
+                continue;
+            }
+            if (MediaType.APPLICATION_CBOR.equalsTypeAndSubtype(mediaType)) {
+                return true;
+            }
+            if ("json".equals(mediaType.getSubtype()) || mediaType.getSubtype().endsWith("+json")) {
+                return false;
+            }
+        }
+        return false;
+    }
+
+    private static HttpHeaders resultHeaders(FhirValidationResult result) {
+        var headers = new HttpHeaders();
+        if (result.isTruncated()) {
+            headers.set(HEADER_VALIDATION_TRUNCATED, "true");
+        }
+        if (result.getDeduplicatedEntries() > 0) {
+            headers.set(HEADER_DEDUPLICATED_ENTRIES, String.valueOf(result.getDeduplicatedEntries()));
+        }
+        return headers;
+    }
+
+    private static ResponseEntity<?> notModified(String etag, boolean valid) {
+        return ResponseEntity
+                .status(HttpStatus.NOT_MODIFIED)
+                .eTag(etag)
+                .header(HEADER_VALIDATION_VALID, String.valueOf(valid))
+                .build();
+    }
+
+    private static ResponseEntity<?> preconditionFailed() {
+        var pd = ProblemDetail.forStatusAndDetail(HttpStatus.PRECONDITION_FAILED,
+                "None of the ETags in If-None-Match is known to the server, send the resource to validate it");
+        return ResponseEntity
+                .status(HttpStatus.PRECONDITION_FAILED)
+                .contentType(MediaType.APPLICATION_PROBLEM_JSON_UTF8)
+                .body(pd);
+    }
+
+    private ResponseEntity<?> cancelled(FhirValidationCancelledException ex) {
+        admission.recordCancelled(ex.getReason());
+        var status = ex.getReason() == FhirValidationDeadline.Reason.DEADLINE_EXCEEDED
+                ? HttpStatus.GATEWAY_TIMEOUT
+                : HttpStatus.SERVICE_UNAVAILABLE;
+        var pd = ProblemDetail.forStatusAndDetail(status, ex.getMessage());
+        return ResponseEntity
+                .status(status)
+                .contentType(MediaType.APPLICATION_PROBLEM_JSON_UTF8)
+                .body(pd);
+    }
+
+    private static ResponseEntity<?> payloadTooLarge(FhirPayloadTooLargeException ex) {
+        var pd = ProblemDetail.forStatusAndDetail(HttpStatus.PAYLOAD_TOO_LARGE, ex.getMessage());
+        return ResponseEntity
+                .status(HttpStatus.PAYLOAD_TOO_LARGE)
+                .contentType(MediaType.APPLICATION_PROBLEM_JSON_UTF8)
+                .body(pd);
+    }
+
+    private static ResponseEntity<?> unsupportedEncoding(FhirUnsupportedContentEncodingException ex) {
+        var pd = ProblemDetail.forStatusAndDetail(HttpStatus.UNSUPPORTED_MEDIA_TYPE, ex.getMessage());
+        return ResponseEntity
+                .status(HttpStatus.UNSUPPORTED_MEDIA_TYPE)
+                .header(HttpHeaders.ACCEPT_ENCODING, FhirRequestBody.SUPPORTED_ENCODINGS)
+                .contentType(MediaType.APPLICATION_PROBLEM_JSON_UTF8)
+                .body(pd);
+    }
+
+    private static ResponseEntity<?> serviceUnavailable(FhirValidationRejectedException ex) {
+        var pd = ProblemDetail.forStatusAndDetail(HttpStatusCode.valueOf(503), ex.getMessage());
+        return ResponseEntity
+                .status(HttpStatus.SERVICE_UNAVAILABLE)
+                .header(HttpHeaders.RETRY_AFTER, String.valueOf(ex.getRetryAfterSeconds()))
+                .contentType(MediaType.APPLICATION_PROBLEM_JSON_UTF8)
+                .body(pd);
+    }
+
     @Operation(
             summary = "Get application configuration and environment information",
             responses = {
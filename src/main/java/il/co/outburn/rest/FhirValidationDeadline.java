@@ -0,0 +1,76 @@
+package il.co.outburn.rest;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Deadline and cancellation token of a single validation request. The validator polls it at safe points
+ * (between bundle entries, per resource and element, before terminology checks) and stops the validation
+ * with FhirValidationCancelledException once the deadline has passed or the request was cancelled.
+ */
+public class FhirValidationDeadline {
+    public enum Reason {
+        DEADLINE_EXCEEDED,
+        CLIENT_DISCONNECTED;
+
+        public String tag() {
+            return name().toLowerCase();
+        }
+    }
+
+    private final long deadlineNanos;
+
+    private volatile Reason cancelReason;
+
+    private FhirValidationDeadline(long deadlineNanos) {
+        this.deadlineNanos = deadlineNanos;
+    }
+
+    /**
+     * A token that never expires on its own but can still be cancelled.
+     */
+    public static FhirValidationDeadline none() {
+        return new FhirValidationDeadline(Long.MAX_VALUE);
+    }
+
+    /**
+     * A token that expires the given number of milliseconds from now. Values of 0 or less mean no deadline.
+     */
+    public static FhirValidationDeadline afterMillis(long timeoutMillis) {
+        if (timeoutMillis <= 0) return none();
+        return new FhirValidationDeadline(System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis));
+    }
+
+    public boolean hasDeadline() {
+        return deadlineNanos != Long.MAX_VALUE;
+    }
+
+    public void cancel(Reason reason) {
+        if (cancelReason == null) {
+            cancelReason = reason;
+        }
+    }
+
+    /**
+     * @return the reason the validation must stop, or null if it may continue
+     */
+    public Reason getCancelReason() {
+        if (cancelReason == null && hasDeadline() && System.nanoTime() - deadlineNanos >= 0) {
+            cancelReason = Reason.DEADLINE_EXCEEDED;
+        }
+        return cancelReason;
+    }
+
+    public boolean isCancelled() {
+        return getCancelReason() != null;
+    }
+
+    /**
+     * Safe point: throws if the validation must stop.
+     */
+    public void checkpoint() {
+        var reason = getCancelReason();
+        if (reason != null) {
+            throw new FhirValidationCancelledException(reason);
+        }
+    }
+}
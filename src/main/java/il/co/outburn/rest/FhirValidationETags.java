@@ -0,0 +1,140 @@
+package il.co.outburn.rest;
+
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Strong ETags of /validate responses and the index of recently issued ones (validator.etag-cache-size).
+ * <p>
+ * The ETag is a hash of the decoded request body, the request parameters, the response representation and a
+ * fingerprint of everything on the server that can change an outcome: application and validator versions, FHIR
+ * version, loaded packages, tx-server and validation settings. A request whose If-None-Match holds an ETag from
+ * the index, and whose body hashes to that ETag or is empty, is answered with 304 without running the engine.
+ * <p>
+ * The index only keeps the ETag and whether the outcome had errors. It is bounded like the FHIRPath cache: once
+ * full, an arbitrary tenth of the entries is dropped.
+ */
+@Component
+public class FhirValidationETags {
+    private final FhirValidatorConfiguration configuration;
+    // ETag -> outcome had no errors
+    private final Map<String, Boolean> issued = new ConcurrentHashMap<>();
+    private volatile byte[] fingerprint;
+
+    public FhirValidationETags(FhirValidatorConfiguration configuration) {
+        this.configuration = configuration;
+        FhirCacheStatistics.register("validation-etags", issued::size);
+    }
+
+    public boolean isEnabled() {
+        return configuration.getEtagCacheSize() > 0;
+    }
+
+    /**
+     * ETag of the response to a validation request, quoted as sent in the header.
+     */
+    public String compute(byte[] body, Map<String, String[]> parameters, boolean compact) {
+        var digest = sha256();
+        digest.update(getFingerprint());
+        var sorted = new TreeMap<>(parameters);
+        for (var parameter : sorted.entrySet()) {
+            update(digest, parameter.getKey() + "=" + Arrays.toString(parameter.getValue()) + "\n");
+        }
+        update(digest, "compact=" + compact + "\n");
+        digest.update(body);
+        return "\"" + hex(digest.digest(), 16) + "\"";
+    }
+
+    /**
+     * Looks up the ETags of an If-None-Match header in the index.
+     *
+     * @param etag the ETag of the request body, or null when the request has no body
+     * @return the first ETag of the header that is in the index and equals etag, or null when none is
+     */
+    public String match(String ifNoneMatch, String etag) {
+        for (var candidate : parseIfNoneMatch(ifNoneMatch)) {
+            if (etag != null && !etag.equals(candidate)) continue;
+            if (issued.containsKey(candidate)) return candidate;
+        }
+        return null;
+    }
+
+    /**
+     * Whether the outcome an ETag was issued for had no errors, or null when the ETag is not in the index.
+     */
+    public Boolean isValid(String etag) {
+        return issued.get(etag);
+    }
+
+    public void record(String etag, boolean valid) {
+        int maxEntries = configuration.getEtagCacheSize();
+        if (maxEntries <= 0) return;
+        if (issued.size() >= maxEntries) evict(maxEntries);
+        issued.put(etag, valid);
+    }
+
+    public int size() {
+        return issued.size();
+    }
+
+    private void evict(int maxEntries) {
+        int toRemove = Math.max(1, maxEntries / 10);
+        var iterator = issued.keySet().iterator();
+        while (toRemove-- > 0 && iterator.hasNext()) {
+            iterator.next();
+            iterator.remove();
+        }
+    }
+
+    /**
+     * Entity tags of an If-None-Match header. Weak tags are compared by their value, as If-None-Match requires;
+     * "*" is ignored because a validation has no current representation to match.
+     */
+    static List<String> parseIfNoneMatch(String header) {
+        var result = new ArrayList<String>();
+        if (header == null) return result;
+        for (var tag : header.split(",")) {
+            tag = tag.trim();
+            if (tag.startsWith("W/")) tag = tag.substring(2);
+            if (tag.length() > 2 && tag.startsWith("\"") && tag.endsWith("\"")) result.add(tag);
+        }
+        return result;
+    }
+
+    private byte[] getFingerprint() {
+        var value = fingerprint;
+        if (value == null) {
+            var text = ApplicationProperties.getServerFingerprint(configuration);
+            value = sha256().digest(text.getBytes(StandardCharsets.UTF_8));
+            // Only cached once the engine exists, so the packages are part of it
+            if (FhirValidationEngineCache.getDefaultValidationEngine() != null) fingerprint = value;
+        }
+        return value;
+    }
+
+    private static void update(MessageDigest digest, String value) {
+        digest.update(value.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static String hex(byte[] bytes, int length) {
+        return HexFormat.of().formatHex(bytes, 0, length);
+    }
+}
@@ -6,25 +6,232 @@ import lombok.extern.slf4j.Slf4j;
 import org.hl7.fhir.validation.ValidationEngine;
 
 import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.concurrent.BlockingDeque;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
 
+/**
+ * A bounded pool of ValidationEngine clones. Engines are cloned lazily from the default engine
+ * until maxEngines exist; after that callers wait for an engine to be returned.
+ * When maxEngines is lowered, surplus engines are discarded as they become idle.
+ * <p>
+ * Engines are not bound to threads, and the pool uses explicit locks rather than synchronized,
+ * so it can be used from virtual threads without pinning their carrier.
+ * <p>
+ * When the recycling policy marks a clone for retirement, a replacement is cloned on a background thread
+ * while the old clone stays in rotation; the two are swapped once the replacement is ready.
+ * The pool therefore never drops below its size and no request waits for a clone to be recycled.
+ */
 @Slf4j
 public class FhirValidationEngineCache {
     @Getter
     @Setter
     static ValidationEngine defaultValidationEngine;
 
-    static ThreadLocal<ValidationEngine> validationEngine = new ThreadLocal<>();
+    static final BlockingDeque<ValidationEngine> idleEngines = new LinkedBlockingDeque<>();
 
-    public static ValidationEngine getValidationEngine() throws IOException {
-        ValidationEngine result = validationEngine.get();
-        if (result == null) {
-            log.warn("For current thread, ValidationEngine is not initialized. Cloning...");
-            result = new ValidationEngine(defaultValidationEngine);
-            validationEngine.set(result);
-            log.info("An instance of ValidationEngine has been initialized for the current thread.");
-        } else {
-            log.info("An instance of ValidationEngine for the current thread found in the cache.");
+    private static final ReentrantLock lock = new ReentrantLock();
+
+    @Getter
+    static int maxEngines = Runtime.getRuntime().availableProcessors();
+
+    @Getter
+    static int createdEngines = 0;
+
+    /**
+     * Bytes allocated by the most recent clone. An upper bound of the heap one clone retains.
+     */
+    @Getter
+    static volatile long lastCloneAllocatedBytes = 0;
+
+    @Getter
+    @Setter
+    static volatile FhirEngineRecyclingPolicy recyclingPolicy = FhirEngineRecyclingPolicy.disabled();
+
+    private static final AtomicLong recycledEngines = new AtomicLong();
+
+    // Live clones and their bookkeeping; replacements that are ready while the clone they replace is borrowed
+    private static final Map<ValidationEngine, FhirEngineRecyclingPolicy.EngineInfo> engines = new IdentityHashMap<>();
+    private static final Map<ValidationEngine, ValidationEngine> replacements = new IdentityHashMap<>();
+
+    private static final ExecutorService recycler = Executors.newSingleThreadExecutor(runnable -> {
+        var thread = new Thread(runnable, "yafva-engine-recycler");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    public static void setMaxEngines(int value) {
+        lock.lock();
+        try {
+            maxEngines = Math.max(1, value);
+            ValidationEngine engine;
+            while (createdEngines > maxEngines && (engine = idleEngines.pollLast()) != null) {
+                forget(engine);
+                createdEngines--;
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public static int getIdleEngines() {
+        return idleEngines.size();
+    }
+
+    public static long getRecycledEngines() {
+        return recycledEngines.get();
+    }
+
+    /**
+     * Takes an engine from the pool. Every borrowed engine must be handed back with returnValidationEngine.
+     */
+    public static ValidationEngine borrowValidationEngine() throws IOException {
+        ValidationEngine result = idleEngines.pollFirst();
+        if (result != null) {
+            return result;
+        }
+
+        if (reserveEngine()) {
+            try {
+                log.info("No idle ValidationEngine found. Cloning...");
+                result = cloneDefaultEngine();
+                log.info("An instance of ValidationEngine has been initialized ({} of {}).", createdEngines, maxEngines);
+                return result;
+            } catch (IOException | RuntimeException e) {
+                releaseEngine();
+                throw e;
+            }
+        }
+
+        try {
+            return idleEngines.takeFirst();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for a ValidationEngine");
+        }
+    }
+
+    public static void returnValidationEngine(ValidationEngine engine) {
+        if (engine == null) return;
+        var policy = recyclingPolicy;
+        // Counted outside the lock, it walks the context's resource maps
+        int contextResources = policy.tracksSize() ? engine.getContext().countAllCaches() : 0;
+
+        lock.lock();
+        try {
+            if (createdEngines > maxEngines) {
+                forget(engine);
+                createdEngines--;
+                log.info("Discarding a ValidationEngine above the pool limit ({} of {}).", createdEngines, maxEngines);
+                return;
+            }
+
+            var replacement = replacements.remove(engine);
+            if (replacement != null) {
+                engines.remove(engine);
+                recycledEngines.incrementAndGet();
+                idleEngines.offerFirst(replacement);
+                return;
+            }
+
+            var info = engines.get(engine);
+            if (info != null && !info.retiring) {
+                info.validations++;
+                var reason = policy.isEnabled() ? policy.retireReason(info, System.nanoTime(), contextResources) : null;
+                if (reason != null) {
+                    info.retiring = true;
+                    log.info("FhirValidationEngineCache::returnValidationEngine - retiring a ValidationEngine after {} validations ({}), cloning a replacement",
+                            info.validations, reason);
+                    recycler.execute(() -> replace(engine));
+                }
+            }
+            // LIFO keeps the most recently used (warm) engines in rotation
+            idleEngines.offerFirst(engine);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private static void replace(ValidationEngine retired) {
+        ValidationEngine replacement;
+        try {
+            replacement = cloneDefaultEngine();
+        } catch (Exception e) {
+            log.warn("FhirValidationEngineCache::replace - cannot clone a replacement, keeping the old ValidationEngine: {}", e.getMessage());
+            lock.lock();
+            try {
+                var info = engines.get(retired);
+                if (info != null) info.retiring = false;
+            } finally {
+                lock.unlock();
+            }
+            return;
+        }
+
+        lock.lock();
+        try {
+            if (!engines.containsKey(retired)) {
+                // Discarded meanwhile because the pool shrank
+                engines.remove(replacement);
+                return;
+            }
+            if (idleEngines.removeFirstOccurrence(retired)) {
+                engines.remove(retired);
+                recycledEngines.incrementAndGet();
+                idleEngines.offerLast(replacement);
+            } else {
+                replacements.put(retired, replacement);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private static ValidationEngine cloneDefaultEngine() throws IOException {
+        long allocatedBefore = FhirStartupProfiler.allocatedBytes();
+        var result = new ValidationEngine(defaultValidationEngine);
+        lastCloneAllocatedBytes = FhirStartupProfiler.allocatedBytes() - allocatedBefore;
+        // Counted even without a size limit: the warm-up clone is made before the recycling policy is set
+        var info = new FhirEngineRecyclingPolicy.EngineInfo(System.nanoTime(), result.getContext().countAllCaches());
+        lock.lock();
+        try {
+            engines.put(result, info);
+        } finally {
+            lock.unlock();
         }
         return result;
     }
+
+    // Must hold the lock
+    private static void forget(ValidationEngine engine) {
+        engines.remove(engine);
+        var replacement = replacements.remove(engine);
+        if (replacement != null) engines.remove(replacement);
+    }
+
+    private static boolean reserveEngine() {
+        lock.lock();
+        try {
+            if (createdEngines >= maxEngines) return false;
+            createdEngines++;
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private static void releaseEngine() {
+        lock.lock();
+        try {
+            createdEngines--;
+        } finally {
+            lock.unlock();
+        }
+    }
 }
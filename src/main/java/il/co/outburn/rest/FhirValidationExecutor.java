@@ -0,0 +1,101 @@
+package il.co.outburn.rest;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.jvm.ExecutorServiceMetrics;
+import jakarta.annotation.PreDestroy;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs validations on a bounded pool of platform threads when HTTP requests are handled on virtual threads
+ * (spring.threads.virtual.enabled). Request threads block cheaply while reading the body, waiting for
+ * admission and waiting for the result; only the CPU-heavy validation occupies a platform thread.
+ * <p>
+ * With virtual threads disabled, validations run directly on the calling request thread.
+ * The number of tasks is already bounded by admission control, so the work queue never grows beyond it.
+ */
+@Slf4j
+@Component
+public class FhirValidationExecutor {
+    @FunctionalInterface
+    public interface Task<T> {
+        T call() throws Throwable;
+    }
+
+    @Getter
+    private final boolean enabled;
+
+    private final ExecutorService executor;
+
+    public FhirValidationExecutor(FhirValidatorConfiguration configuration, MeterRegistry meterRegistry,
+                                  @Value("${spring.threads.virtual.enabled:false}") boolean virtualThreads) {
+        this.enabled = virtualThreads;
+        if (!enabled) {
+            this.executor = null;
+            return;
+        }
+
+        int threads = configuration.getValidationThreads();
+        var threadNumber = new AtomicInteger();
+        ThreadFactory threadFactory = runnable -> {
+            var thread = new Thread(runnable, "yafva-validation-" + threadNumber.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+        var pool = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), threadFactory);
+        pool.allowCoreThreadTimeOut(true);
+        this.executor = ExecutorServiceMetrics.monitor(meterRegistry, pool, "yafva.validation.executor");
+        log.info("FhirValidationExecutor - requests on virtual threads, validations on {} platform threads", threads);
+    }
+
+    /**
+     * Runs the task on a validation thread and waits for its result. Exceptions thrown by the task are rethrown as is.
+     */
+    public <T> T execute(Task<T> task) throws Throwable {
+        if (!enabled) {
+            return task.call();
+        }
+
+        Future<T> future = executor.submit(() -> {
+            try {
+                return task.call();
+            } catch (Exception e) {
+                throw e;
+            } catch (Throwable e) {
+                throw new ExecutionException(e);
+            }
+        });
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            future.cancel(true);
+            Thread.currentThread().interrupt();
+            throw e;
+        } catch (ExecutionException e) {
+            var cause = e.getCause();
+            // Unwrap the Throwable wrapped inside the task
+            if (cause instanceof ExecutionException && cause.getCause() != null) {
+                cause = cause.getCause();
+            }
+            throw cause;
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        if (executor != null) {
+            executor.shutdown();
+        }
+    }
+}
@@ -0,0 +1,26 @@
+package il.co.outburn.rest;
+
+/**
+ * Execution lanes isolate workloads with different latency profiles from each other.
+ * Each lane has its own share of the validation engines and its own wait queue.
+ */
+public enum FhirValidationLane {
+    /**
+     * Small single-resource requests on /validate. Latency sensitive.
+     */
+    INTERACTIVE,
+
+    /**
+     * Bundles on /validateBundle and large single resources.
+     */
+    BUNDLE,
+
+    /**
+     * Bulk and asynchronous work that should only use capacity left over by the other lanes.
+     */
+    BULK;
+
+    public String tag() {
+        return name().toLowerCase();
+    }
+}
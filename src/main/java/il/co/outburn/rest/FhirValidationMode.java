@@ -0,0 +1,39 @@
+package il.co.outburn.rest;
+
+/**
+ * Validation tiers a request can ask for with the mode parameter. Lower tiers skip whole groups of checks,
+ * so they cost a fraction of the CPU of a full validation. All tiers run on the same engines.
+ */
+public enum FhirValidationMode {
+    /**
+     * Structure against the base resource type: element names, data types and cardinality.
+     * No profiles, invariants, terminology or reference checks, and no calls to the tx-server.
+     */
+    STRUCTURE,
+
+    /**
+     * Structure plus the stated, meta and global profiles with their invariants and fixed values.
+     * Bindings and other terminology checks are skipped, so the tx-server is never called.
+     */
+    PROFILES,
+
+    /**
+     * Everything the engine is configured for, including terminology.
+     */
+    FULL;
+
+    public String tag() {
+        return name().toLowerCase();
+    }
+
+    /**
+     * Parses the mode request parameter. A missing value means FULL.
+     */
+    public static FhirValidationMode fromParameter(String value) {
+        if (value == null || value.isBlank()) return FULL;
+        for (var mode : values()) {
+            if (mode.tag().equalsIgnoreCase(value.trim())) return mode;
+        }
+        throw new IllegalArgumentException("mode must be one of 'structure', 'profiles' or 'full'");
+    }
+}
@@ -0,0 +1,77 @@
+package il.co.outburn.rest;
+
+import lombok.Getter;
+import lombok.Setter;
+import org.hl7.fhir.utilities.validation.ValidationMessage;
+
+import java.util.Set;
+
+/**
+ * Per-request validation options. They are applied through the engine's policy advisor for the duration of
+ * one validation, so pooled engines serve any combination of options without being cloned per setting.
+ */
+public class FhirValidationOptions {
+    @Getter
+    @Setter
+    FhirValidationMode mode = FhirValidationMode.FULL;
+
+    /**
+     * Stop validating a resource at its first error.
+     */
+    @Getter
+    @Setter
+    boolean stopOnFirstError = false;
+
+    /**
+     * Stop validating a resource once it has this many issues. 0 means no limit.
+     */
+    @Getter
+    @Setter
+    int maxIssues = 0;
+
+    /**
+     * Stop validating a bundle after this many entries failed. The remaining entries are not validated. 0 means no limit.
+     */
+    @Getter
+    @Setter
+    int maxFailedEntries = 0;
+
+    /**
+     * Report only issues of this severity or worse. null means all issues.
+     */
+    @Getter
+    @Setter
+    ValidationMessage.IssueSeverity minSeverity;
+
+    /**
+     * Leave out the informational "all OK" issue of resources without issues.
+     */
+    @Getter
+    @Setter
+    boolean dropAllOk = false;
+
+    /**
+     * Issue fields to return, out of FhirIssueFilter.FIELDS. null means all fields.
+     */
+    @Getter
+    @Setter
+    Set<String> fields;
+
+    /**
+     * Compose the OperationOutcome of a single resource. Off for format=list, which only returns the messages.
+     */
+    @Getter
+    @Setter
+    boolean composeOutcome = true;
+
+    /**
+     * Build FhirCompactResponse entries instead of the response Bundle of OperationOutcomes.
+     */
+    @Getter
+    @Setter
+    boolean compact = false;
+
+    public static FhirValidationOptions defaults() {
+        return new FhirValidationOptions();
+    }
+}
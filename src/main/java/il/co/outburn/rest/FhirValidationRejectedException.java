@@ -0,0 +1,16 @@
+package il.co.outburn.rest;
+
+import lombok.Getter;
+
+/**
+ * Thrown when a validation request cannot be admitted because all engines are busy and the wait queue is full.
+ */
+public class FhirValidationRejectedException extends RuntimeException {
+    @Getter
+    private final long retryAfterSeconds;
+
+    public FhirValidationRejectedException(String message, long retryAfterSeconds) {
+        super(message);
+        this.retryAfterSeconds = retryAfterSeconds;
+    }
+}
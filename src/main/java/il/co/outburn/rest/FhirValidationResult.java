@@ -18,6 +18,43 @@ public class FhirValidationResult {
     @Setter
     List<ValidationMessage> messages = new ArrayList<>();
 
+    /**
+     * Set when the validation stopped early because of stopOnFirstError, maxIssues or maxFailedEntries.
+     */
+    @Getter
+    @Setter
+    boolean truncated = false;
+
+    /**
+     * Whether any error or fatal issue was found, before filtering.
+     */
+    @Getter
+    @Setter
+    boolean hasErrors = false;
+
+    /**
+     * Whether the outcome of a single resource may be answered again for the same request, from the result cache
+     * or with an ETag: the validation completed and had no exception issue, such as an unreachable tx-server.
+     */
+    @Getter
+    @Setter
+    boolean reusable = false;
+
+    /**
+     * Number of bundle entries whose resource was identical to an earlier entry and got that entry's outcome
+     * without being validated again.
+     */
+    @Getter
+    @Setter
+    int deduplicatedEntries = 0;
+
+    /**
+     * Per-entry results of a bundle validated with FhirValidationOptions.compact, in place of resourceBytes.
+     */
+    @Getter
+    @Setter
+    List<FhirCompactResponse.Entry> entries;
+
     public FhirValidationResult() {
     }
 }
@@ -9,29 +9,74 @@ import org.hl7.fhir.r5.elementmodel.Manager;
 import org.hl7.fhir.r5.formats.IParser;
 import org.hl7.fhir.r5.formats.JsonParser;
 import org.hl7.fhir.utilities.validation.ValidationMessage;
+import org.hl7.fhir.validation.ValidationEngine;
+import org.hl7.fhir.validation.ValidatorUtils;
+
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
 import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
 
 @Slf4j
 public class FhirValidator {
+    // Bundle entries that got the outcome of an identical entry, over all requests
+    private static final AtomicLong deduplicatedEntries = new AtomicLong();
+
+    public static long getDeduplicatedEntries() {
+        return deduplicatedEntries.get();
+    }
 
     public static FhirValidationResult validateBundle(byte[] requestBundle, FhirValidatorConfiguration configuration) throws IOException {
+        return validateBundle(requestBundle, configuration, FhirValidationDeadline.none());
+    }
+
+    public static FhirValidationResult validateBundle(byte[] requestBundle, FhirValidatorConfiguration configuration,
+                                                      FhirValidationDeadline deadline) throws IOException {
+        return validateBundle(requestBundle, configuration, FhirValidationOptions.defaults(), deadline);
+    }
+
+    public static FhirValidationResult validateBundle(byte[] requestBundle, FhirValidatorConfiguration configuration,
+                                                      FhirValidationOptions options, FhirValidationDeadline deadline) throws IOException {
+        return validateBundle(new ByteArrayInputStream(requestBundle), configuration, options, deadline);
+    }
+
+    /**
+     * Parses the bundle straight from the stream, without copying the body into a String first.
+     */
+    public static FhirValidationResult validateBundle(InputStream requestBundle, FhirValidatorConfiguration configuration,
+                                                      FhirValidationOptions options, FhirValidationDeadline deadline) throws IOException {
         if (!isFhirVersionSupported(configuration)) {
             throw new UnsupportedOperationException("Unsupported FHIR version: " + configuration.getSv());
         }
         
         var gson = new Gson();
-        var jsonStr = new String(requestBundle, StandardCharsets.UTF_8);
-        var json = gson.fromJson(jsonStr, JsonObject.class);
-        return validateBundle(json, configuration);
+        var json = gson.fromJson(new InputStreamReader(requestBundle, StandardCharsets.UTF_8), JsonObject.class);
+        return validateBundle(json, configuration, options, deadline);
     }
 
     public static FhirValidationResult validateBundle(JsonObject requestBundle, FhirValidatorConfiguration configuration)
         throws IOException
+    {
+        return validateBundle(requestBundle, configuration, FhirValidationDeadline.none());
+    }
+
+    public static FhirValidationResult validateBundle(JsonObject requestBundle, FhirValidatorConfiguration configuration,
+                                                      FhirValidationDeadline deadline)
+        throws IOException
+    {
+        return validateBundle(requestBundle, configuration, FhirValidationOptions.defaults(), deadline);
+    }
+
+    public static FhirValidationResult validateBundle(JsonObject requestBundle, FhirValidatorConfiguration configuration,
+                                                      FhirValidationOptions options, FhirValidationDeadline deadline)
+        throws IOException
     {
         // Checks
         if (!isFhirVersionSupported(configuration)) {
@@ -39,9 +84,6 @@ public class FhirValidator {
         }
         ensureValidBundle(requestBundle);
         
-        // Engine
-        var validationEngine = FhirValidationEngineCache.getValidationEngine();
-
         // Create parser
         var gson = new Gson();
         var fhirJsonParser = createFhirJsonParser();
@@ -50,39 +92,90 @@ public class FhirValidator {
         var responseBundle = new org.hl7.fhir.r5.model.Bundle();
         responseBundle.setType(org.hl7.fhir.r5.model.Bundle.BundleType.COLLECTION);
 
-        // Validates every entry individually
-        for (var entryElement: requestBundle.getAsJsonArray("entry")) {
-            var entry = entryElement.getAsJsonObject();
-            var resource = entry.get("resource");
+        var result = new FhirValidationResult();
+        if (options.isCompact()) {
+            result.entries = new ArrayList<>();
+        }
+        int failedEntries = 0;
+        // Entries with the same resource are validated once; the outcome is shared by all of them
+        boolean deduplicate = Boolean.TRUE.equals(configuration.getBundleDeduplication());
+        var validatedEntries = new HashMap<String, EntryResult>();
 
-            var resourceBytes = gson.toJson(resource).getBytes();
-            org.hl7.fhir.r5.model.OperationOutcome ooR5;
-            var messages = new ArrayList<ValidationMessage>();
-            try {
-                ooR5 = validationEngine.validate(resourceBytes, Manager.FhirFormat.JSON, new ArrayList<String>(), messages);
-            }
-            catch (org.hl7.fhir.r5.utils.EOperationOutcome e) {
-                ooR5 = e.getOutcome();
-            }
+        // Engine
+        var validationEngine = FhirValidationEngineCache.borrowValidationEngine();
+        var requestPolicy = installRequestPolicy(validationEngine, options, deadline);
+        try {
+            // Validates every entry individually
+            for (var entryElement: requestBundle.getAsJsonArray("entry")) {
+                deadline.checkpoint();
+                var entry = entryElement.getAsJsonObject();
 
-            if (configuration.getRemoveText() != null && configuration.getRemoveText()) {
-                ooR5.setText(null);
-            }
+                var fullUrl = entry.has("fullUrl") ? entry.get("fullUrl").getAsString() : null;
+                org.hl7.fhir.r5.model.OperationOutcome ooR5;
+                if (options.getMaxFailedEntries() > 0 && failedEntries >= options.getMaxFailedEntries()) {
+                    ooR5 = FhirUtil.incompleteOutcome("Not validated: validation of the bundle stopped after "
+                            + failedEntries + " failed entries");
+                    result.truncated = true;
+                    if (options.isCompact()) {
+                        result.entries.add(new FhirCompactResponse.Entry(fullUrl, true, true, List.of()));
+                        continue;
+                    }
+                } else {
+                    var resource = entry.get("resource");
+                    var key = deduplicate && resource != null && resource.isJsonObject() ? FhirResourceDigest.of(resource) : null;
+                    var entryResult = key == null ? null : validatedEntries.get(key);
+                    if (entryResult != null) {
+                        result.deduplicatedEntries++;
+                        deduplicatedEntries.incrementAndGet();
+                    } else {
+                        entryResult = validateEntry(validationEngine, requestPolicy, gson.toJson(resource).getBytes(), options, result);
+                        if (key != null) validatedEntries.put(key, entryResult);
+                    }
+                    if (entryResult.failed()) {
+                        failedEntries++;
+                        result.hasErrors = true;
+                    }
+                    if (options.isCompact()) {
+                        result.entries.add(new FhirCompactResponse.Entry(fullUrl, !entryResult.failed(), entryResult.limitReached(), entryResult.compactIssues()));
+                        continue;
+                    }
+                    ooR5 = entryResult.outcome();
+                }
 
-            var responseEntry = responseBundle.addEntry();
-            if (entry.has("fullUrl")) {
-                responseEntry.setFullUrl(entry.get("fullUrl").getAsString());
+                if (configuration.getRemoveText() != null && configuration.getRemoveText()) {
+                    ooR5.setText(null);
+                }
+
+                var responseEntry = responseBundle.addEntry();
+                if (fullUrl != null) {
+                    responseEntry.setFullUrl(fullUrl);
+                }
+                responseEntry.setResponse(new org.hl7.fhir.r5.model.Bundle.BundleEntryResponseComponent());
+                responseEntry.getResponse().setOutcome(ooR5);
             }
-            responseEntry.setResponse(new org.hl7.fhir.r5.model.Bundle.BundleEntryResponseComponent());
-            responseEntry.getResponse().setOutcome(ooR5);
+            deadline.checkpoint();
+        } finally {
+            validationEngine.setPolicyAdvisor(requestPolicy.getPolicyAdvisor());
+            FhirValidationEngineCache.returnValidationEngine(validationEngine);
         }
 
-        var result = new FhirValidationResult();
-        result.resourceBytes = fhirJsonParser.composeBytes(responseBundle);
+        if (!options.isCompact()) {
+            result.resourceBytes = fhirJsonParser.composeBytes(responseBundle);
+        }
         return result;
     }
 
     public static FhirValidationResult validateBytes(byte[] resourceBytes, List<String> profileList, FhirValidatorConfiguration configuration) throws Throwable {
+        return validateBytes(resourceBytes, profileList, configuration, FhirValidationDeadline.none());
+    }
+
+    public static FhirValidationResult validateBytes(byte[] resourceBytes, List<String> profileList, FhirValidatorConfiguration configuration,
+                                                     FhirValidationDeadline deadline) throws Throwable {
+        return validateBytes(resourceBytes, profileList, configuration, FhirValidationOptions.defaults(), deadline);
+    }
+
+    public static FhirValidationResult validateBytes(byte[] resourceBytes, List<String> profileList, FhirValidatorConfiguration configuration,
+                                                     FhirValidationOptions options, FhirValidationDeadline deadline) throws Throwable {
         long start = System.currentTimeMillis();
 
         // Sanitizing the list of profiles
@@ -95,22 +188,39 @@ public class FhirValidator {
             }
         }
 
-        var validationEngine = FhirValidationEngineCache.getValidationEngine();
         var validationResult = new FhirValidationResult();
         var fhirJsonParser = createFhirJsonParser();
+        ValidationEngine validationEngine = null;
+        FhirRequestPolicyAdvisor requestPolicy = null;
         try {
-            var messages = new ArrayList<ValidationMessage>();
-            var operationOutcome = validationEngine.validate(resourceBytes, Manager.FhirFormat.JSON, internalProfileList, messages);
+            validationEngine = FhirValidationEngineCache.borrowValidationEngine();
+            requestPolicy = installRequestPolicy(validationEngine, options, deadline);
+            var messages = FhirIssueLimit.of(options);
+            var operationOutcome = validateResource(validationEngine, requestPolicy, resourceBytes, internalProfileList, options, messages, validationResult);
+            // The validator may swallow the exception thrown at a safe point, so check again
+            deadline.checkpoint();
             if (configuration.getRemoveText() != null && configuration.getRemoveText()) {
                 operationOutcome.setText(null);
             }
 
-            validationResult.messages = messages;
-            validationResult.resourceBytes = fhirJsonParser.composeBytes(operationOutcome);
+            validationResult.hasErrors = FhirUtil.operationOutcomeHasErrorIssue(operationOutcome);
+            validationResult.messages = FhirIssueFilter.filterMessages(messages.hasLimit() ? messages.getLimitedMessages() : messages, options);
+            // Only the requested format is built
+            if (options.isComposeOutcome()) {
+                FhirIssueFilter.filterOutcome(operationOutcome, options);
+                validationResult.resourceBytes = fhirJsonParser.composeBytes(operationOutcome);
+            }
             long finish = System.currentTimeMillis();
             long timeElapsed = finish - start;
-            log.info("FhirValidator::validateBytes - OK ({} bytes for {} ms)", resourceBytes.length, timeElapsed);
+            log.info("FhirValidator::validateBytes - OK ({} bytes for {} ms, mode {})", resourceBytes.length, timeElapsed, options.getMode().tag());
+        } catch (FhirValidationCancelledException e) {
+            log.warn("FhirValidator::validateBytes - cancelled after {} ms: {}", System.currentTimeMillis() - start, e.getMessage());
+            throw e;
         } catch (Throwable e) {
+            if (deadline.isCancelled()) {
+                // Anything thrown by a validation that was cancelled half way is a consequence of the cancellation
+                throw new FhirValidationCancelledException(deadline.getCancelReason());
+            }
             var stackTrace = ExceptionUtils.getStackTrace(e);
 
             log.error("FhirValidator::validateBytes - fatal error occurred: {}", String.valueOf(e));
@@ -123,11 +233,133 @@ public class FhirValidator {
             message.setLevel(ValidationMessage.IssueSeverity.FATAL);
             message.setLocation(stackTrace);
             validationResult.resourceBytes = fhirJsonParser.composeBytes(operationOutcome2);
-            validationResult.messages.add(message);
+            validationResult.messages = new ArrayList<>(List.of(message));
+            validationResult.hasErrors = true;
+            validationResult.reusable = false;
+        } finally {
+            if (validationEngine != null && requestPolicy != null) {
+                validationEngine.setPolicyAdvisor(requestPolicy.getPolicyAdvisor());
+            }
+            FhirValidationEngineCache.returnValidationEngine(validationEngine);
         }
         return validationResult;
     }
 
+    private record EntryResult(org.hl7.fhir.r5.model.OperationOutcome outcome, List<FhirCompactResponse.Issue> compactIssues,
+                               boolean failed, boolean limitReached) {
+    }
+
+    /**
+     * Validates the resource of one bundle entry and applies the issue filters of the request to its outcome.
+     */
+    private static EntryResult validateEntry(ValidationEngine validationEngine, FhirRequestPolicyAdvisor requestPolicy,
+                                             byte[] resourceBytes, FhirValidationOptions options, FhirValidationResult result)
+            throws IOException {
+        var messages = FhirIssueLimit.of(options);
+        org.hl7.fhir.r5.model.OperationOutcome ooR5;
+        List<FhirCompactResponse.Issue> compactIssues;
+        try {
+            ooR5 = validateResource(validationEngine, requestPolicy, resourceBytes, new ArrayList<>(), options, messages, result);
+            compactIssues = options.isCompact()
+                    ? FhirCompactResponse.toIssues(FhirIssueFilter.filterMessages(messages.hasLimit() ? messages.getLimitedMessages() : messages, options), options.getFields())
+                    : null;
+        }
+        catch (org.hl7.fhir.r5.utils.EOperationOutcome e) {
+            ooR5 = e.getOutcome();
+            compactIssues = null;
+            if (options.isCompact()) {
+                var issues = new ArrayList<>(ooR5.getIssue());
+                FhirIssueFilter.filterIssues(issues, options);
+                compactIssues = issues.stream().map(issue -> FhirCompactResponse.Issue.of(issue, options.getFields())).toList();
+            }
+        }
+        boolean failed = FhirUtil.operationOutcomeHasErrorIssue(ooR5);
+        if (!options.isCompact()) {
+            FhirIssueFilter.filterOutcome(ooR5, options);
+        }
+        return new EntryResult(ooR5, compactIssues, failed, messages.isLimitReached());
+    }
+
+    /**
+     * Wraps the engine's policy advisor so that the validation runs in the requested mode and stops at the next
+     * safe point once the deadline is cancelled. The wrapped advisor (getPolicyAdvisor()) must be put back before
+     * the engine goes back to the pool.
+     */
+    private static FhirRequestPolicyAdvisor installRequestPolicy(ValidationEngine validationEngine, FhirValidationOptions options,
+                                                                 FhirValidationDeadline deadline) {
+        var requestPolicy = new FhirRequestPolicyAdvisor(validationEngine.getPolicyAdvisor(), deadline, options.getMode());
+        validationEngine.setPolicyAdvisor(requestPolicy);
+        return requestPolicy;
+    }
+
+    /**
+     * Validates one resource. When the issue limit stops the validation, or the finished validation has more
+     * issues than allowed, the outcome is built from the messages within the limit and marked as incomplete.
+     * <p>
+     * With the result cache enabled, the messages of a complete validation are cached under the resource, the
+     * profiles and the options that change them; a cached resource gets its outcome built from those messages.
+     */
+    private static org.hl7.fhir.r5.model.OperationOutcome validateResource(ValidationEngine validationEngine,
+                                                                           FhirRequestPolicyAdvisor requestPolicy,
+                                                                           byte[] resourceBytes, List<String> profiles,
+                                                                           FhirValidationOptions options,
+                                                                           FhirIssueLimit messages, FhirValidationResult result)
+            throws IOException, org.hl7.fhir.r5.utils.EOperationOutcome {
+        String cacheKey = null;
+        if (FhirResultCache.isEnabled()) {
+            cacheKey = FhirResultCache.key(FhirResultCache.VALIDATION, resourceBytes, String.join("|", profiles),
+                    options.getMode().tag(), String.valueOf(options.isStopOnFirstError()), String.valueOf(options.getMaxIssues()));
+            var cached = FhirResultCache.get(cacheKey);
+            var cachedMessages = cached == null ? null : FhirMessageCodec.decode(cached);
+            if (cachedMessages != null) {
+                messages.addAll(cachedMessages);
+                result.reusable = true;
+                return OutcomeBuilder.build(messages, validationEngine);
+            }
+        }
+
+        requestPolicy.setIssueLimit(messages);
+        try {
+            var operationOutcome = validationEngine.validate(resourceBytes, Manager.FhirFormat.JSON, profiles, messages);
+            if (!messages.isLimitReached()) {
+                result.reusable = isReusable(messages);
+                if (cacheKey != null && result.reusable) {
+                    FhirResultCache.put(cacheKey, FhirMessageCodec.encode(messages));
+                }
+                return operationOutcome;
+            }
+        } catch (FhirIssueLimit.FhirIssueLimitReachedException e) {
+            // Stopped at a safe point, the outcome is built below
+        } finally {
+            requestPolicy.setIssueLimit(null);
+        }
+
+        result.truncated = true;
+        var limited = messages.getLimitedMessages();
+        var operationOutcome = FhirUtil.messagesToOutcome(limited, validationEngine.getContext());
+        var reason = "Validation stopped early after " + limited.size() + " issues, further issues are not reported";
+        FhirUtil.addIncompleteIssue(operationOutcome, reason);
+        return operationOutcome;
+    }
+
+    /**
+     * Builds the OperationOutcome the way ValidationEngine.validate() does, where messagesToOutcome is protected.
+     */
+    private static class OutcomeBuilder extends ValidatorUtils {
+        static org.hl7.fhir.r5.model.OperationOutcome build(List<ValidationMessage> messages, ValidationEngine validationEngine)
+                throws IOException, org.hl7.fhir.r5.utils.EOperationOutcome {
+            return messagesToOutcome(messages, validationEngine.getContext(), validationEngine.getFhirPathEngine());
+        }
+    }
+
+    // Exceptions, such as an unreachable tx-server, may not happen again
+    private static boolean isReusable(List<ValidationMessage> messages) {
+        for (var message : messages) {
+            if (message.getType() == ValidationMessage.IssueType.EXCEPTION) return false;
+        }
+        return true;
+    }
+
     private static Boolean isFhirVersionSupported(FhirValidatorConfiguration configuration) {
         return configuration.isR4Ver() || configuration.isR5Ver();
     }
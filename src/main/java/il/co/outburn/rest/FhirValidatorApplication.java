@@ -2,6 +2,9 @@ package il.co.outburn.rest;
 import java.io.FileNotFoundException;
 import java.nio.file.Files;
 import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
 
 import org.hl7.fhir.r5.utils.validation.constants.BestPracticeWarningLevel;
 import org.hl7.fhir.r5.utils.validation.constants.ReferenceValidationPolicy;
@@ -53,6 +56,10 @@ public class FhirValidatorApplication {
             printVersions();
             System.exit(0);
         }
+
+        if (args[0].equals(FhirBatchValidator.COMMAND)) {
+            System.exit(FhirBatchValidator.run(Arrays.copyOfRange(args, 1, args.length)));
+        }
     }
 
     private static void printVersions() {
@@ -65,14 +72,72 @@ public class FhirValidatorApplication {
 
     private void initializeDefaultValidationEngine() throws Throwable {
         log.info("Start initializing default ValidationEngine");
+        var profiler = new FhirStartupProfiler(Boolean.TRUE.equals(configuration.getStartupMemoryAccounting()));
         try {
+            var stage = profiler.start("FHIR settings");
             configureFhirSettings(); // must be called before creating the ValidationEngine
+            stage.finish();
+            FhirCacheBudget.setMaxBytes(configuration.getCacheBudgetBytes());
+
             var loggingService = new FhirLoggingService();
-            var validationEngine = createValidationEngine(configuration.getSv(), loggingService);
-            loadIgs(validationEngine);
+            var validationEngine = createValidationEngine(configuration.getSv(), loggingService, profiler);
+            loadIgs(validationEngine, profiler);
+
+            FhirSnapshotCache snapshotCache = null;
+            if (Boolean.TRUE.equals(configuration.getSnapshotCache())) {
+                stage = profiler.start("snapshot cache");
+                snapshotCache = new FhirSnapshotCache(Paths.get(configuration.getSnapshotCachePath()));
+                snapshotCache.restore(validationEngine.getContext());
+                stage.finish();
+            }
+
+            stage = profiler.start("prepare");
             validationEngine.prepare();
+            stage.finish();
+            if (snapshotCache != null) {
+                snapshotCache.save();
+            }
+
+            FhirPathExpressionCache.setMaxEntries(configuration.getFhirpathCacheSize() == null ? 0 : configuration.getFhirpathCacheSize());
+            // Clones share the default engine's FHIRPathEngine
+            validationEngine.setFhirPathEngine(new FhirPathExpressionCache.CachingFHIRPathEngine(validationEngine.getContext()));
+            if (Boolean.TRUE.equals(configuration.getFhirpathPrefill())) {
+                stage = profiler.start("FHIRPath prefill");
+                FhirPathExpressionCache.prefill(validationEngine.getContext(), validationEngine.getFhirPathEngine());
+                stage.finish();
+            }
+            if (Boolean.TRUE.equals(configuration.getValuesetPrecompute())) {
+                stage = profiler.start("ValueSet expansions");
+                FhirValueSetIndex.apply(validationEngine.getContext(), configuration);
+                stage.finish();
+            }
+            if (Boolean.TRUE.equals(configuration.getResultCache())) {
+                // Clones share the default engine's terminology cache
+                FhirTerminologyCache.install(validationEngine.getContext());
+            }
             log.info("Default ValidationEngine is initialized.");
             FhirValidationEngineCache.setDefaultValidationEngine(validationEngine);
+            FhirValidationEngineCache.setMaxEngines(configuration.getMaxEngines());
+
+            // Clone the first engine now, so its cost shows up here and not in the first request
+            stage = profiler.start(FhirStartupProfiler.FIRST_CLONE_STAGE);
+            FhirValidationEngineCache.returnValidationEngine(FhirValidationEngineCache.borrowValidationEngine());
+            stage.finish();
+            if (Boolean.TRUE.equals(configuration.getAutoSizing())) {
+                FhirAutoSizing.apply(configuration, profiler);
+            }
+            // After auto-sizing, which may have changed the cache budget
+            FhirResultCache.configure(configuration);
+            var report = profiler.getReport();
+            var recyclingPolicy = FhirEngineRecyclingPolicy.fromConfiguration(configuration,
+                    report.defaultEngineBytes(), report.cloneBytes(), validationEngine.getContext().countAllCaches());
+            FhirValidationEngineCache.setRecyclingPolicy(recyclingPolicy);
+            if (recyclingPolicy.isEnabled()) {
+                log.info("Engine recycling: after {} validations, {} minutes or {} MB estimated size (0 = no limit)",
+                        configuration.getEngineMaxValidations(), configuration.getEngineMaxAgeMinutes(),
+                        configuration.getEngineMaxRetainedMb());
+            }
+            profiler.logSummary();
         } catch (Exception ex) {
             log.error("Failed to initialize default ValidationEngine", ex);
             throw ex;
@@ -98,7 +163,7 @@ public class FhirValidatorApplication {
         log.info("FHIR Settings servers: {}", servers);
     }
 
-    private ValidationEngine createValidationEngine(String fhirVersion, FhirLoggingService loggingService) throws Exception {
+    private ValidationEngine createValidationEngine(String fhirVersion, FhirLoggingService loggingService, FhirStartupProfiler profiler) throws Exception {
         String corePackage = VersionUtilities.packageForVersion(fhirVersion) + "#" + VersionUtilities.getCurrentVersion(fhirVersion);
         boolean canRunWithoutTerminologyServer = (configuration.getTxServer() == null);
 
@@ -120,7 +185,9 @@ public class FhirValidatorApplication {
         log.info("Core package: {}", corePackage);
         configuration.getAllProperties().forEach(log::info);
 
+        var stage = profiler.start("core package " + corePackage);
         ValidationEngine validationEngine = builder.fromSource(corePackage);
+        stage.finish(validationEngine.getContext().getLoadedPackages(), validationEngine.getContext().countAllCaches());
         validationEngine.setDebug(true);
         validationEngine.setPolicyAdvisor(new BasePolicyAdvisorForFullValidation(ReferenceValidationPolicy.IGNORE, null));
 
@@ -155,12 +222,22 @@ public class FhirValidatorApplication {
         return BestPracticeWarningLevel.Warning;
     }
 
-    public void loadIgs(ValidationEngine validationEngine) throws Exception {
+    public void loadIgs(ValidationEngine validationEngine, FhirStartupProfiler profiler) throws Exception {
         if (configuration.ig == null) return;
         IgLoader igLoader = validationEngine.getIgLoader();
+        var context = validationEngine.getContext();
         for (String ig : configuration.ig) {
             if (!Utilities.noString(ig)) {
+                var packagesBefore = new HashSet<>(context.getLoadedPackages());
+                int resourcesBefore = context.countAllCaches();
+                var stage = profiler.start("IG " + ig);
                 igLoader.loadIg(validationEngine.getIgs(), validationEngine.getBinaries(), ig, true);
+                // The resolved version of the IG and of every dependency it pulled in
+                var loaded = new ArrayList<String>();
+                for (var loadedPackage : context.getLoadedPackages()) {
+                    if (!packagesBefore.contains(loadedPackage)) loaded.add(loadedPackage);
+                }
+                stage.finish(loaded, context.countAllCaches() - resourcesBefore);
             }
         }
     }
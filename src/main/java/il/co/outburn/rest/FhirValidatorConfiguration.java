@@ -1,5 +1,6 @@
 package il.co.outburn.rest;
 
+import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -163,6 +164,402 @@ public class FhirValidatorConfiguration {
     @Setter
     String bestPracticeLevel = "warning";
 
+    /**
+     * Runs a full GC around every startup stage so the startup profile can report the heap each stage retains.
+     * Off by default, as it slows startup down.
+     */
+    @Getter
+    @Setter
+    Boolean startupMemoryAccounting = false;
+
+    /**
+     * When set, max-engines, the Tomcat worker threads and the cache budget are derived at startup from the
+     * container CPU and memory limits and the measured engine sizes, overriding the configured values.
+     */
+    @Getter
+    @Setter
+    Boolean autoSizing = false;
+
+    /**
+     * Maximum number of parsed FHIRPath expressions kept in the shared expression cache. 0 disables the cache.
+     */
+    @Getter
+    @Setter
+    Integer fhirpathCacheSize = 10000;
+
+    /**
+     * When set, the invariants of all StructureDefinitions in the loaded packages are parsed at startup,
+     * so that the first validations against a profile don't pay the parse cost.
+     */
+    @Getter
+    @Setter
+    Boolean fhirpathPrefill = false;
+
+    /**
+     * When set, the ValueSets bound in the loaded profiles are expanded at startup and the expansions are
+     * shared by all engines, so codes are checked without expanding the ValueSet again or calling the tx-server.
+     */
+    @Getter
+    @Setter
+    Boolean valuesetPrecompute = false;
+
+    /**
+     * File the pre-expanded ValueSets are stored in and read from on the next start. It is rebuilt when the
+     * packages change. This is an optional field; without it the ValueSets are expanded on every start.
+     */
+    @Setter
+    String valuesetIndexPath;
+    public String getValuesetIndexPath() {
+        if (valuesetIndexPath == null || valuesetIndexPath.isBlank())
+            return null;
+        return valuesetIndexPath;
+    }
+
+    /**
+     * ValueSets with more codes than this are not pre-expanded.
+     */
+    @Setter
+    Integer valuesetMaxCodes = 10000;
+    public int getValuesetMaxCodes() {
+        if (valuesetMaxCodes == null || valuesetMaxCodes <= 0)
+            return 10000;
+        return valuesetMaxCodes;
+    }
+
+    /**
+     * With a tx-server, the ValueSet index is rebuilt once it is older than this many hours, so expansions of
+     * server-side code systems such as SNOMED CT or LOINC follow their releases. 0 means no limit.
+     */
+    @Setter
+    Integer valuesetIndexMaxAgeHours = 24;
+    public int getValuesetIndexMaxAgeHours() {
+        if (valuesetIndexMaxAgeHours == null || valuesetIndexMaxAgeHours < 0)
+            return 0;
+        return valuesetIndexMaxAgeHours;
+    }
+
+    /**
+     * When set, bundle entries whose resources are identical (same JSON content, member order aside) are
+     * validated once and all of them get that outcome.
+     */
+    @Getter
+    @Setter
+    Boolean bundleDeduplication = true;
+
+    /**
+     * Maximum number of ETags of /validate responses remembered with their outcome, so a request with a matching
+     * If-None-Match is answered with 304 without validating again. 0 disables ETags.
+     */
+    @Setter
+    Integer etagCacheSize = 10000;
+    public int getEtagCacheSize() {
+        if (etagCacheSize == null || etagCacheSize < 0)
+            return 0;
+        return etagCacheSize;
+    }
+
+    /**
+     * When set, validation results and terminology answers are cached, in this instance and in the optional
+     * result-cache-store shared with other replicas.
+     */
+    @Getter
+    @Setter
+    Boolean resultCache = false;
+
+    /**
+     * Maximum number of results kept in the local tier of the result cache. 0 keeps none locally.
+     */
+    @Setter
+    Integer resultCacheSize = 10000;
+    public int getResultCacheSize() {
+        if (resultCacheSize == null || resultCacheSize < 0)
+            return 0;
+        return resultCacheSize;
+    }
+
+    /**
+     * Second tier of the result cache: 'file', 'http', or the name of a class implementing FhirResultStore.
+     * This is an optional field; without it only the local tier is used.
+     */
+    @Setter
+    String resultCacheStore;
+    public String getResultCacheStore() {
+        if (resultCacheStore == null || resultCacheStore.isBlank())
+            return null;
+        return resultCacheStore;
+    }
+
+    /**
+     * File of the 'file' result store, on a volume shared by the replicas.
+     */
+    @Setter
+    String resultCachePath;
+    public String getResultCachePath() {
+        if (resultCachePath == null || resultCachePath.isBlank())
+            return null;
+        return resultCachePath;
+    }
+
+    /**
+     * Maximum size of the 'file' result store in megabytes, at most 2047. Once reached, no more results are added.
+     */
+    @Setter
+    Integer resultCacheMaxMb = 1024;
+    public int getResultCacheMaxMb() {
+        if (resultCacheMaxMb == null || resultCacheMaxMb <= 0)
+            return 1024;
+        return Math.min(resultCacheMaxMb, 2047);
+    }
+
+    /**
+     * Base URL of the instance the 'http' result store uses, for example http://yafva-cache:8080.
+     */
+    @Setter
+    String resultCacheUrl;
+    public String getResultCacheUrl() {
+        if (resultCacheUrl == null || resultCacheUrl.isBlank())
+            return null;
+        return resultCacheUrl;
+    }
+
+    /**
+     * When set, this instance serves its result cache at /cache, so other replicas can use it as their 'http'
+     * result store.
+     */
+    @Getter
+    @Setter
+    Boolean resultCacheServe = false;
+
+    /**
+     * Shared secret of the replicas that use the served result cache, sent as a bearer token. When set, /cache
+     * only answers requests that carry it; without it, /cache is read-only.
+     */
+    @Setter
+    String resultCacheSecret;
+    public String getResultCacheSecret() {
+        if (resultCacheSecret == null || resultCacheSecret.isBlank())
+            return null;
+        return resultCacheSecret;
+    }
+
+    /**
+     * When set, the snapshots generated at startup for profiles published without one are stored on disk and
+     * reused on the next start with the same packages.
+     */
+    @Getter
+    @Setter
+    Boolean snapshotCache = false;
+
+    /**
+     * Folder of the snapshot cache. Defaults to yafva-snapshots next to the FHIR package cache (~/.fhir).
+     */
+    @Setter
+    String snapshotCachePath;
+    public String getSnapshotCachePath() {
+        if (snapshotCachePath == null || snapshotCachePath.isBlank())
+            return Paths.get(System.getProperty("user.home"), ".fhir", "yafva-snapshots").toString();
+        return snapshotCachePath;
+    }
+
+    /**
+     * Heap in megabytes the application caches may use together. 0 means 10% of the maximum heap.
+     */
+    @Setter
+    Long cacheBudgetMb = 0L;
+    public long getCacheBudgetBytes() {
+        if (cacheBudgetMb == null || cacheBudgetMb <= 0)
+            return (long) (Runtime.getRuntime().maxMemory() * 0.10);
+        return cacheBudgetMb * 1024 * 1024;
+    }
+
+    /**
+     * Maximum number of ValidationEngine instances (clones of the default engine), which is also
+     * the maximum number of validations running at the same time. 0 means one engine per available processor.
+     */
+    @Setter
+    Integer maxEngines = 0;
+    public int getMaxEngines() {
+        if (maxEngines == null || maxEngines <= 0)
+            return Runtime.getRuntime().availableProcessors();
+        return maxEngines;
+    }
+
+    /**
+     * When set, the number of validations running at the same time is adjusted at runtime based on the measured
+     * validation latency, and max-engines is only the starting point.
+     */
+    @Getter
+    @Setter
+    Boolean adaptiveConcurrency = false;
+
+    /**
+     * Lower bound of the adaptive concurrency limit.
+     */
+    @Setter
+    Integer minEngines = 1;
+    public int getMinEngines() {
+        if (minEngines == null || minEngines <= 0)
+            return 1;
+        return minEngines;
+    }
+
+    /**
+     * Upper bound of the adaptive concurrency limit, and therefore of the number of engine clones.
+     * 0 means four engines per available processor.
+     */
+    @Setter
+    Integer adaptiveMaxEngines = 0;
+    public int getAdaptiveMaxEngines() {
+        if (adaptiveMaxEngines == null || adaptiveMaxEngines <= 0)
+            return 4 * Runtime.getRuntime().availableProcessors();
+        return adaptiveMaxEngines;
+    }
+
+    /**
+     * Retire an engine clone after this many validations and replace it with a fresh clone in the background.
+     * 0 disables the limit.
+     */
+    @Setter
+    Long engineMaxValidations = 0L;
+    public long getEngineMaxValidations() {
+        return engineMaxValidations == null ? 0 : engineMaxValidations;
+    }
+
+    /**
+     * Retire an engine clone this many minutes after it was created. 0 disables the limit.
+     */
+    @Setter
+    Long engineMaxAgeMinutes = 0L;
+    public long getEngineMaxAgeMinutes() {
+        return engineMaxAgeMinutes == null ? 0 : engineMaxAgeMinutes;
+    }
+
+    /**
+     * Retire an engine clone once its estimated retained heap, in megabytes, passes this size. 0 disables the limit.
+     */
+    @Setter
+    Long engineMaxRetainedMb = 0L;
+    public long getEngineMaxRetainedMb() {
+        return engineMaxRetainedMb == null ? 0 : engineMaxRetainedMb;
+    }
+
+    /**
+     * Number of platform threads running validations when requests are handled on virtual threads
+     * (spring.threads.virtual.enabled). 0 means one thread per engine that may exist.
+     */
+    @Setter
+    Integer validationThreads = 0;
+    public int getValidationThreads() {
+        if (validationThreads == null || validationThreads <= 0)
+            return Boolean.TRUE.equals(adaptiveConcurrency) ? getAdaptiveMaxEngines() : getMaxEngines();
+        return validationThreads;
+    }
+
+    /**
+     * Number of requests allowed to wait for a free engine, per engine. Requests arriving when
+     * the wait queue is full are rejected immediately with 503 and a Retry-After header.
+     */
+    @Getter
+    @Setter
+    Integer queueSizePerEngine = 2;
+
+    /**
+     * Maximum time in milliseconds a request may wait for a free engine before it is rejected.
+     */
+    @Getter
+    @Setter
+    Long queueTimeout = 30000L;
+
+    /**
+     * Default deadline in milliseconds for a validation request, counted from the moment the request is read.
+     * A shorter deadline may be requested with the X-Validation-Timeout header. 0 means no deadline.
+     */
+    @Getter
+    @Setter
+    Long requestTimeout = 0L;
+
+    /**
+     * Share of the engines reserved for small single-resource requests on /validate, relative to the other lane shares.
+     */
+    @Getter
+    @Setter
+    Integer interactiveLaneShare = 50;
+
+    /**
+     * Share of the engines reserved for bundles and large resources, relative to the other lane shares.
+     */
+    @Getter
+    @Setter
+    Integer bundleLaneShare = 30;
+
+    /**
+     * Share of the engines reserved for bulk and asynchronous work, relative to the other lane shares.
+     */
+    @Getter
+    @Setter
+    Integer bulkLaneShare = 20;
+
+    /**
+     * When set, a busy lane may use engines reserved for another lane while that lane has nothing waiting.
+     */
+    @Getter
+    @Setter
+    Boolean laneBorrowing = true;
+
+    /**
+     * Requests to /validate with a body larger than this number of bytes run in the bundle lane
+     * instead of the interactive lane.
+     */
+    @Getter
+    @Setter
+    Long interactiveMaxBytes = 262144L;
+
+    /**
+     * Largest accepted request body in megabytes. Larger requests are rejected with 413 before they are read.
+     * 0 means no limit other than the 2 GB a body can have.
+     */
+    @Setter
+    Long maxRequestBodyMb = 256L;
+    public long getMaxRequestBodyBytes() {
+        return (maxRequestBodyMb == null || maxRequestBodyMb <= 0) ? 0 : maxRequestBodyMb * 1024 * 1024;
+    }
+
+    /**
+     * Request bodies up to this many megabytes are kept on the heap. Larger bundles are written to a temp file
+     * and parsed from it; /validate always reads the body into one array, as the validator takes a byte array.
+     */
+    @Setter
+    Long requestBodyMemoryMb = 8L;
+    public long getRequestBodyMemoryBytes() {
+        return (requestBodyMemoryMb == null || requestBodyMemoryMb < 0) ? 0 : requestBodyMemoryMb * 1024 * 1024;
+    }
+
+    /**
+     * Port of the gRPC front end (Validate and ValidateStream). 0 disables it.
+     */
+    @Getter
+    @Setter
+    Integer grpcPort = 0;
+
+    /**
+     * Number of resources a single ValidateStream call may have in validation at once. Further requests are
+     * not read from the stream until a result is sent, so a fast producer is held back by gRPC flow control.
+     */
+    @Setter
+    Integer grpcStreamWindow = 4;
+    public int getGrpcStreamWindow() {
+        return (grpcStreamWindow == null || grpcStreamWindow < 1) ? 1 : grpcStreamWindow;
+    }
+
+    public int getLaneShare(FhirValidationLane lane) {
+        Integer share = switch (lane) {
+            case INTERACTIVE -> interactiveLaneShare;
+            case BUNDLE -> bundleLaneShare;
+            case BULK -> bulkLaneShare;
+        };
+        return (share == null || share < 0) ? 0 : share;
+    }
+
     /**
      * Returns the core package for the specified FHIR version.
      */
@@ -195,7 +592,33 @@ public class FhirValidatorConfiguration {
             "Validation Level: " + level,
             "Best Practice Level: " + bestPracticeLevel,
             "Verbose Output: " + verbose,
-            "Show Processing Times: " + showTimes
+            "Show Processing Times: " + showTimes,
+            "Startup Memory Accounting: " + startupMemoryAccounting,
+            "Auto Sizing: " + autoSizing,
+            "FHIRPath Cache Size: " + fhirpathCacheSize,
+            "FHIRPath Prefill: " + fhirpathPrefill,
+            "Bundle Deduplication: " + bundleDeduplication,
+            "ETag Cache Size: " + getEtagCacheSize(),
+            "Result Cache: " + resultCache + " (" + getResultCacheSize() + " local entries, store " + getResultCacheStore() + ", serve " + resultCacheServe + ", secret " + (getResultCacheSecret() != null ? "set" : "not set") + ")",
+            "Snapshot Cache: " + snapshotCache + " (" + getSnapshotCachePath() + ")",
+            "ValueSet Precompute: " + valuesetPrecompute + " (index " + getValuesetIndexPath() + ", max age " + getValuesetIndexMaxAgeHours() + " h, max " + getValuesetMaxCodes() + " codes)",
+            "Cache Budget (MB): " + getCacheBudgetBytes() / (1024 * 1024),
+            "Max Engines: " + getMaxEngines(),
+            "Adaptive Concurrency: " + adaptiveConcurrency + " (" + getMinEngines() + "-" + getAdaptiveMaxEngines() + " engines)",
+            "Engine Max Validations: " + getEngineMaxValidations(),
+            "Engine Max Age (minutes): " + getEngineMaxAgeMinutes(),
+            "Engine Max Retained (MB): " + getEngineMaxRetainedMb(),
+            "Validation Threads: " + getValidationThreads(),
+            "Queue Size Per Engine: " + queueSizePerEngine,
+            "Queue Timeout (ms): " + queueTimeout,
+            "Request Timeout (ms): " + requestTimeout,
+            "Lane Shares (interactive/bundle/bulk): " + interactiveLaneShare + "/" + bundleLaneShare + "/" + bulkLaneShare,
+            "Lane Borrowing: " + laneBorrowing,
+            "Interactive Lane Max Body Size: " + interactiveMaxBytes,
+            "Max Request Body (MB): " + maxRequestBodyMb,
+            "Request Body In Memory (MB): " + requestBodyMemoryMb,
+            "gRPC Port: " + grpcPort,
+            "gRPC Stream Window: " + getGrpcStreamWindow()
         );
     }
 }
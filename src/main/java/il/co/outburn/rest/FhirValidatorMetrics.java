@@ -0,0 +1,19 @@
+package il.co.outburn.rest;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.springframework.stereotype.Component;
+
+/**
+ * Meters of the validations themselves, counted by FhirValidator for every front end and read when scraped.
+ */
+@Component
+public class FhirValidatorMetrics implements MeterBinder {
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        FunctionCounter.builder("yafva.bundle.deduplicated", this, m -> FhirValidator.getDeduplicatedEntries())
+                .description("Bundle entries that got the outcome of an identical entry instead of being validated")
+                .register(registry);
+    }
+}
@@ -2,12 +2,14 @@ package il.co.outburn.rest;
 
 import lombok.Getter;
 import lombok.Setter;
-import org.hl7.fhir.utilities.validation.ValidationMessage;
 
 import java.util.List;
 
 public class FhirValidatorResponse {
+    /**
+     * Full ValidationMessage objects, or maps with only the requested fields when the request projects them.
+     */
     @Getter
     @Setter
-    List<ValidationMessage> messages;
+    List<?> messages;
 }
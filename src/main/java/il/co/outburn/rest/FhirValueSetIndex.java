@@ -0,0 +1,289 @@
+package il.co.outburn.rest;
+
+import lombok.extern.slf4j.Slf4j;
+import org.hl7.fhir.r5.context.IWorkerContext;
+import org.hl7.fhir.r5.context.SimpleWorkerContext;
+import org.hl7.fhir.r5.model.StructureDefinition;
+import org.hl7.fhir.r5.model.ValueSet;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Pre-expanded ValueSets of the bindings in the loaded profiles (validator.valueset-precompute).
+ * <p>
+ * At startup every ValueSet bound by an element of a StructureDefinition snapshot is expanded once, locally or
+ * through the tx-server, and the expansion is attached to the ValueSet in the default engine's context. ValueSets
+ * are shared between the default engine and its clones, so all engines check codes against the same read-only
+ * expansion instead of evaluating the compose or asking the tx-server again. Only complete expansions of up to
+ * valueset-max-codes codes are kept; ValueSets that already have an expansion are left alone.
+ * <p>
+ * With valueset-index-path set, the expansions are stored in a compact gzipped file and read from it on the next
+ * start, as long as the FHIR version, the loaded packages, the tx-server and the size limit are unchanged. With a
+ * tx-server, the index is also rebuilt once it is older than valueset-index-max-age-hours, as the server's code
+ * systems change without the packages changing.
+ */
+@Slf4j
+public class FhirValueSetIndex {
+    private static final String MAGIC = "yafva-valueset-index";
+    private static final int FORMAT_VERSION = 1;
+
+    private static final int FLAG_ABSTRACT = 1;
+    private static final int FLAG_INACTIVE = 2;
+
+    /**
+     * One code of an expansion. System and version are interned when the index is read.
+     */
+    record Code(String system, String version, String code, String display, boolean isAbstract, boolean inactive) {
+    }
+
+    private static volatile int attached = 0;
+
+    static {
+        FhirCacheStatistics.register("valueset-expansions", () -> attached);
+    }
+
+    /**
+     * Reads the index from the file, or expands the bound ValueSets and writes it, then attaches the expansions
+     * to the ValueSets of the context.
+     *
+     * @return the number of ValueSets that got an expansion
+     */
+    public static int apply(SimpleWorkerContext context, FhirValidatorConfiguration configuration) {
+        long start = System.currentTimeMillis();
+        int maxCodes = configuration.getValuesetMaxCodes();
+        var fingerprint = fingerprint(context, configuration.getTxServer(), maxCodes);
+        var path = configuration.getValuesetIndexPath() == null ? null : Path.of(configuration.getValuesetIndexPath());
+
+        Map<String, List<Code>> expansions = null;
+        if (path != null && Files.exists(path) && isExpired(path, configuration)) {
+            log.info("FhirValueSetIndex::apply - {} is older than {} hours, rebuilding", path, configuration.getValuesetIndexMaxAgeHours());
+        } else if (path != null && Files.exists(path)) {
+            try {
+                expansions = read(path, fingerprint);
+                if (expansions == null) log.info("FhirValueSetIndex::apply - {} was built for other packages, rebuilding", path);
+            } catch (IOException e) {
+                log.warn("FhirValueSetIndex::apply - could not read {}, rebuilding: {}", path, e.getMessage());
+            }
+        }
+        boolean loaded = expansions != null;
+        if (!loaded) {
+            expansions = expand(context, maxCodes);
+            if (path != null) {
+                try {
+                    write(path, fingerprint, expansions);
+                } catch (IOException e) {
+                    log.warn("FhirValueSetIndex::apply - could not write {}: {}", path, e.getMessage());
+                }
+            }
+        }
+
+        int count = 0;
+        for (var entry : expansions.entrySet()) {
+            var valueSet = context.fetchResource(ValueSet.class, entry.getKey(), IWorkerContext.VersionResolutionRules.defaultRule());
+            if (valueSet == null || valueSet.hasExpansion()) continue;
+            valueSet.setExpansion(toExpansion(entry.getValue()));
+            count++;
+        }
+        attached = count;
+        log.info("FhirValueSetIndex::apply - {} ValueSet expansions {} ({} ms)",
+                count, loaded ? "read from " + path : "computed", System.currentTimeMillis() - start);
+        return count;
+    }
+
+    // Expansions from a tx-server age; local expansions only depend on the packages, which are in the fingerprint
+    static boolean isExpired(Path path, FhirValidatorConfiguration configuration) {
+        int maxAgeHours = configuration.getValuesetIndexMaxAgeHours();
+        if (configuration.getTxServer() == null || maxAgeHours == 0) return false;
+        try {
+            var age = Duration.between(Files.getLastModifiedTime(path).toInstant(), Instant.now());
+            return age.compareTo(Duration.ofHours(maxAgeHours)) > 0;
+        } catch (IOException e) {
+            return true;
+        }
+    }
+
+    // Canonical URLs, with version when the binding has one, of the ValueSets bound in all snapshots
+    private static TreeSet<String> boundValueSets(SimpleWorkerContext context) {
+        var result = new TreeSet<String>();
+        for (var sd : context.fetchResourcesByType(StructureDefinition.class)) {
+            if (!sd.hasSnapshot()) continue;
+            for (var element : sd.getSnapshot().getElement()) {
+                if (!element.hasBinding()) continue;
+                var binding = element.getBinding();
+                if (binding.hasValueSet()) result.add(binding.getValueSet());
+                for (var additional : binding.getAdditional()) {
+                    if (additional.hasValueSet()) result.add(additional.getValueSet());
+                }
+            }
+        }
+        return result;
+    }
+
+    private static Map<String, List<Code>> expand(SimpleWorkerContext context, int maxCodes) {
+        var result = new LinkedHashMap<String, List<Code>>();
+        int skipped = 0;
+        for (var url : boundValueSets(context)) {
+            var valueSet = context.fetchResource(ValueSet.class, url, IWorkerContext.VersionResolutionRules.defaultRule());
+            if (valueSet == null || valueSet.hasExpansion()) continue;
+            try {
+                // One more than the limit, to tell a complete expansion from a truncated one
+                var outcome = context.expandVS(valueSet, true, false, maxCodes + 1);
+                var codes = outcome.isOk() ? flatten(outcome.getValueset()) : null;
+                if (codes == null || codes.size() > maxCodes) {
+                    skipped++;
+                    continue;
+                }
+                result.put(url, codes);
+            } catch (Exception e) {
+                log.debug("FhirValueSetIndex::expand - {} could not be expanded: {}", url, e.getMessage());
+                skipped++;
+            }
+        }
+        log.info("FhirValueSetIndex::expand - {} ValueSets expanded, {} not expandable or larger than {} codes",
+                result.size(), skipped, maxCodes);
+        return result;
+    }
+
+    // Codes of a complete expansion, or null when the expansion is missing or partial
+    private static List<Code> flatten(ValueSet expanded) {
+        if (expanded == null || !expanded.hasExpansion()) return null;
+        var expansion = expanded.getExpansion();
+        var codes = new ArrayList<Code>();
+        addCodes(expansion.getContains(), codes);
+        if (expansion.hasTotal() && expansion.getTotal() != codes.size()) return null;
+        return codes;
+    }
+
+    private static void addCodes(List<ValueSet.ValueSetExpansionContainsComponent> contains, List<Code> codes) {
+        for (var item : contains) {
+            if (item.hasCode()) {
+                codes.add(new Code(item.getSystem(), item.getVersion(), item.getCode(), item.getDisplay(),
+                        item.getAbstract(), item.getInactive()));
+            }
+            addCodes(item.getContains(), codes);
+        }
+    }
+
+    static ValueSet.ValueSetExpansionComponent toExpansion(List<Code> codes) {
+        var expansion = new ValueSet.ValueSetExpansionComponent();
+        expansion.setTimestamp(new Date());
+        expansion.setTotal(codes.size());
+        for (var code : codes) {
+            var item = expansion.addContains().setSystem(code.system()).setCode(code.code());
+            if (code.version() != null) item.setVersion(code.version());
+            if (code.display() != null) item.setDisplay(code.display());
+            if (code.isAbstract()) item.setAbstract(true);
+            if (code.inactive()) item.setInactive(true);
+        }
+        return expansion;
+    }
+
+    static String fingerprint(SimpleWorkerContext context, String txServer, int maxCodes) {
+        var packages = new TreeSet<>(context.getLoadedPackages());
+        return ApplicationProperties.getHapiValidatorVersion() + "|" + context.getVersion() + "|" + packages + "|"
+                + txServer + "|" + maxCodes;
+    }
+
+    /**
+     * Writes the expansions to a temporary file next to the target and moves it in place, so a concurrent
+     * reader never sees a partial index. Systems and versions are written once, codes refer to them by index.
+     */
+    static void write(Path path, String fingerprint, Map<String, List<Code>> expansions) throws IOException {
+        var strings = new HashMap<String, Integer>();
+        var table = new ArrayList<String>();
+        for (var codes : expansions.values()) {
+            for (var code : codes) {
+                for (var value : new String[]{code.system(), code.version()}) {
+                    if (value != null && strings.putIfAbsent(value, table.size()) == null) table.add(value);
+                }
+            }
+        }
+
+        var directory = path.toAbsolutePath().getParent();
+        Files.createDirectories(directory);
+        var temp = Files.createTempFile(directory, path.getFileName().toString(), ".tmp");
+        try {
+            try (var out = new DataOutputStream(new BufferedOutputStream(new GZIPOutputStream(Files.newOutputStream(temp))))) {
+                out.writeUTF(MAGIC);
+                out.writeInt(FORMAT_VERSION);
+                out.writeUTF(fingerprint);
+                out.writeInt(table.size());
+                for (var value : table) out.writeUTF(value);
+                out.writeInt(expansions.size());
+                for (var entry : expansions.entrySet()) {
+                    out.writeUTF(entry.getKey());
+                    out.writeInt(entry.getValue().size());
+                    for (var code : entry.getValue()) {
+                        out.writeInt(code.system() == null ? -1 : strings.get(code.system()));
+                        out.writeInt(code.version() == null ? -1 : strings.get(code.version()));
+                        out.writeUTF(code.code());
+                        writeNullable(out, code.display());
+                        out.writeByte((code.isAbstract() ? FLAG_ABSTRACT : 0) | (code.inactive() ? FLAG_INACTIVE : 0));
+                    }
+                }
+            }
+            Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    /**
+     * Reads the expansions from the file.
+     *
+     * @return the expansions, or null when the file was written for a different fingerprint or format
+     */
+    static Map<String, List<Code>> read(Path path, String fingerprint) throws IOException {
+        try (var in = new DataInputStream(new BufferedInputStream(new GZIPInputStream(Files.newInputStream(path))))) {
+            if (!MAGIC.equals(in.readUTF())) throw new IOException("not a ValueSet index");
+            if (in.readInt() != FORMAT_VERSION || !fingerprint.equals(in.readUTF())) return null;
+            var table = new String[in.readInt()];
+            for (int i = 0; i < table.length; i++) table[i] = in.readUTF();
+            int valueSets = in.readInt();
+            var result = new LinkedHashMap<String, List<Code>>(valueSets * 2);
+            for (int i = 0; i < valueSets; i++) {
+                var url = in.readUTF();
+                int size = in.readInt();
+                var codes = new ArrayList<Code>(size);
+                for (int j = 0; j < size; j++) {
+                    int system = in.readInt();
+                    int version = in.readInt();
+                    var code = in.readUTF();
+                    var display = readNullable(in);
+                    int flags = in.readByte();
+                    codes.add(new Code(system < 0 ? null : table[system], version < 0 ? null : table[version], code, display,
+                            (flags & FLAG_ABSTRACT) != 0, (flags & FLAG_INACTIVE) != 0));
+                }
+                result.put(url, codes);
+            }
+            return result;
+        }
+    }
+
+    private static void writeNullable(DataOutputStream out, String value) throws IOException {
+        out.writeBoolean(value != null);
+        if (value != null) out.writeUTF(value);
+    }
+
+    private static String readNullable(DataInputStream in) throws IOException {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+}
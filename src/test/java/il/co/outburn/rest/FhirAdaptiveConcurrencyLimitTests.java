@@ -0,0 +1,59 @@
+package il.co.outburn.rest;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class FhirAdaptiveConcurrencyLimitTests {
+    private static final long WINDOW = TimeUnit.SECONDS.toNanos(1);
+
+    // Feeds one full window of identical samples and returns the resulting limit
+    private static int feedWindow(FhirAdaptiveConcurrencyLimit limit, long now, long rttMillis, int inFlight) {
+        for (int i = 0; i < 20; i++) {
+            limit.onSample(TimeUnit.MILLISECONDS.toNanos(rttMillis), inFlight, now + (i == 19 ? WINDOW : 0));
+        }
+        return limit.getLimit();
+    }
+
+    @Test
+    void onSample_stableLatency_shouldGrowLimit() {
+        var limit = new FhirAdaptiveConcurrencyLimit(4, 1, 32);
+        long now = 0;
+        for (int i = 0; i < 50; i++) {
+            now += WINDOW;
+            feedWindow(limit, now, 100, limit.getLimit());
+        }
+        assertTrue(limit.getLimit() > 4);
+        assertTrue(limit.getLimit() <= 32);
+    }
+
+    @Test
+    void onSample_risingLatency_shouldShrinkLimit() {
+        var limit = new FhirAdaptiveConcurrencyLimit(16, 2, 32);
+        long now = 0;
+        for (int i = 0; i < 5; i++) {
+            now += WINDOW;
+            feedWindow(limit, now, 100, limit.getLimit());
+        }
+        int before = limit.getLimit();
+        for (int i = 0; i < 20; i++) {
+            now += WINDOW;
+            feedWindow(limit, now, 1000, limit.getLimit());
+        }
+        assertTrue(limit.getLimit() < before);
+        assertTrue(limit.getLimit() >= 2);
+    }
+
+    @Test
+    void onSample_lowTraffic_shouldKeepLimit() {
+        var limit = new FhirAdaptiveConcurrencyLimit(16, 1, 32);
+        long now = 0;
+        for (int i = 0; i < 20; i++) {
+            now += WINDOW;
+            feedWindow(limit, now, i < 5 ? 100 : 1000, 1);
+        }
+        assertEquals(16, limit.getLimit());
+    }
+}
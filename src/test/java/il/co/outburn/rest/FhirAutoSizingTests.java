@@ -0,0 +1,63 @@
+package il.co.outburn.rest;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class FhirAutoSizingTests {
+    private static final long MB = 1024 * 1024;
+
+    @Test
+    void compute_cpuBound_shouldUseOneEnginePerCore() {
+        // 8 GB heap leaves room for many clones, so the 2.5 CPU quota (rounded up) decides
+        var result = FhirAutoSizing.compute(2.5, 16, 10240 * MB, 8192 * MB, 1024 * MB, 128 * MB, false, 2);
+        assertEquals(3, result.maxEngines());
+        assertEquals(3 * 3 + 4, result.workerThreads());
+        assertEquals((long) (8192 * MB * 0.10), result.cacheBudgetBytes());
+    }
+
+    @Test
+    void compute_txServer_shouldUseTwoEnginesPerCore() {
+        var result = FhirAutoSizing.compute(null, 4, null, 8192 * MB, 1024 * MB, 128 * MB, true, 0);
+        assertEquals(8, result.maxEngines());
+    }
+
+    @Test
+    void compute_smallHeap_shouldBeLimitedByMemory() {
+        // 4 GB heap: 3 GB usable, minus a 1 GB engine and a ~410 MB cache budget leaves room for 6 clones of 256 MB
+        var result = FhirAutoSizing.compute(16.0, 16, null, 4096 * MB, 1024 * MB, 256 * MB, false, 0);
+        assertEquals(6, result.maxEngines());
+        result = FhirAutoSizing.compute(16.0, 16, null, 1024 * MB, 1024 * MB, 256 * MB, false, 0);
+        assertEquals(1, result.maxEngines());
+    }
+
+    @Test
+    void containerCpuLimit_shouldReadCgroupFiles(@TempDir Path root) throws Exception {
+        var original = FhirContainerLimits.cgroupRoot;
+        try {
+            FhirContainerLimits.cgroupRoot = root;
+            assertNull(FhirContainerLimits.getCpuLimit());
+
+            Files.writeString(root.resolve("cpu.max"), "max 100000\n");
+            assertNull(FhirContainerLimits.getCpuLimit());
+
+            Files.writeString(root.resolve("cpu.max"), "150000 100000\n");
+            assertEquals(1.5, FhirContainerLimits.getCpuLimit());
+
+            Files.delete(root.resolve("cpu.max"));
+            Files.createDirectories(root.resolve("cpu"));
+            Files.writeString(root.resolve("cpu/cpu.cfs_quota_us"), "-1\n");
+            Files.writeString(root.resolve("cpu/cpu.cfs_period_us"), "100000\n");
+            assertNull(FhirContainerLimits.getCpuLimit());
+
+            Files.writeString(root.resolve("cpu/cpu.cfs_quota_us"), "200000\n");
+            assertEquals(2.0, FhirContainerLimits.getCpuLimit());
+        } finally {
+            FhirContainerLimits.cgroupRoot = original;
+        }
+    }
+}
@@ -0,0 +1,69 @@
+package il.co.outburn.rest;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class FhirBatchValidatorTests {
+    @TempDir
+    Path tempDir;
+
+    private List<String> readLines(Path file, long window) throws IOException {
+        var lines = new ArrayList<String>();
+        FhirBatchValidator.forEachLine(file, window, (source, resource) ->
+                lines.add(source.substring(source.lastIndexOf(':') + 1) + "=" + new String(resource, StandardCharsets.UTF_8)));
+        return lines;
+    }
+
+    @Test
+    void forEachLine_shouldSplitLinesAcrossWindows() throws IOException {
+        var file = tempDir.resolve("input.ndjson");
+        Files.writeString(file, "{\"a\":1}\r\n\n{\"bb\":22}\n   \n{\"ccc\":333}");
+
+        var expected = List.of("1={\"a\":1}", "3={\"bb\":22}", "5={\"ccc\":333}");
+        assertEquals(expected, readLines(file, FhirBatchValidator.MAP_WINDOW));
+        // Windows smaller than the file, ending inside a line
+        assertEquals(expected, readLines(file, 12));
+        assertEquals(expected, readLines(file, 16));
+    }
+
+    @Test
+    void forEachLine_lineLongerThanWindow_shouldFail() throws IOException {
+        var file = tempDir.resolve("input.ndjson");
+        Files.writeString(file, "{\"a\":1}\n{\"resourceType\":\"Patient\"}\n");
+
+        var ex = assertThrows(IOException.class, () -> readLines(file, 10));
+        assertTrue(ex.getMessage().contains("line 2"));
+    }
+
+    @Test
+    void parse_shouldSeparateBatchAndApplicationArguments() {
+        var arguments = FhirBatchValidator.Arguments.parse(new String[]{
+                "--input", "data", "--out", "results.ndjson", "--threads", "3",
+                "--profile", "http://example.org/a", "--profile", "http://example.org/b",
+                "--validator.sv=4.0.1", "--validator.max-engines=10", "--validator.auto-sizing=true"});
+
+        assertEquals(Path.of("data"), arguments.getInput());
+        assertEquals(Path.of("results.ndjson"), arguments.getOut());
+        assertEquals(3, arguments.getThreads());
+        assertEquals(List.of("http://example.org/a", "http://example.org/b"), arguments.getProfiles());
+        // max-engines is set from --threads, and not auto-sized
+        assertEquals(List.of("--validator.sv=4.0.1"), arguments.getApplicationArgs());
+    }
+
+    @Test
+    void parse_invalidArguments_shouldThrow() {
+        assertThrows(IllegalArgumentException.class, () -> FhirBatchValidator.Arguments.parse(new String[]{"--out", "results.ndjson"}));
+        assertThrows(IllegalArgumentException.class, () -> FhirBatchValidator.Arguments.parse(new String[]{"--input", "data", "--out", "r", "--threads", "0"}));
+        assertThrows(IllegalArgumentException.class, () -> FhirBatchValidator.Arguments.parse(new String[]{"--input", "data", "--out", "r", "extra"}));
+        assertThrows(IllegalArgumentException.class, () -> FhirBatchValidator.Arguments.parse(new String[]{"--input"}));
+    }
+}
@@ -0,0 +1,78 @@
+package il.co.outburn.rest;
+
+import com.fasterxml.jackson.databind.json.JsonMapper;
+import com.fasterxml.jackson.dataformat.cbor.databind.CBORMapper;
+import org.hl7.fhir.utilities.validation.ValidationMessage;
+import org.junit.jupiter.api.Test;
+import org.springframework.mock.web.MockHttpServletRequest;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class FhirCompactResponseTests {
+
+    private static ValidationMessage createMessage() {
+        var message = new ValidationMessage();
+        message.setLevel(ValidationMessage.IssueSeverity.ERROR);
+        message.setType(ValidationMessage.IssueType.CODEINVALID);
+        message.setLocation("Patient.gender");
+        message.setMessage("Unknown code");
+        message.setLine(3);
+        message.setCol(15);
+        return message;
+    }
+
+    private static MockHttpServletRequest createRequest(String accept) {
+        var request = new MockHttpServletRequest();
+        if (accept != null) {
+            request.addHeader("Accept", accept);
+        }
+        return request;
+    }
+
+    @Test
+    void forResource_shouldSerializeToCbor() throws Exception {
+        var result = new FhirValidationResult();
+        result.setHasErrors(true);
+        result.setMessages(List.of(createMessage()));
+        var response = FhirCompactResponse.forResource(result, null);
+
+        var mapper = new CBORMapper();
+        var bytes = mapper.writeValueAsBytes(response);
+        assertTrue(bytes.length < new JsonMapper().writeValueAsBytes(response).length);
+        @SuppressWarnings("unchecked")
+        Map<String, Object> decoded = mapper.readValue(bytes, Map.class);
+        assertEquals(FhirCompactResponse.SCHEMA, decoded.get("schema"));
+        assertEquals(false, decoded.get("valid"));
+        assertFalse(decoded.containsKey("entries"));
+        var issue = (Map<?, ?>) ((List<?>) decoded.get("issues")).get(0);
+        assertEquals("error", issue.get("severity"));
+        assertEquals("code-invalid", issue.get("code"));
+        assertEquals("Patient.gender", issue.get("expression"));
+        assertEquals(3, issue.get("line"));
+        assertFalse(issue.containsKey("messageId"));
+    }
+
+    @Test
+    void issue_fields_shouldKeepSeverityAndCode() {
+        var issue = FhirCompactResponse.Issue.of(createMessage(), Set.of("text"));
+        assertEquals("error", issue.severity());
+        assertEquals("code-invalid", issue.code());
+        assertEquals("Unknown code", issue.text());
+        assertNull(issue.expression());
+        assertNull(issue.line());
+    }
+
+    @Test
+    void acceptsCompact_shouldFollowAcceptHeader() {
+        assertTrue(FhirValidationController.acceptsCompact(createRequest("application/cbor")));
+        assertTrue(FhirValidationController.acceptsCompact(createRequest("application/json;q=0.5, application/cbor")));
+        assertFalse(FhirValidationController.acceptsCompact(createRequest("application/fhir+json, application/cbor")));
+        assertFalse(FhirValidationController.acceptsCompact(createRequest("*/*")));
+        assertFalse(FhirValidationController.acceptsCompact(createRequest("application/cbor;q=0")));
+        assertFalse(FhirValidationController.acceptsCompact(createRequest(null)));
+    }
+}
@@ -0,0 +1,51 @@
+package il.co.outburn.rest;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class FhirEngineRecyclingPolicyTests {
+    private static final long MB = 1024 * 1024;
+
+    @Test
+    void disabled_shouldNeverRetire() {
+        var policy = FhirEngineRecyclingPolicy.disabled();
+        var info = new FhirEngineRecyclingPolicy.EngineInfo(0, 0);
+        info.validations = Long.MAX_VALUE;
+        assertFalse(policy.isEnabled());
+        assertNull(policy.retireReason(info, Long.MAX_VALUE, Integer.MAX_VALUE));
+    }
+
+    @Test
+    void retireReason_validationsAndAge() {
+        var policy = new FhirEngineRecyclingPolicy(100, TimeUnit.MINUTES.toNanos(60), 0, 0, 0);
+        var info = new FhirEngineRecyclingPolicy.EngineInfo(0, 0);
+        info.validations = 99;
+        assertNull(policy.retireReason(info, TimeUnit.MINUTES.toNanos(59), 0));
+        assertEquals("age", policy.retireReason(info, TimeUnit.MINUTES.toNanos(60), 0));
+        info.validations = 100;
+        assertEquals("validations", policy.retireReason(info, 0, 0));
+    }
+
+    @Test
+    void retireReason_estimatedSize() {
+        // 100 MB clone, 10 KB per cached resource: 5120 new resources add 50 MB
+        var policy = new FhirEngineRecyclingPolicy(0, 0, 150 * MB, 100 * MB, 10 * 1024);
+        var info = new FhirEngineRecyclingPolicy.EngineInfo(0, 1000);
+        assertTrue(policy.tracksSize());
+        assertEquals(150 * MB, policy.estimateRetainedBytes(info, 1000 + 5120));
+        assertNull(policy.retireReason(info, 0, 1000 + 5119));
+        assertEquals("size", policy.retireReason(info, 0, 1000 + 5120));
+    }
+
+    @Test
+    void fromConfiguration_unknownEngineSize_shouldNotTrackSize() {
+        var configuration = new FhirValidatorConfiguration();
+        configuration.setEngineMaxRetainedMb(512L);
+        var policy = FhirEngineRecyclingPolicy.fromConfiguration(configuration, null, null, 0);
+        assertTrue(policy.isEnabled());
+        assertFalse(policy.tracksSize());
+    }
+}
@@ -0,0 +1,93 @@
+package il.co.outburn.rest;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class FhirFileResultStoreTests {
+    @TempDir
+    Path tempDir;
+
+    private static byte[] bytes(String value) {
+        return value.getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Test
+    void put_shouldBeFoundByThisAndOtherInstances() throws IOException {
+        var path = tempDir.resolve("shared/results.bin");
+        try (var first = new FhirFileResultStore(path, 1024 * 1024);
+             var second = new FhirFileResultStore(path, 1024 * 1024)) {
+            first.put("a", bytes("outcome a"));
+            assertArrayEquals(bytes("outcome a"), first.get("a"));
+            // Appended by another replica after this one indexed the file
+            assertArrayEquals(bytes("outcome a"), second.get("a"));
+            second.put("b", bytes("outcome b"));
+            assertArrayEquals(bytes("outcome b"), first.get("b"));
+            // The first value of a key wins
+            second.put("a", bytes("other"));
+            assertArrayEquals(bytes("outcome a"), first.get("a"));
+            assertNull(first.get("c"));
+        }
+        try (var reopened = new FhirFileResultStore(path, 1024 * 1024)) {
+            assertEquals(2, reopened.size());
+            assertArrayEquals(bytes("outcome b"), reopened.get("b"));
+        }
+    }
+
+    @Test
+    void put_full_shouldAddNothingMore() throws IOException {
+        var path = tempDir.resolve("results.bin");
+        try (var store = new FhirFileResultStore(path, 64)) {
+            store.put("a", bytes("0123456789"));
+            store.put("b", bytes("0123456789012345678901234567890123456789"));
+            assertNotNull(store.get("a"));
+            assertNull(store.get("b"));
+        }
+        assertTrue(Files.size(path) <= 64);
+    }
+
+    @Test
+    void put_full_shouldStartOver() throws IOException {
+        var path = tempDir.resolve("results.bin");
+        // Room for the header and two records of 8 + 1 + 30 bytes
+        long maxBytes = FhirFileResultStore.HEADER + 2 * 39;
+        try (var first = new FhirFileResultStore(path, maxBytes);
+             var second = new FhirFileResultStore(path, maxBytes)) {
+            first.put("a", bytes("a".repeat(30)));
+            first.put("b", bytes("b".repeat(30)));
+            assertNotNull(second.get("a"));
+            first.put("c", bytes("c".repeat(30)));
+            assertArrayEquals(bytes("c".repeat(30)), first.get("c"));
+            assertNull(first.get("a"));
+            // The other replica notices the new generation
+            assertNull(second.get("a"));
+            assertArrayEquals(bytes("c".repeat(30)), second.get("c"));
+            assertEquals(1, second.size());
+        }
+        assertTrue(Files.size(path) <= maxBytes);
+    }
+
+    @Test
+    void open_previousFormat_shouldStartOver() throws IOException {
+        var path = tempDir.resolve("results.bin");
+        Files.writeString(path, "yafva-results-1\nold records");
+        try (var store = new FhirFileResultStore(path, 1024)) {
+            assertEquals(0, store.size());
+            store.put("a", bytes("outcome a"));
+            assertArrayEquals(bytes("outcome a"), store.get("a"));
+        }
+    }
+
+    @Test
+    void open_otherFile_shouldFail() throws IOException {
+        var path = tempDir.resolve("other.bin");
+        Files.writeString(path, "not a result store at all");
+        assertThrows(IOException.class, () -> new FhirFileResultStore(path, 1024));
+    }
+}
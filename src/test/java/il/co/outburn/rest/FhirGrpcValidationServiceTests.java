@@ -0,0 +1,104 @@
+package il.co.outburn.rest;
+
+import com.google.protobuf.ByteString;
+import il.co.outburn.rest.grpc.FhirValidationGrpc;
+import il.co.outburn.rest.grpc.ValidateRequest;
+import il.co.outburn.rest.grpc.ValidateResponse;
+import io.grpc.ManagedChannel;
+import io.grpc.Server;
+import io.grpc.Status;
+import io.grpc.StatusRuntimeException;
+import io.grpc.inprocess.InProcessChannelBuilder;
+import io.grpc.inprocess.InProcessServerBuilder;
+import io.grpc.stub.StreamObserver;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.HashSet;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class FhirGrpcValidationServiceTests {
+    private Server server;
+    private ManagedChannel channel;
+    private ExecutorService streamWorkers;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        var configuration = new FhirValidatorConfiguration();
+        configuration.setMaxEngines(2);
+        configuration.setGrpcStreamWindow(2);
+        var registry = new SimpleMeterRegistry();
+        streamWorkers = Executors.newVirtualThreadPerTaskExecutor();
+        var service = new FhirGrpcValidationService(configuration, new FhirValidationAdmission(configuration, registry),
+                new FhirValidationExecutor(configuration, registry, false), streamWorkers);
+        var name = InProcessServerBuilder.generateName();
+        server = InProcessServerBuilder.forName(name).directExecutor().addService(service).build().start();
+        channel = InProcessChannelBuilder.forName(name).directExecutor().build();
+    }
+
+    @AfterEach
+    void tearDown() {
+        channel.shutdownNow();
+        server.shutdownNow();
+        streamWorkers.shutdownNow();
+    }
+
+    // Requests with an invalid mode are answered without a validation engine
+    private static ValidateRequest createInvalidRequest(String correlationId) {
+        return ValidateRequest.newBuilder()
+                .setCorrelationId(correlationId)
+                .setMode("unknown")
+                .setResource(ByteString.copyFromUtf8("{\"resourceType\": \"Patient\"}"))
+                .build();
+    }
+
+    @Test
+    void validate_invalidOptions_shouldFailWithInvalidArgument() {
+        var stub = FhirValidationGrpc.newBlockingStub(channel);
+        var ex = assertThrows(StatusRuntimeException.class, () -> stub.validate(createInvalidRequest("1")));
+        assertEquals(Status.Code.INVALID_ARGUMENT, ex.getStatus().getCode());
+    }
+
+    @Test
+    void validateStream_shouldAnswerEveryRequestAndComplete() throws Exception {
+        var responses = new CopyOnWriteArrayList<ValidateResponse>();
+        var completed = new CountDownLatch(1);
+        var requests = FhirValidationGrpc.newStub(channel).validateStream(new StreamObserver<>() {
+            @Override
+            public void onNext(ValidateResponse value) {
+                responses.add(value);
+            }
+
+            @Override
+            public void onError(Throwable t) {
+                fail(t);
+            }
+
+            @Override
+            public void onCompleted() {
+                completed.countDown();
+            }
+        });
+        for (int i = 0; i < 10; i++) {
+            requests.onNext(createInvalidRequest(String.valueOf(i)));
+        }
+        requests.onCompleted();
+
+        assertTrue(completed.await(10, TimeUnit.SECONDS));
+        assertEquals(10, responses.size());
+        var correlationIds = new HashSet<String>();
+        for (var response : responses) {
+            assertEquals(Status.Code.INVALID_ARGUMENT.name(), response.getError().getStatus());
+            correlationIds.add(response.getCorrelationId());
+        }
+        assertEquals(10, correlationIds.size());
+    }
+}
@@ -0,0 +1,114 @@
+package il.co.outburn.rest;
+
+import org.hl7.fhir.r5.model.OperationOutcome;
+import org.hl7.fhir.utilities.validation.ValidationMessage;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class FhirIssueFilterTests {
+
+    private static OperationOutcome createOutcome() {
+        var outcome = new OperationOutcome();
+        outcome.addIssue().setSeverity(OperationOutcome.IssueSeverity.ERROR).setCode(OperationOutcome.IssueType.CODEINVALID)
+                .setDiagnostics("diagnostics")
+                .addExpression("Patient.gender")
+                .getDetails().setText("Unknown code");
+        outcome.getIssueFirstRep().addExtension("http://hl7.org/fhir/StructureDefinition/operationoutcome-issue-line", new org.hl7.fhir.r5.model.IntegerType(1));
+        outcome.addIssue().setSeverity(OperationOutcome.IssueSeverity.WARNING).setCode(OperationOutcome.IssueType.BUSINESSRULE)
+                .addExpression("Patient")
+                .getDetails().setText("Best practice");
+        return outcome;
+    }
+
+    @Test
+    void filterOutcome_minSeverity_shouldDropLesserIssues() {
+        var outcome = createOutcome();
+        FhirUtil.addIncompleteIssue(outcome, "stopped");
+        var options = FhirValidationOptions.defaults();
+        options.setMinSeverity(ValidationMessage.IssueSeverity.ERROR);
+        FhirIssueFilter.filterOutcome(outcome, options);
+        assertEquals(2, outcome.getIssue().size());
+        assertEquals(OperationOutcome.IssueSeverity.ERROR, outcome.getIssue().get(0).getSeverity());
+        assertEquals(OperationOutcome.IssueType.INCOMPLETE, outcome.getIssue().get(1).getCode());
+    }
+
+    @Test
+    void filterOutcome_dropAllOk_shouldKeepAllOkIssue() {
+        var outcome = new OperationOutcome();
+        outcome.addIssue().setSeverity(OperationOutcome.IssueSeverity.INFORMATION).setCode(OperationOutcome.IssueType.INFORMATIONAL)
+                .getDetails().setText("Alles OK");
+        var options = FhirValidationOptions.defaults();
+        options.setDropAllOk(true);
+        options.setMinSeverity(ValidationMessage.IssueSeverity.ERROR);
+        FhirIssueFilter.filterOutcome(outcome, options);
+        // issue is 1..* in an OperationOutcome, and the validator's own issue keeps its localized text
+        assertEquals(1, outcome.getIssue().size());
+        assertEquals("Alles OK", outcome.getIssueFirstRep().getDetails().getText());
+    }
+
+    @Test
+    void filterIssues_dropAllOk_shouldDropAllOkIssue() {
+        var outcome = new OperationOutcome();
+        outcome.addIssue().setSeverity(OperationOutcome.IssueSeverity.INFORMATION).setCode(OperationOutcome.IssueType.INFORMATIONAL)
+                .getDetails().setText("All OK");
+        var options = FhirValidationOptions.defaults();
+        options.setDropAllOk(true);
+        FhirIssueFilter.filterIssues(outcome.getIssue(), options);
+        assertTrue(outcome.getIssue().isEmpty());
+    }
+
+    @Test
+    void filterOutcome_nothingLeft_shouldAddNeutralIssue() {
+        var outcome = new OperationOutcome();
+        outcome.addIssue().setSeverity(OperationOutcome.IssueSeverity.WARNING).setCode(OperationOutcome.IssueType.BUSINESSRULE)
+                .getDetails().setText("Best practice");
+        var options = FhirValidationOptions.defaults();
+        options.setMinSeverity(ValidationMessage.IssueSeverity.ERROR);
+        FhirIssueFilter.filterOutcome(outcome, options);
+        assertEquals(1, outcome.getIssue().size());
+        var issue = outcome.getIssueFirstRep();
+        assertEquals(OperationOutcome.IssueSeverity.INFORMATION, issue.getSeverity());
+        assertEquals("No issues at or above severity 'error'", issue.getDetails().getText());
+    }
+
+    @Test
+    void filterOutcome_fields_shouldKeepRequiredElements() {
+        var outcome = createOutcome();
+        var options = FhirValidationOptions.defaults();
+        options.setFields(Set.of("text"));
+        FhirIssueFilter.filterOutcome(outcome, options);
+        var issue = outcome.getIssueFirstRep();
+        assertEquals(OperationOutcome.IssueSeverity.ERROR, issue.getSeverity());
+        assertEquals(OperationOutcome.IssueType.CODEINVALID, issue.getCode());
+        assertEquals("Unknown code", issue.getDetails().getText());
+        assertFalse(issue.hasExpression());
+        assertFalse(issue.hasDiagnostics());
+        assertFalse(issue.hasExtension());
+    }
+
+    @Test
+    void projectMessages_shouldReturnRequestedFields() {
+        var message = new ValidationMessage();
+        message.setLevel(ValidationMessage.IssueSeverity.ERROR);
+        message.setType(ValidationMessage.IssueType.CODEINVALID);
+        message.setLocation("Patient.gender");
+        message.setMessage("Unknown code");
+        var projected = FhirIssueFilter.projectMessages(List.of(message), FhirIssueFilter.parseFields(List.of("severity,expression")));
+        assertEquals(1, projected.size());
+        assertEquals(Set.of("severity", "expression"), projected.get(0).keySet());
+        assertEquals("error", projected.get(0).get("severity"));
+        assertEquals("Patient.gender", projected.get(0).get("expression"));
+    }
+
+    @Test
+    void parse_invalidValues_shouldThrow() {
+        assertThrows(IllegalArgumentException.class, () -> FhirIssueFilter.parseSeverity("severe"));
+        assertThrows(IllegalArgumentException.class, () -> FhirIssueFilter.parseFields(List.of("severity,stack")));
+        assertNull(FhirIssueFilter.parseFields(null));
+        assertEquals(ValidationMessage.IssueSeverity.WARNING, FhirIssueFilter.parseSeverity("Warning"));
+    }
+}
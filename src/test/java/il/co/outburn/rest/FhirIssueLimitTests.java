@@ -0,0 +1,61 @@
+package il.co.outburn.rest;
+
+import org.hl7.fhir.utilities.validation.ValidationMessage;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class FhirIssueLimitTests {
+
+    private static ValidationMessage message(ValidationMessage.IssueSeverity level, String text) {
+        var message = new ValidationMessage();
+        message.setLevel(level);
+        message.setMessage(text);
+        return message;
+    }
+
+    @Test
+    void stopOnFirstError_shouldStopAtFirstError() {
+        var limit = new FhirIssueLimit(true, 0);
+        limit.add(message(ValidationMessage.IssueSeverity.WARNING, "warning"));
+        assertDoesNotThrow(limit::checkpoint);
+
+        limit.add(message(ValidationMessage.IssueSeverity.ERROR, "first"));
+        limit.add(message(ValidationMessage.IssueSeverity.ERROR, "second"));
+        assertThrows(FhirIssueLimit.FhirIssueLimitReachedException.class, limit::checkpoint);
+        assertEquals(List.of("warning", "first"), limit.getLimitedMessages().stream().map(ValidationMessage::getMessage).toList());
+    }
+
+    @Test
+    void maxIssues_shouldCountAllSeverities() {
+        var limit = new FhirIssueLimit(false, 2);
+        limit.addAll(List.of(message(ValidationMessage.IssueSeverity.INFORMATION, "a"),
+                message(ValidationMessage.IssueSeverity.WARNING, "b"),
+                message(ValidationMessage.IssueSeverity.ERROR, "c")));
+        assertTrue(limit.isLimitReached());
+        assertEquals(2, limit.getLimitedMessages().size());
+        assertEquals(1, limit.getErrors());
+    }
+
+    @Test
+    void noLimit_shouldNeverStop() {
+        var limit = new FhirIssueLimit(false, 0);
+        assertFalse(limit.hasLimit());
+        for (int i = 0; i < 100; i++) {
+            limit.add(message(ValidationMessage.IssueSeverity.FATAL, "fatal"));
+        }
+        assertDoesNotThrow(limit::checkpoint);
+    }
+
+    @Test
+    void requestPolicyAdvisor_limitReached_shouldStopAtSafePoint() {
+        var advisor = new FhirRequestPolicyAdvisor(null, FhirValidationDeadline.none());
+        var limit = new FhirIssueLimit(true, 0);
+        limit.add(message(ValidationMessage.IssueSeverity.ERROR, "error"));
+        advisor.setIssueLimit(limit);
+        assertThrows(FhirIssueLimit.FhirIssueLimitReachedException.class,
+                () -> advisor.policyForResource(null, null, null, "Patient"));
+    }
+}
@@ -0,0 +1,43 @@
+package il.co.outburn.rest;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class FhirMemoryEndpointTests {
+    private static final long MB = 1024 * 1024;
+
+    @Test
+    void recommendMaxEngines_shouldLeaveHeadroom() {
+        // 4 GB heap: 3 GB usable, minus a 1 GB default engine leaves room for 8 clones of 256 MB
+        assertEquals(8, FhirMemoryEndpoint.recommendMaxEngines(4096 * MB, 1024 * MB, 256 * MB));
+        assertEquals(1, FhirMemoryEndpoint.recommendMaxEngines(1024 * MB, 1024 * MB, 256 * MB));
+        assertNull(FhirMemoryEndpoint.recommendMaxEngines(1024 * MB, null, 256 * MB));
+    }
+
+    @Test
+    void containerMemoryLimit_shouldReadCgroupFiles(@TempDir Path root) throws Exception {
+        var original = FhirContainerLimits.cgroupRoot;
+        try {
+            FhirContainerLimits.cgroupRoot = root;
+            assertNull(FhirContainerLimits.getMemoryLimitBytes());
+
+            Files.writeString(root.resolve("memory.max"), "max\n");
+            assertNull(FhirContainerLimits.getMemoryLimitBytes());
+
+            Files.writeString(root.resolve("memory.max"), "2147483648\n");
+            assertEquals(2147483648L, FhirContainerLimits.getMemoryLimitBytes());
+
+            Files.delete(root.resolve("memory.max"));
+            Files.createDirectories(root.resolve("memory"));
+            Files.writeString(root.resolve("memory/memory.limit_in_bytes"), "9223372036854771712\n");
+            assertNull(FhirContainerLimits.getMemoryLimitBytes());
+        } finally {
+            FhirContainerLimits.cgroupRoot = original;
+        }
+    }
+}
@@ -0,0 +1,93 @@
+package il.co.outburn.rest;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class FhirPathExpressionCacheTests {
+    private int originalMaxEntries;
+    private long originalBudget;
+
+    @BeforeEach
+    void setUp() {
+        originalMaxEntries = FhirPathExpressionCache.getMaxEntries();
+        originalBudget = FhirCacheBudget.getMaxBytes();
+        FhirPathExpressionCache.clear();
+    }
+
+    @AfterEach
+    void tearDown() {
+        FhirPathExpressionCache.setMaxEntries(originalMaxEntries);
+        FhirCacheBudget.setMaxBytes(originalBudget);
+        FhirPathExpressionCache.clear();
+    }
+
+    @Test
+    void get_sameExpression_shouldParseOnce() throws Exception {
+        var parses = new AtomicInteger();
+        FhirPathExpressionCache.Parser<StringBuilder> parser = expression -> {
+            parses.incrementAndGet();
+            return new StringBuilder(expression);
+        };
+
+        var first = FhirPathExpressionCache.get("4.0.1", StringBuilder.class, "name.exists()", parser);
+        var second = FhirPathExpressionCache.get("4.0.1", StringBuilder.class, "name.exists()", parser);
+        assertSame(first, second);
+        assertEquals(1, parses.get());
+
+        // Another FHIR version gets its own AST
+        FhirPathExpressionCache.get("5.0.0", StringBuilder.class, "name.exists()", parser);
+        assertEquals(2, parses.get());
+        assertEquals(2, FhirCacheStatistics.getSizes().get("fhirpath-expressions"));
+    }
+
+    @Test
+    void get_parseError_shouldNotBeCached() {
+        FhirPathExpressionCache.Parser<String> parser = expression -> {
+            throw new IllegalArgumentException("bad expression");
+        };
+        assertThrows(IllegalArgumentException.class, () -> FhirPathExpressionCache.get("4.0.1", String.class, "name.(", parser));
+        assertEquals(0, FhirPathExpressionCache.size());
+    }
+
+    @Test
+    void get_full_shouldStayBounded() throws Exception {
+        FhirPathExpressionCache.setMaxEntries(100);
+        for (int i = 0; i < 1000; i++) {
+            FhirPathExpressionCache.get("4.0.1", String.class, "Patient.name[" + i + "]", expression -> expression);
+        }
+        assertTrue(FhirPathExpressionCache.size() <= 100);
+    }
+
+    @Test
+    void get_overBudget_shouldStayWithinIt() throws Exception {
+        long used = FhirCacheBudget.getUsedBytes();
+        FhirCacheBudget.setMaxBytes(used + 20 * FhirPathExpressionCache.estimateBytes("Patient.name[100]", "x"));
+        for (int i = 0; i < 1000; i++) {
+            FhirPathExpressionCache.get("4.0.1", String.class, "Patient.name[" + i + "]", expression -> expression);
+        }
+        assertTrue(FhirPathExpressionCache.size() <= 20);
+        assertTrue(FhirCacheBudget.getUsedBytes() <= FhirCacheBudget.getMaxBytes());
+
+        FhirPathExpressionCache.clear();
+        assertEquals(used, FhirCacheBudget.getUsedBytes());
+    }
+
+    @Test
+    void get_disabled_shouldAlwaysParse() throws Exception {
+        FhirPathExpressionCache.setMaxEntries(0);
+        var parses = new AtomicInteger();
+        for (int i = 0; i < 3; i++) {
+            FhirPathExpressionCache.get("4.0.1", String.class, "id", expression -> {
+                parses.incrementAndGet();
+                return expression;
+            });
+        }
+        assertEquals(3, parses.get());
+        assertEquals(0, FhirPathExpressionCache.size());
+    }
+}
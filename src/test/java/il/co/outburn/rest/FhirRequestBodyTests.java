@@ -0,0 +1,205 @@
+package il.co.outburn.rest;
+
+import com.github.luben.zstd.ZstdOutputStream;
+import jakarta.servlet.ServletInputStream;
+import org.junit.jupiter.api.Test;
+import org.springframework.mock.web.DelegatingServletInputStream;
+import org.springframework.mock.web.MockHttpServletRequest;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class FhirRequestBodyTests {
+
+    private static byte[] createBody(int length) {
+        var bytes = new byte[length];
+        for (int i = 0; i < length; i++) {
+            bytes[i] = (byte) ('a' + i % 26);
+        }
+        return bytes;
+    }
+
+    @Test
+    void read_knownLengthInMemory_shouldNotCopy() throws IOException {
+        var bytes = createBody(1000);
+        try (var body = FhirRequestBody.read(new ByteArrayInputStream(bytes), bytes.length, 0, 1024 * 1024)) {
+            assertFalse(body.isSpilled());
+            assertEquals(1000, body.length());
+            assertSame(body.toByteArray(), body.toByteArray());
+            assertArrayEquals(bytes, body.toByteArray());
+        }
+    }
+
+    @Test
+    void read_unknownLength_shouldKeepSmallBodyInMemory() throws IOException {
+        var bytes = createBody(3 * FhirRequestBody.BUFFER_SIZE + 17);
+        try (var body = FhirRequestBody.read(new ByteArrayInputStream(bytes), -1, 0, 1024 * 1024)) {
+            assertFalse(body.isSpilled());
+            assertArrayEquals(bytes, body.toByteArray());
+        }
+        assertTrue(FhirRequestBody.getPooledBuffers() > 0);
+    }
+
+    @Test
+    void read_largeBody_shouldSpillToTempFile() throws IOException {
+        var bytes = createBody(5 * FhirRequestBody.BUFFER_SIZE + 3);
+        for (long contentLength : new long[] {bytes.length, -1}) {
+            try (var body = FhirRequestBody.read(new ByteArrayInputStream(bytes), contentLength, 0, FhirRequestBody.BUFFER_SIZE)) {
+                assertTrue(body.isSpilled());
+                assertEquals(bytes.length, body.length());
+                assertArrayEquals(bytes, body.openStream().readAllBytes());
+                assertArrayEquals(bytes, body.toByteArray());
+            }
+        }
+    }
+
+    @Test
+    void read_declaredLengthOverLimit_shouldRejectWithoutReading() {
+        var in = new ByteArrayInputStream(createBody(10));
+        var ex = assertThrows(FhirPayloadTooLargeException.class, () -> FhirRequestBody.read(in, 2048, 1024, 1024));
+        assertEquals(1024, ex.getMaxBytes());
+        assertEquals(10, in.available());
+    }
+
+    @Test
+    void read_streamOverLimit_shouldReject() {
+        var bytes = createBody(4 * FhirRequestBody.BUFFER_SIZE);
+        assertThrows(FhirPayloadTooLargeException.class,
+                () -> FhirRequestBody.read(new ByteArrayInputStream(bytes), -1, 2 * FhirRequestBody.BUFFER_SIZE, 1024 * 1024));
+        assertThrows(FhirPayloadTooLargeException.class,
+                () -> FhirRequestBody.read(new ByteArrayInputStream(bytes), -1, 3 * FhirRequestBody.BUFFER_SIZE, FhirRequestBody.BUFFER_SIZE));
+    }
+
+    @Test
+    void read_truncatedBody_shouldFail() {
+        var bytes = createBody(100);
+        assertThrows(IOException.class, () -> FhirRequestBody.read(new ByteArrayInputStream(bytes), 200, 0, 1024));
+    }
+
+    @FunctionalInterface
+    private interface Encoder {
+        OutputStream wrap(OutputStream out) throws IOException;
+    }
+
+    private static byte[] encode(byte[] bytes, Encoder encoder) throws IOException {
+        var out = new ByteArrayOutputStream();
+        try (var encoded = encoder.wrap(out)) {
+            encoded.write(bytes);
+        }
+        return out.toByteArray();
+    }
+
+    @Test
+    void decode_supportedEncodings_shouldInflate() throws IOException {
+        var bytes = createBody(3 * FhirRequestBody.BUFFER_SIZE);
+        var gzip = encode(bytes, GZIPOutputStream::new);
+        var zstd = encode(bytes, ZstdOutputStream::new);
+        var deflate = encode(bytes, DeflaterOutputStream::new);
+        assertArrayEquals(bytes, FhirRequestBody.decode(new ByteArrayInputStream(gzip), "gzip").readAllBytes());
+        assertArrayEquals(bytes, FhirRequestBody.decode(new ByteArrayInputStream(zstd), "zstd").readAllBytes());
+        assertArrayEquals(bytes, FhirRequestBody.decode(new ByteArrayInputStream(deflate), "deflate").readAllBytes());
+        assertArrayEquals(bytes, FhirRequestBody.decode(new ByteArrayInputStream(bytes), "identity").readAllBytes());
+        var both = encode(encode(bytes, GZIPOutputStream::new), ZstdOutputStream::new);
+        assertArrayEquals(bytes, FhirRequestBody.decode(new ByteArrayInputStream(both), "gzip, zstd").readAllBytes());
+    }
+
+    @Test
+    void decode_unsupportedEncoding_shouldThrow() {
+        var ex = assertThrows(FhirUnsupportedContentEncodingException.class,
+                () -> FhirRequestBody.decode(new ByteArrayInputStream(new byte[0]), "br"));
+        assertEquals("br", ex.getEncoding());
+    }
+
+    @Test
+    void readInMemory_largeBody_shouldNotSpill() throws IOException {
+        var bytes = createBody(5 * FhirRequestBody.BUFFER_SIZE + 3);
+        var configuration = new FhirValidatorConfiguration();
+        configuration.setRequestBodyMemoryMb(0L);
+        var request = new MockHttpServletRequest("POST", "/validate");
+        request.setContent(bytes);
+        try (var body = FhirRequestBody.readInMemory(request, configuration)) {
+            assertFalse(body.isSpilled());
+            assertArrayEquals(bytes, body.toByteArray());
+        }
+        try (var body = FhirRequestBody.read(request, configuration)) {
+            assertTrue(body.isSpilled());
+        }
+    }
+
+    @Test
+    void close_spilledBody_shouldDeleteTempFile() throws IOException {
+        var bytes = createBody(2 * FhirRequestBody.BUFFER_SIZE);
+        var tempDir = Path.of(System.getProperty("java.io.tmpdir"));
+        long before;
+        try (var files = Files.list(tempDir)) {
+            before = files.filter(f -> f.getFileName().toString().startsWith("yafva-body-")).count();
+        }
+        var body = FhirRequestBody.read(new ByteArrayInputStream(bytes), bytes.length, 0, FhirRequestBody.BUFFER_SIZE);
+        assertTrue(body.isSpilled());
+        body.close();
+        try (var files = Files.list(tempDir)) {
+            assertEquals(before, files.filter(f -> f.getFileName().toString().startsWith("yafva-body-")).count());
+        }
+    }
+
+    @Test
+    void read_truncatedCompressedBody_shouldBeMalformed() throws IOException {
+        var bytes = createBody(1000);
+        var configuration = new FhirValidatorConfiguration();
+        for (var encoding : new String[]{"gzip", "deflate", "zstd"}) {
+            var encoded = encode(bytes, switch (encoding) {
+                case "gzip" -> GZIPOutputStream::new;
+                case "deflate" -> DeflaterOutputStream::new;
+                default -> ZstdOutputStream::new;
+            });
+            for (int length : new int[]{5, encoded.length / 2}) {
+                var request = new MockHttpServletRequest("POST", "/validate");
+                request.addHeader("Content-Encoding", encoding);
+                request.setContent(Arrays.copyOf(encoded, length));
+                assertThrows(IllegalArgumentException.class, () -> FhirRequestBody.read(request, configuration),
+                        encoding + " cut at " + length);
+            }
+        }
+    }
+
+    @Test
+    void read_failingConnection_shouldStayIOException() throws IOException {
+        var gzip = encode(createBody(1000), GZIPOutputStream::new);
+        var request = new MockHttpServletRequest("POST", "/validate") {
+            @Override
+            public ServletInputStream getInputStream() {
+                var content = new ByteArrayInputStream(gzip, 0, 20);
+                return new DelegatingServletInputStream(new InputStream() {
+                    @Override
+                    public int read() throws IOException {
+                        int value = content.read();
+                        if (value < 0) throw new IOException("Connection reset");
+                        return value;
+                    }
+                });
+            }
+        };
+        request.addHeader("Content-Encoding", "gzip");
+        var ex = assertThrows(IOException.class, () -> FhirRequestBody.read(request, new FhirValidatorConfiguration()));
+        assertEquals("Connection reset", ex.getMessage());
+    }
+
+    @Test
+    void read_compressedBodyOverLimit_shouldReject() throws IOException {
+        // Repetitive content compresses far below the limit but inflates beyond it
+        var gzip = encode(new byte[4 * FhirRequestBody.BUFFER_SIZE], GZIPOutputStream::new);
+        assertTrue(gzip.length < FhirRequestBody.BUFFER_SIZE);
+        var in = FhirRequestBody.decode(new ByteArrayInputStream(gzip), "gzip");
+        assertThrows(FhirPayloadTooLargeException.class, () -> FhirRequestBody.read(in, -1, 2 * FhirRequestBody.BUFFER_SIZE, 1024 * 1024));
+    }
+}
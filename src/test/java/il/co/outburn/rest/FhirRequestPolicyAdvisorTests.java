@@ -0,0 +1,56 @@
+package il.co.outburn.rest;
+
+import org.hl7.fhir.r5.utils.validation.IValidationPolicyAdvisor.CodedContentValidationAction;
+import org.hl7.fhir.r5.utils.validation.IValidationPolicyAdvisor.ElementValidationAction;
+import org.hl7.fhir.r5.utils.validation.IValidationPolicyAdvisor.ResourceValidationAction;
+import org.hl7.fhir.r5.utils.validation.constants.ReferenceValidationPolicy;
+import org.hl7.fhir.validation.instance.advisor.BasePolicyAdvisorForFullValidation;
+import org.junit.jupiter.api.Test;
+
+import java.util.EnumSet;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class FhirRequestPolicyAdvisorTests {
+
+    private static FhirRequestPolicyAdvisor createAdvisor(FhirValidationMode mode) {
+        var delegate = new BasePolicyAdvisorForFullValidation(ReferenceValidationPolicy.CHECK_VALID, null);
+        return new FhirRequestPolicyAdvisor(delegate, FhirValidationDeadline.none(), mode);
+    }
+
+    @Test
+    void fullMode_shouldDelegate() {
+        var advisor = createAdvisor(FhirValidationMode.FULL);
+        assertEquals(EnumSet.allOf(ResourceValidationAction.class), advisor.policyForResource(null, null, null, "Patient"));
+        assertTrue(advisor.policyForElement(null, null, null, null, "Patient.gender").contains(ElementValidationAction.Bindings));
+        assertFalse(advisor.policyForCodedContent(null, null, "Patient.gender", null, null, null, null, null, null).isEmpty());
+        assertEquals(ReferenceValidationPolicy.CHECK_VALID, advisor.policyForReference(null, null, "Patient.managingOrganization", "Organization/1", null));
+    }
+
+    @Test
+    void profilesMode_shouldSkipTerminology() {
+        var advisor = createAdvisor(FhirValidationMode.PROFILES);
+        assertEquals(EnumSet.allOf(ResourceValidationAction.class), advisor.policyForResource(null, null, null, "Patient"));
+        var element = advisor.policyForElement(null, null, null, null, "Patient.gender");
+        assertTrue(element.contains(ElementValidationAction.Invariants));
+        assertFalse(element.contains(ElementValidationAction.Bindings));
+        assertEquals(EnumSet.noneOf(CodedContentValidationAction.class),
+                advisor.policyForCodedContent(null, null, "Patient.gender", null, null, null, null, null, null));
+    }
+
+    @Test
+    void structureMode_shouldOnlyCheckBaseType() {
+        var advisor = createAdvisor(FhirValidationMode.STRUCTURE);
+        assertEquals(EnumSet.of(ResourceValidationAction.BaseType), advisor.policyForResource(null, null, null, "Patient"));
+        assertEquals(EnumSet.of(ElementValidationAction.Cardinality), advisor.policyForElement(null, null, null, null, "Patient.gender"));
+        assertEquals(ReferenceValidationPolicy.IGNORE, advisor.policyForReference(null, null, "Patient.managingOrganization", "Organization/1", null));
+        assertTrue(advisor.getImpliedProfilesForResource(null, null, null, null, null, null, true, null, null).isEmpty());
+    }
+
+    @Test
+    void fromParameter_shouldParseCaseInsensitive() {
+        assertEquals(FhirValidationMode.FULL, FhirValidationMode.fromParameter(null));
+        assertEquals(FhirValidationMode.STRUCTURE, FhirValidationMode.fromParameter("Structure"));
+        assertThrows(IllegalArgumentException.class, () -> FhirValidationMode.fromParameter("fast"));
+    }
+}
@@ -0,0 +1,28 @@
+package il.co.outburn.rest;
+
+import com.google.gson.JsonParser;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class FhirResourceDigestTests {
+    private static String digest(String json) {
+        return FhirResourceDigest.of(JsonParser.parseString(json));
+    }
+
+    @Test
+    void of_memberOrderAndWhitespace_shouldNotMatter() {
+        assertEquals(
+                digest("{\"resourceType\":\"Organization\",\"name\":\"Clinic\",\"address\":[{\"city\":\"Haifa\",\"use\":\"work\"}]}"),
+                digest("{ \"address\": [ { \"use\": \"work\", \"city\": \"Haifa\" } ],\n  \"name\": \"Clinic\", \"resourceType\": \"Organization\" }"));
+    }
+
+    @Test
+    void of_differentContent_shouldDiffer() {
+        var base = digest("{\"resourceType\":\"Observation\",\"valueQuantity\":{\"value\":1}}");
+        assertNotEquals(base, digest("{\"resourceType\":\"Observation\",\"valueQuantity\":{\"value\":1.0}}"));
+        assertNotEquals(base, digest("{\"resourceType\":\"Observation\",\"valueQuantity\":{\"value\":\"1\"}}"));
+        // Array order is significant
+        assertNotEquals(digest("{\"a\":[1,2]}"), digest("{\"a\":[2,1]}"));
+    }
+}
@@ -0,0 +1,208 @@
+package il.co.outburn.rest;
+
+import org.hl7.fhir.r5.model.CodeSystem;
+import org.hl7.fhir.r5.model.OperationOutcome;
+import org.hl7.fhir.r5.terminologies.utilities.ValidationResult;
+import org.hl7.fhir.utilities.validation.ValidationMessage;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class FhirResultCacheTests {
+    private static class MapStore implements FhirResultStore {
+        final Map<String, byte[]> values = new ConcurrentHashMap<>();
+
+        @Override
+        public byte[] get(String key) {
+            return values.get(key);
+        }
+
+        @Override
+        public void put(String key, byte[] value) {
+            values.put(key, value);
+        }
+
+        @Override
+        public long size() {
+            return values.size();
+        }
+    }
+
+    @AfterEach
+    void reset() {
+        FhirResultCache.configure(0, null, "");
+    }
+
+    @Test
+    void get_shouldUseLocalTierThenStore() {
+        var store = new MapStore();
+        FhirResultCache.configure(10, store, "server");
+        var key = FhirResultCache.key(FhirResultCache.VALIDATION, "{}".getBytes(StandardCharsets.UTF_8), "profile");
+        FhirResultCache.put(key, new byte[]{1});
+        assertArrayEquals(new byte[]{1}, store.get(key));
+
+        long storeHits = FhirResultCache.getStoreHits();
+        FhirResultCache.clear();
+        assertArrayEquals(new byte[]{1}, FhirResultCache.get(key));
+        assertEquals(storeHits + 1, FhirResultCache.getStoreHits());
+        // Now in the local tier
+        long localHits = FhirResultCache.getLocalHits();
+        assertArrayEquals(new byte[]{1}, FhirResultCache.get(key));
+        assertEquals(localHits + 1, FhirResultCache.getLocalHits());
+    }
+
+    @Test
+    void key_otherServerOrRequest_shouldDiffer() {
+        var body = "{}".getBytes(StandardCharsets.UTF_8);
+        FhirResultCache.configure(10, null, "server");
+        var key = FhirResultCache.key(FhirResultCache.VALIDATION, body, "a", "full");
+        assertTrue(key.matches("[0-9a-f]{64}"));
+        assertEquals(key, FhirResultCache.key(FhirResultCache.VALIDATION, body, "a", "full"));
+        assertNotEquals(key, FhirResultCache.key(FhirResultCache.VALIDATION, body, "af", "ull"));
+        assertNotEquals(key, FhirResultCache.key(FhirResultCache.TX_VALIDATION, body, "a", "full"));
+
+        FhirResultCache.configure(10, null, "server with other packages");
+        assertNotEquals(key, FhirResultCache.key(FhirResultCache.VALIDATION, body, "a", "full"));
+    }
+
+    @Test
+    void putLocal_full_shouldEvict() {
+        FhirResultCache.configure(20, null, "server");
+        for (int i = 0; i < 50; i++) {
+            FhirResultCache.putLocal(String.valueOf(i), new byte[]{(byte) i});
+        }
+        assertTrue(FhirResultCache.size() <= 20);
+        assertNotNull(FhirResultCache.getLocal("49"));
+    }
+
+    @Test
+    void putLocal_overBudget_shouldStayWithinIt() {
+        long originalBudget = FhirCacheBudget.getMaxBytes();
+        long used = FhirCacheBudget.getUsedBytes();
+        try {
+            FhirResultCache.configure(1000, null, "server");
+            FhirCacheBudget.setMaxBytes(used + 10 * 100);
+            for (int i = 0; i < 50; i++) {
+                FhirResultCache.putLocal(String.valueOf(i), new byte[100]);
+            }
+            assertTrue(FhirResultCache.size() <= 10);
+            assertTrue(FhirCacheBudget.getUsedBytes() <= FhirCacheBudget.getMaxBytes());
+            FhirResultCache.clear();
+            assertEquals(used, FhirCacheBudget.getUsedBytes());
+        } finally {
+            FhirCacheBudget.setMaxBytes(originalBudget);
+        }
+    }
+
+    @Test
+    void controller_put_shouldNeedTheSecret() {
+        FhirResultCache.configure(10, null, "server");
+        var controller = new FhirResultCacheController();
+        controller.configuration = new FhirValidatorConfiguration();
+        controller.configuration.setResultCacheServe(true);
+        var key = "ab".repeat(32);
+        var value = new byte[]{1, 2, 3};
+
+        // Without a secret, /cache is read-only
+        assertEquals(403, controller.put(key, null, value).getStatusCode().value());
+        assertNull(FhirResultCache.getLocal(key));
+
+        controller.configuration.setResultCacheSecret("s3cret");
+        assertEquals(403, controller.put(key, "Bearer guess", value).getStatusCode().value());
+        assertEquals(204, controller.put(key, "Bearer s3cret", value).getStatusCode().value());
+        assertEquals(403, controller.get(key, null).getStatusCode().value());
+        assertArrayEquals(value, controller.get(key, "Bearer s3cret").getBody());
+    }
+
+    @Test
+    void httpStore_unreachable_shouldBeSkipped() {
+        // Nothing listens on port 1, so the connection is refused right away
+        var store = new FhirHttpResultStore("http://127.0.0.1:1", "s3cret");
+        assertFalse(store.isOpen());
+        assertNull(store.get("ab".repeat(32)));
+        assertTrue(store.isOpen());
+        assertNull(store.get("ab".repeat(32)));
+    }
+
+    @Test
+    void messageCodec_shouldKeepEveryField() {
+        var slice = new ValidationMessage(ValidationMessage.Source.InstanceValidator, ValidationMessage.IssueType.STRUCTURE,
+                "Patient.identifier[0]", "Does not match slice 'mrn'", ValidationMessage.IssueSeverity.INFORMATION);
+        var message = new ValidationMessage(ValidationMessage.Source.InstanceValidator, ValidationMessage.IssueType.CODEINVALID,
+                3, 17, "Patient.gender", "Unknown code 'x'", ValidationMessage.IssueSeverity.ERROR)
+                .setMessageId("Terminology_TX_Code_ValueSet")
+                .setTxLink("http://tx.example.org/log/1")
+                .setInvId("pat-1")
+                .setRuleDate(new Date(1700000000000L))
+                .setSignpost(true);
+        message.setServer("http://tx.example.org");
+        message.setSliceInfo(List.of(slice));
+        var empty = new ValidationMessage();
+
+        var decoded = FhirMessageCodec.decode(FhirMessageCodec.encode(List.of(message, empty)));
+        assertNotNull(decoded);
+        assertEquals(2, decoded.size());
+        var copy = decoded.get(0);
+        assertTrue(message.preciseMatch(copy));
+        assertEquals(message.getLevel(), copy.getLevel());
+        assertEquals(message.getMessageId(), copy.getMessageId());
+        assertEquals(message.getLine(), copy.getLine());
+        assertEquals(message.getCol(), copy.getCol());
+        assertEquals(message.getTxLink(), copy.getTxLink());
+        assertEquals(message.getServer(), copy.getServer());
+        assertEquals(message.getRuleDate(), copy.getRuleDate());
+        assertTrue(copy.isSignpost());
+        assertEquals("Does not match slice 'mrn'", copy.getSliceInfo().get(0).getMessage());
+        assertNull(decoded.get(1).getLevel());
+        assertEquals(empty.getMessage(), decoded.get(1).getMessage());
+    }
+
+    @Test
+    void messageCodec_corruptBytes_shouldDecodeToNull() {
+        var message = new ValidationMessage(ValidationMessage.Source.InstanceValidator, ValidationMessage.IssueType.CODEINVALID,
+                "Patient.gender", "Unknown code 'x'", ValidationMessage.IssueSeverity.ERROR);
+        var encoded = FhirMessageCodec.encode(List.of(message));
+
+        var hugeCount = encoded.clone();
+        hugeCount[1] = 0x7f;
+        assertNull(FhirMessageCodec.decode(hugeCount));
+
+        var badOrdinal = encoded.clone();
+        badOrdinal[5] = 0x7f;
+        assertNull(FhirMessageCodec.decode(badOrdinal));
+
+        assertNull(FhirMessageCodec.decode(Arrays.copyOf(encoded, encoded.length / 2)));
+        assertNull(FhirMessageCodec.decode(new byte[0]));
+    }
+
+    @Test
+    void terminologyCodec_shouldKeepTheAnswer() {
+        var definition = new CodeSystem.ConceptDefinitionComponent().setCode("male").setDisplay("Male");
+        var issue = new OperationOutcome.OperationOutcomeIssueComponent()
+                .setSeverity(OperationOutcome.IssueSeverity.WARNING)
+                .setCode(OperationOutcome.IssueType.INVALID);
+        issue.getDetails().setText("Wrong display");
+        var result = new ValidationResult(ValidationMessage.IssueSeverity.WARNING, List.of("Wrong display"),
+                "http://hl7.org/fhir/administrative-gender", "4.0.1", definition, null, List.of(issue));
+
+        var copy = FhirTerminologyCache.decodeValidation(FhirTerminologyCache.encodeValidation(result));
+        assertNotNull(copy);
+        assertEquals(result.getSeverity(), copy.getSeverity());
+        assertEquals(result.getMessage(), copy.getMessage());
+        assertEquals(result.getSystem(), copy.getSystem());
+        assertEquals(result.getVersion(), copy.getVersion());
+        assertEquals("male", copy.getCode());
+        assertEquals("Male", copy.getDisplay());
+        assertEquals(1, copy.getIssues().size());
+        assertEquals("Wrong display", copy.getIssues().get(0).getDetails().getText());
+        assertFalse(copy.isInactive());
+    }
+}
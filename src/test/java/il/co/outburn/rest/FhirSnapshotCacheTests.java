@@ -0,0 +1,46 @@
+package il.co.outburn.rest;
+
+import org.hl7.fhir.r5.model.StructureDefinition;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class FhirSnapshotCacheTests {
+    @TempDir
+    Path tempDir;
+
+    private static StructureDefinition createProfile() {
+        var sd = new StructureDefinition();
+        sd.setUrl("http://example.org/StructureDefinition/my-patient");
+        sd.setVersion("1.0.0");
+        sd.getSnapshot().addElement().setPath("Patient").setId("Patient");
+        sd.getSnapshot().addElement().setPath("Patient.gender").setMin(1).setMax("1").setId("Patient.gender");
+        return sd;
+    }
+
+    @Test
+    void writeAndRead_sameFingerprint_shouldReturnSnapshotsByVersionedUrl() throws IOException {
+        var path = tempDir.resolve("snapshots/cache.ndjson.gz");
+        FhirSnapshotCache.write(path, "4.0.1|[hl7.fhir.r4.core#4.0.1]", List.of(createProfile()));
+
+        var snapshots = FhirSnapshotCache.read(path, "4.0.1|[hl7.fhir.r4.core#4.0.1]");
+        var snapshot = snapshots.get("http://example.org/StructureDefinition/my-patient|1.0.0");
+        assertNotNull(snapshot);
+        assertEquals(2, snapshot.getElement().size());
+        assertEquals("Patient.gender", snapshot.getElement().get(1).getPath());
+        assertEquals(1, snapshot.getElement().get(1).getMin());
+    }
+
+    @Test
+    void read_otherFingerprint_shouldReturnNothing() throws IOException {
+        var path = tempDir.resolve("cache.ndjson.gz");
+        FhirSnapshotCache.write(path, "4.0.1|[hl7.fhir.r4.core#4.0.1]", List.of(createProfile()));
+
+        assertTrue(FhirSnapshotCache.read(path, "4.0.1|[hl7.fhir.r4.core#4.0.1, hl7.fhir.us.core#6.1.0]").isEmpty());
+    }
+}
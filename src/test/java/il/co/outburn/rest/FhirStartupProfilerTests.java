@@ -0,0 +1,41 @@
+package il.co.outburn.rest;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class FhirStartupProfilerTests {
+
+    @Test
+    void stages_shouldBeReportedInOrder() throws Exception {
+        var profiler = new FhirStartupProfiler(false);
+        var stage = profiler.start("first");
+        Thread.sleep(5);
+        stage.finish();
+        profiler.start("IG example#1.0.0").finish(List.of("example#1.0.0", "dependency#2.0.0"), 42);
+
+        var report = profiler.getReport();
+        assertSame(profiler, FhirStartupProfiler.getCurrent());
+        assertEquals(2, report.stages().size());
+        assertEquals("first", report.stages().get(0).name());
+        assertTrue(report.stages().get(0).durationMs() >= 5);
+        assertEquals(42, report.stages().get(1).resources());
+        assertEquals(2, report.stages().get(1).packages().size());
+        assertNull(report.totalRetainedBytes());
+        assertNull(report.stages().get(0).retainedBytes());
+    }
+
+    @Test
+    void memoryAccounting_shouldReportRetainedBytes() {
+        var profiler = new FhirStartupProfiler(true);
+        var stage = profiler.start("allocate");
+        var retained = new byte[8 * 1024 * 1024];
+        stage.finish();
+
+        var report = profiler.getReport();
+        assertNotNull(report.totalRetainedBytes());
+        assertTrue(report.stages().get(0).allocatedBytes() >= retained.length);
+    }
+}
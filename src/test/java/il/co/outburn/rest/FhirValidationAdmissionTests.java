@@ -0,0 +1,120 @@
+package il.co.outburn.rest;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.actuate.health.Status;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class FhirValidationAdmissionTests {
+
+    private static FhirValidationAdmission createAdmission(int engines, int queuePerEngine, long queueTimeout) {
+        return createAdmission(engines, queuePerEngine, queueTimeout, true);
+    }
+
+    private static FhirValidationAdmission createAdmission(int engines, int queuePerEngine, long queueTimeout, boolean borrowing) {
+        var configuration = new FhirValidatorConfiguration();
+        configuration.setMaxEngines(engines);
+        configuration.setQueueSizePerEngine(queuePerEngine);
+        configuration.setQueueTimeout(queueTimeout);
+        configuration.setLaneBorrowing(borrowing);
+        return new FhirValidationAdmission(configuration, new SimpleMeterRegistry());
+    }
+
+    @Test
+    void acquire_belowLimit_shouldAdmit() {
+        var admission = createAdmission(2, 0, 0);
+        try (var first = admission.acquire(FhirValidationLane.INTERACTIVE); var second = admission.acquire(FhirValidationLane.INTERACTIVE)) {
+            assertEquals(2, admission.getInFlight());
+        }
+        assertEquals(0, admission.getInFlight());
+    }
+
+    @Test
+    void acquire_queueFull_shouldRejectWithRetryAfter() {
+        var admission = createAdmission(1, 0, 1000);
+        try (var permit = admission.acquire(FhirValidationLane.INTERACTIVE)) {
+            var ex = assertThrows(FhirValidationRejectedException.class, () -> admission.acquire(FhirValidationLane.INTERACTIVE));
+            assertTrue(ex.getRetryAfterSeconds() >= 1);
+            assertEquals(Status.OUT_OF_SERVICE, admission.health().getStatus());
+        }
+        assertEquals(Status.UP, admission.health().getStatus());
+    }
+
+    @Test
+    void acquire_queueTimeout_shouldReject() {
+        var admission = createAdmission(1, 1, 50);
+        try (var permit = admission.acquire(FhirValidationLane.INTERACTIVE)) {
+            assertThrows(FhirValidationRejectedException.class, () -> admission.acquire(FhirValidationLane.INTERACTIVE));
+            assertEquals(0, admission.getQueued(FhirValidationLane.INTERACTIVE));
+        }
+    }
+
+    @Test
+    void acquire_permitReleased_shouldAdmitWaitingRequest() throws Exception {
+        var admission = createAdmission(1, 1, 5000);
+        var permit = admission.acquire(FhirValidationLane.INTERACTIVE);
+        var waiter = new Thread(() -> admission.acquire(FhirValidationLane.INTERACTIVE).close());
+        waiter.start();
+        while (admission.getQueued(FhirValidationLane.INTERACTIVE) == 0) {
+            Thread.sleep(5);
+        }
+        permit.close();
+        waiter.join(5000);
+        assertFalse(waiter.isAlive());
+        assertEquals(0, admission.getInFlight());
+    }
+
+    @Test
+    void acquire_bundleLaneFull_shouldNotBlockInteractiveLane() {
+        var admission = createAdmission(10, 0, 0, false);
+        assertEquals(5, admission.getQuota(FhirValidationLane.INTERACTIVE));
+        assertEquals(3, admission.getQuota(FhirValidationLane.BUNDLE));
+
+        var bundles = new java.util.ArrayList<FhirValidationAdmission.Permit>();
+        for (int i = 0; i < 3; i++) {
+            bundles.add(admission.acquire(FhirValidationLane.BUNDLE));
+        }
+        assertThrows(FhirValidationRejectedException.class, () -> admission.acquire(FhirValidationLane.BUNDLE));
+        try (var interactive = admission.acquire(FhirValidationLane.INTERACTIVE)) {
+            assertEquals(1, admission.getInFlight(FhirValidationLane.INTERACTIVE));
+        }
+        bundles.forEach(FhirValidationAdmission.Permit::close);
+    }
+
+    @Test
+    void acquire_idleLanes_shouldLendCapacity() {
+        var admission = createAdmission(10, 0, 0, true);
+        var bundles = new java.util.ArrayList<FhirValidationAdmission.Permit>();
+        for (int i = 0; i < 10; i++) {
+            bundles.add(admission.acquire(FhirValidationLane.BUNDLE));
+        }
+        assertEquals(10, admission.getInFlight());
+        assertThrows(FhirValidationRejectedException.class, () -> admission.acquire(FhirValidationLane.INTERACTIVE));
+        bundles.forEach(FhirValidationAdmission.Permit::close);
+        assertEquals(0, admission.getInFlight());
+    }
+
+    @Test
+    void laneForResource_largeBody_shouldUseBundleLane() {
+        var admission = createAdmission(2, 0, 0);
+        assertEquals(FhirValidationLane.INTERACTIVE, admission.laneForResource(1024));
+        assertEquals(FhirValidationLane.BUNDLE, admission.laneForResource(10 * 1024 * 1024));
+    }
+
+    @Test
+    void setLimit_raised_shouldAdmitWaitingRequest() throws Exception {
+        var admission = createAdmission(1, 1, 5000);
+        var permit = admission.acquire(FhirValidationLane.INTERACTIVE);
+        var waiter = new Thread(() -> admission.acquire(FhirValidationLane.INTERACTIVE).close());
+        waiter.start();
+        while (admission.getQueued(FhirValidationLane.INTERACTIVE) == 0) {
+            Thread.sleep(5);
+        }
+        admission.setLimit(4);
+        waiter.join(5000);
+        assertFalse(waiter.isAlive());
+        assertEquals(2, admission.getQuota(FhirValidationLane.INTERACTIVE));
+        permit.close();
+    }
+}
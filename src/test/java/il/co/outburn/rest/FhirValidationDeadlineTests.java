@@ -0,0 +1,41 @@
+package il.co.outburn.rest;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class FhirValidationDeadlineTests {
+
+    @Test
+    void none_shouldNeverExpire() {
+        var deadline = FhirValidationDeadline.none();
+        assertFalse(deadline.hasDeadline());
+        assertDoesNotThrow(deadline::checkpoint);
+    }
+
+    @Test
+    void afterMillis_expired_shouldThrowAtCheckpoint() throws Exception {
+        var deadline = FhirValidationDeadline.afterMillis(1);
+        Thread.sleep(10);
+        var ex = assertThrows(FhirValidationCancelledException.class, deadline::checkpoint);
+        assertEquals(FhirValidationDeadline.Reason.DEADLINE_EXCEEDED, ex.getReason());
+    }
+
+    @Test
+    void cancel_shouldKeepFirstReason() {
+        var deadline = FhirValidationDeadline.afterMillis(60000);
+        assertFalse(deadline.isCancelled());
+        deadline.cancel(FhirValidationDeadline.Reason.CLIENT_DISCONNECTED);
+        deadline.cancel(FhirValidationDeadline.Reason.DEADLINE_EXCEEDED);
+        assertEquals(FhirValidationDeadline.Reason.CLIENT_DISCONNECTED, deadline.getCancelReason());
+    }
+
+    @Test
+    void cancellationAdvisor_cancelled_shouldStopBeforeDelegating() {
+        var deadline = FhirValidationDeadline.none();
+        var advisor = new FhirRequestPolicyAdvisor(null, deadline);
+        deadline.cancel(FhirValidationDeadline.Reason.DEADLINE_EXCEEDED);
+        assertThrows(FhirValidationCancelledException.class,
+                () -> advisor.policyForResource(null, null, null, "Patient"));
+    }
+}
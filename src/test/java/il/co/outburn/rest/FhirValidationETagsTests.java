@@ -0,0 +1,76 @@
+package il.co.outburn.rest;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class FhirValidationETagsTests {
+    private static final byte[] PATIENT = "{\"resourceType\":\"Patient\"}".getBytes(StandardCharsets.UTF_8);
+
+    private static FhirValidationETags createETags(int size) {
+        var configuration = new FhirValidatorConfiguration();
+        configuration.setEtagCacheSize(size);
+        return new FhirValidationETags(configuration);
+    }
+
+    @Test
+    void compute_sameRequest_shouldMatch() {
+        var etags = createETags(10);
+        var etag = etags.compute(PATIENT, Map.of("mode", new String[]{"full"}, "profile", new String[]{"a", "b"}), false);
+        assertTrue(etag.matches("\"[0-9a-f]{32}\""));
+        assertEquals(etag, etags.compute(PATIENT, Map.of("profile", new String[]{"a", "b"}, "mode", new String[]{"full"}), false));
+    }
+
+    @Test
+    void compute_otherBodyParametersOrRepresentation_shouldDiffer() {
+        var etags = createETags(10);
+        var etag = etags.compute(PATIENT, Map.of("profile", new String[]{"a"}), false);
+        assertNotEquals(etag, etags.compute("{\"resourceType\":\"Patient\" }".getBytes(StandardCharsets.UTF_8), Map.of("profile", new String[]{"a"}), false));
+        assertNotEquals(etag, etags.compute(PATIENT, Map.of("profile", new String[]{"b"}), false));
+        assertNotEquals(etag, etags.compute(PATIENT, Map.of(), false));
+        assertNotEquals(etag, etags.compute(PATIENT, Map.of("profile", new String[]{"a"}), true));
+    }
+
+    @Test
+    void match_recordedETag_shouldReturnItAndItsOutcome() {
+        var etags = createETags(10);
+        var valid = etags.compute(PATIENT, Map.of(), false);
+        var invalid = etags.compute(PATIENT, Map.of(), true);
+        etags.record(valid, true);
+        etags.record(invalid, false);
+
+        assertEquals(valid, etags.match("\"unknown\", W/" + valid, valid));
+        assertTrue(etags.isValid(valid));
+        // The body hashes to another ETag than the one in the header
+        assertNull(etags.match(valid, invalid));
+        // Without a body any known ETag matches
+        assertEquals(invalid, etags.match("\"unknown\", " + invalid, null));
+        assertFalse(etags.isValid(invalid));
+        assertNull(etags.match("*", null));
+    }
+
+    @Test
+    void record_full_shouldEvictAndDisabled_shouldKeepNothing() {
+        var etags = createETags(20);
+        for (int i = 0; i < 50; i++) {
+            etags.record("\"" + i + "\"", true);
+        }
+        assertTrue(etags.size() <= 20);
+        assertNotNull(etags.isValid("\"49\""));
+
+        var disabled = createETags(0);
+        assertFalse(disabled.isEnabled());
+        disabled.record("\"1\"", true);
+        assertEquals(0, disabled.size());
+    }
+
+    @Test
+    void parseIfNoneMatch_shouldReturnQuotedTags() {
+        assertEquals(List.of("\"a\"", "\"b\""), FhirValidationETags.parseIfNoneMatch(" \"a\" ,W/\"b\", *, c"));
+        assertTrue(FhirValidationETags.parseIfNoneMatch(null).isEmpty());
+    }
+}
@@ -0,0 +1,59 @@
+package il.co.outburn.rest;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class FhirValidationExecutorTests {
+
+    private static FhirValidationExecutor createExecutor(boolean virtualThreads) {
+        var configuration = new FhirValidatorConfiguration();
+        configuration.setMaxEngines(2);
+        return new FhirValidationExecutor(configuration, new SimpleMeterRegistry(), virtualThreads);
+    }
+
+    @Test
+    void execute_disabled_shouldRunOnCallingThread() throws Throwable {
+        var executor = createExecutor(false);
+        var caller = Thread.currentThread();
+        assertSame(caller, executor.execute(Thread::currentThread));
+    }
+
+    @Test
+    void execute_enabled_shouldRunOnPlatformThread() throws Throwable {
+        var executor = createExecutor(true);
+        try {
+            var result = new Thread[1];
+            var requestThread = Thread.ofVirtual().start(() -> {
+                try {
+                    result[0] = executor.execute(Thread::currentThread);
+                } catch (Throwable e) {
+                    throw new RuntimeException(e);
+                }
+            });
+            requestThread.join();
+            assertFalse(result[0].isVirtual());
+            assertTrue(result[0].getName().startsWith("yafva-validation-"));
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    void execute_taskThrows_shouldRethrowOriginalException() {
+        var executor = createExecutor(true);
+        try {
+            assertThrows(IOException.class, () -> executor.execute(() -> {
+                throw new IOException("boom");
+            }));
+            assertThrows(FhirValidationCancelledException.class, () -> executor.execute(() -> {
+                throw new FhirValidationCancelledException(FhirValidationDeadline.Reason.DEADLINE_EXCEEDED);
+            }));
+        } finally {
+            executor.shutdown();
+        }
+    }
+}
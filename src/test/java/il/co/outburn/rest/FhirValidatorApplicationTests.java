@@ -56,6 +56,51 @@ class FhirValidatorApplicationTests {
         assertTrue(FhirUtil.operationOutcomeHasErrorIssue(outcome));
     }
 
+    @Test
+    void validateBytes_invalidPatient_stopOnFirstError_shouldTruncateOutcome() throws Throwable {
+        String patientStr = """
+            { "resourceType": "Patient", "gender": "invalid", "birthDate": "not-a-date", "active": "yes" }
+        """;
+        byte[] patientBytes = patientStr.getBytes();
+        var options = FhirValidationOptions.defaults();
+        options.setStopOnFirstError(true);
+        FhirValidationResult result = assertDoesNotThrow(() ->
+            FhirValidator.validateBytes(patientBytes, profiles, configuration, options, FhirValidationDeadline.none())
+        );
+        assertNotNull(result);
+        assertTrue(result.isTruncated());
+        assertFalse(result.isReusable());
+        assertEquals(1, result.messages.stream().filter(m -> m.getLevel().isError()).count());
+        OperationOutcome outcome = (OperationOutcome)FhirUtil.bytesToResource(result.resourceBytes, configuration);
+        assertTrue(FhirUtil.operationOutcomeHasErrorIssue(outcome));
+        assertTrue(outcome.getIssue().stream().anyMatch(i -> i.getCode() == OperationOutcome.IssueType.INCOMPLETE));
+    }
+
+    @Test
+    void validateBundle_maxFailedEntries_shouldSkipRemainingEntries() throws Throwable {
+        String bundleStr = """
+                {
+                    "resourceType": "Bundle",
+                    "type": "batch",
+                    "entry": [
+                        { "fullUrl": "urn:uuid:1", "resource": { "resourceType": "Patient", "gender": "invalid" } },
+                        { "fullUrl": "urn:uuid:2", "resource": { "resourceType": "Patient", "gender": "male" } }
+                    ]
+                }
+                """;
+        var options = FhirValidationOptions.defaults();
+        options.setMaxFailedEntries(1);
+        FhirValidationResult result = assertDoesNotThrow(() ->
+            FhirValidator.validateBundle(bundleStr.getBytes(), configuration, options, FhirValidationDeadline.none())
+        );
+        assertTrue(result.isTruncated());
+        Bundle responseBundle = (Bundle)FhirUtil.bytesToResource(result.resourceBytes, configuration);
+        assertEquals(2, responseBundle.getEntry().size());
+        assertEquals("urn:uuid:2", responseBundle.getEntry().get(1).getFullUrl());
+        OperationOutcome skipped = (OperationOutcome)responseBundle.getEntry().get(1).getResponse().getOutcome();
+        assertEquals(OperationOutcome.IssueType.INCOMPLETE, skipped.getIssueFirstRep().getCode());
+    }
+
     @Test
     void validateBytes_batchBundleWithInvalidPatient_shouldReturnErrorOutcome() throws Throwable {
         String bundleStr = """
@@ -165,6 +210,35 @@ class FhirValidatorApplicationTests {
         assertTrue(FhirUtil.operationOutcomeHasErrorIssue(outcome));
     }
 
+    @Test
+    void validateBytes_ilCorePatientWithInvalidNationalId_structureMode_shouldSkipProfile() throws Throwable {
+        List<String> ilCoreProfiles = List.of("http://fhir.health.gov.il/StructureDefinition/il-core-patient");
+        String patientStr = """
+            {
+                "resourceType": "Patient",
+                "meta": { "profile": ["http://fhir.health.gov.il/StructureDefinition/il-core-patient"] },
+                "identifier": [
+                    {
+                        "system": "http://fhir.health.gov.il/identifier/il-national-id",
+                        "value": "000000019"
+                    }
+                ],
+                "name": [ { "given": [ "Israel" ], "family": "Israeli" } ],
+                "gender": "male",
+                "birthDate": "2025-01-01"
+            }
+        """;
+        byte[] patientBytes = patientStr.getBytes();
+        var options = FhirValidationOptions.defaults();
+        options.setMode(FhirValidationMode.STRUCTURE);
+        FhirValidationResult result = assertDoesNotThrow(() ->
+            FhirValidator.validateBytes(patientBytes, ilCoreProfiles, configuration, options, FhirValidationDeadline.none())
+        );
+        assertNotNull(result);
+        OperationOutcome outcome = (OperationOutcome)FhirUtil.bytesToResource(result.resourceBytes, configuration);
+        assertFalse(FhirUtil.operationOutcomeHasErrorIssue(outcome));
+    }
+
     // validateBundle tests
     @Test
     void validateBundle_nullInput_shouldThrowException() {
@@ -459,4 +533,91 @@ class FhirValidatorApplicationTests {
         assertNotNull(exception);
         assertTrue(exception.getMessage().contains("Bundle.entry[3].fullUrl must be unique"));
     }
+
+    @Test
+    void validateBundle_compact_shouldReturnEntriesWithoutBundle() throws Exception {
+        String bundleStr = """
+            { "resourceType": "Bundle", "type": "batch", "entry": [
+                {
+                    "fullUrl": "urn:uuid:entry1",
+                    "request": { "method": "POST", "url": "Patient" },
+                    "resource": { "resourceType": "Patient", "gender": "male" }
+                },
+                {
+                    "fullUrl": "urn:uuid:entry2",
+                    "request": { "method": "POST", "url": "Patient" },
+                    "resource": { "resourceType": "Patient", "gender": "invalid-gender" }
+                }
+            ] }
+        """;
+        var options = FhirValidationOptions.defaults();
+        options.setCompact(true);
+        FhirValidationResult result = assertDoesNotThrow(() ->
+            FhirValidator.validateBundle(bundleStr.getBytes(), configuration, options, FhirValidationDeadline.none())
+        );
+        assertNull(result.resourceBytes);
+        assertEquals(2, result.getEntries().size());
+        assertEquals("urn:uuid:entry1", result.getEntries().get(0).fullUrl());
+        assertTrue(result.getEntries().get(0).valid());
+        assertFalse(result.getEntries().get(1).valid());
+        assertTrue(result.getEntries().get(1).issues().stream().anyMatch(issue -> "error".equals(issue.severity())));
+    }
+
+    @Test
+    void validateBundle_identicalEntries_shouldBeValidatedOnce() throws Exception {
+        String bundleStr = """
+            { "resourceType": "Bundle", "type": "batch", "entry": [
+                {
+                    "fullUrl": "urn:uuid:org1",
+                    "request": { "method": "POST", "url": "Organization" },
+                    "resource": { "resourceType": "Organization", "name": "Clinic", "active": "yes" }
+                },
+                {
+                    "fullUrl": "urn:uuid:org2",
+                    "request": { "method": "POST", "url": "Organization" },
+                    "resource": { "active": "yes", "resourceType": "Organization", "name": "Clinic" }
+                },
+                {
+                    "fullUrl": "urn:uuid:org3",
+                    "request": { "method": "POST", "url": "Organization" },
+                    "resource": { "resourceType": "Organization", "name": "Other clinic" }
+                }
+            ] }
+        """;
+        var options = FhirValidationOptions.defaults();
+        options.setCompact(true);
+        long deduplicated = FhirValidator.getDeduplicatedEntries();
+        FhirValidationResult result = assertDoesNotThrow(() ->
+            FhirValidator.validateBundle(bundleStr.getBytes(), configuration, options, FhirValidationDeadline.none())
+        );
+        assertEquals(1, result.getDeduplicatedEntries());
+        assertEquals(deduplicated + 1, FhirValidator.getDeduplicatedEntries());
+        assertEquals(3, result.getEntries().size());
+        assertEquals("urn:uuid:org2", result.getEntries().get(1).fullUrl());
+        assertFalse(result.getEntries().get(0).valid());
+        assertFalse(result.getEntries().get(1).valid());
+        assertEquals(result.getEntries().get(0).issues(), result.getEntries().get(1).issues());
+        assertTrue(result.getEntries().get(2).valid());
+    }
+
+    @Test
+    void validateBytes_resultCache_shouldAnswerTheSameResourceFromTheCache() throws Throwable {
+        String patientStr = """
+            { "resourceType": "Patient", "gender": "unknown-gender", "birthDate": "1970-13-01" }
+        """;
+        byte[] patientBytes = patientStr.getBytes();
+        FhirResultCache.configure(100, null, "test");
+        try {
+            var first = FhirValidator.validateBytes(patientBytes, profiles, configuration);
+            long hits = FhirResultCache.getLocalHits();
+            var second = FhirValidator.validateBytes(patientBytes, profiles, configuration);
+            assertEquals(hits + 1, FhirResultCache.getLocalHits());
+            assertTrue(second.isHasErrors());
+            assertArrayEquals(first.resourceBytes, second.resourceBytes);
+            assertEquals(first.messages.stream().map(m -> m.getLevel() + " " + m.getLocation() + " " + m.getMessage()).toList(),
+                    second.messages.stream().map(m -> m.getLevel() + " " + m.getLocation() + " " + m.getMessage()).toList());
+        } finally {
+            FhirResultCache.configure(0, null, "");
+        }
+    }
 }
@@ -0,0 +1,79 @@
+package il.co.outburn.rest;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class FhirValueSetIndexTests {
+    @TempDir
+    Path tempDir;
+
+    private static Map<String, List<FhirValueSetIndex.Code>> createExpansions() {
+        var expansions = new LinkedHashMap<String, List<FhirValueSetIndex.Code>>();
+        expansions.put("http://hl7.org/fhir/ValueSet/administrative-gender|4.0.1", List.of(
+                new FhirValueSetIndex.Code("http://hl7.org/fhir/administrative-gender", "4.0.1", "male", "Male", false, false),
+                new FhirValueSetIndex.Code("http://hl7.org/fhir/administrative-gender", "4.0.1", "unknown", null, false, true)));
+        expansions.put("http://example.org/ValueSet/grouped", List.of(
+                new FhirValueSetIndex.Code("http://example.org/CodeSystem/a", null, "group", "Group", true, false),
+                new FhirValueSetIndex.Code(null, null, "local", null, false, false)));
+        return expansions;
+    }
+
+    @Test
+    void writeAndRead_sameFingerprint_shouldReturnTheExpansions() throws IOException {
+        var path = tempDir.resolve("index/valuesets.bin");
+        var expansions = createExpansions();
+        FhirValueSetIndex.write(path, "4.0.1|[hl7.fhir.r4.core#4.0.1]|null|10000", expansions);
+
+        assertEquals(expansions, FhirValueSetIndex.read(path, "4.0.1|[hl7.fhir.r4.core#4.0.1]|null|10000"));
+    }
+
+    @Test
+    void read_otherFingerprint_shouldReturnNull() throws IOException {
+        var path = tempDir.resolve("valuesets.bin");
+        FhirValueSetIndex.write(path, "4.0.1|[hl7.fhir.r4.core#4.0.1]|null|10000", createExpansions());
+
+        assertNull(FhirValueSetIndex.read(path, "4.0.1|[hl7.fhir.r4.core#4.0.1, il.core.fhir.r4#0.17.0]|null|10000"));
+    }
+
+    @Test
+    void isExpired_withTxServer_shouldFollowTheMaxAge() throws IOException {
+        var path = tempDir.resolve("valuesets.bin");
+        FhirValueSetIndex.write(path, "4.0.1|[hl7.fhir.r4.core#4.0.1]|http://tx.example.org|10000", createExpansions());
+        Files.setLastModifiedTime(path, FileTime.from(Instant.now().minus(Duration.ofHours(25))));
+        var configuration = new FhirValidatorConfiguration();
+
+        assertFalse(FhirValueSetIndex.isExpired(path, configuration));
+        configuration.setTxServer("http://tx.example.org");
+        assertTrue(FhirValueSetIndex.isExpired(path, configuration));
+        configuration.setValuesetIndexMaxAgeHours(48);
+        assertFalse(FhirValueSetIndex.isExpired(path, configuration));
+    }
+
+    @Test
+    void toExpansion_shouldKeepCodesAndFlags() {
+        var codes = createExpansions().get("http://example.org/ValueSet/grouped");
+        var expansion = FhirValueSetIndex.toExpansion(codes);
+
+        assertEquals(2, expansion.getTotal());
+        assertEquals(2, expansion.getContains().size());
+        var group = expansion.getContains().get(0);
+        assertEquals("http://example.org/CodeSystem/a", group.getSystem());
+        assertEquals("group", group.getCode());
+        assertEquals("Group", group.getDisplay());
+        assertTrue(group.getAbstract());
+        assertFalse(group.hasVersion());
+        assertFalse(expansion.getContains().get(1).hasSystem());
+    }
+}